@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2021 audreyazura
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dosgenerator.benchmarks;
+
+import albanlafuente.physicstools.physics.Material;
+import albanlafuente.physicstools.physics.Metamaterial;
+import albanlafuente.physicstools.physics.PhysicsVariables;
+import dosgenerator.generator.ParallelQDGenerator;
+import dosgenerator.generator.QuantumDot;
+import dosgenerator.generator.QDSizeDistribution;
+import dosgenerator.generator.SCSVLoader;
+import dosgenerator.generator.SpatialGrid;
+import dosgenerator.generator.SpectrumCalculator;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Material and QD samples shared by the benchmarks. The ressources directory is taken from the dosgenerator.ressources system property, ressources by default.
+ * @author audreyazura
+ */
+public class BenchmarkSample
+{
+    public static final long SEED = 0x5EEDL;
+    
+    private BenchmarkSample ()
+    {
+        
+    }
+    
+    public static Metamaterial loadInAsGaAs() throws IOException
+    {
+        String ressources = System.getProperty("dosgenerator.ressources", "ressources");
+        SCSVLoader functionLoader = new SCSVLoader();
+        Map<String, Material> materialMap = new HashMap<>();
+        
+        for (String materialName: new String[] {"InAs", "GaAs"})
+        {
+            Material material = new Material(loadProperties(Paths.get(ressources, "materials", materialName + ".mat").toString()), functionLoader);
+            materialMap.put(material.getMaterialName(), material);
+        }
+        
+        return new Metamaterial(loadProperties(Paths.get(ressources, "metamaterials", "InAsGaAs.metamat").toString()), materialMap);
+    }
+    
+    /**
+     * Generate a sample the way the simulations do, with the QD density of the default simulation (100000 QDs per cm^2)
+     * @param p_calculator
+     * @param p_nQDs
+     * @return the QDs, with their levels
+     * @throws InterruptedException
+     * @throws ExecutionException 
+     */
+    public static List<QuantumDot> generate (SpectrumCalculator p_calculator, int p_nQDs) throws InterruptedException, ExecutionException
+    {
+        BigDecimal sampleSize = sampleSide(p_nQDs);
+        List<QuantumDot> QDList = new ArrayList<>(p_nQDs);
+        
+        ParallelQDGenerator generator = new ParallelQDGenerator(p_calculator, sampleSize, sampleSize, SEED, Runtime.getRuntime().availableProcessors());
+        generator.generate(p_nQDs, new SpatialGrid(QDSizeDistribution.DEFAULT.getMaximumRadius()), QDList::add);
+        
+        return QDList;
+    }
+    
+    /**
+     * 
+     * @param p_nQDs
+     * @return the side of the square sample holding this number of QDs at the density of the default simulation, in m
+     */
+    public static BigDecimal sampleSide (int p_nQDs)
+    {
+        return (new BigDecimal(Math.sqrt(p_nQDs / 100000.0))).multiply(PhysicsVariables.UnitsPrefix.CENTI.getMultiplier());
+    }
+    
+    private static Properties loadProperties (String p_file) throws IOException
+    {
+        Properties properties = new Properties();
+        Reader propertiesReader = new FileReader(p_file);
+        try
+        {
+            properties.load(propertiesReader);
+        }
+        finally
+        {
+            propertiesReader.close();
+        }
+        
+        return properties;
+    }
+}
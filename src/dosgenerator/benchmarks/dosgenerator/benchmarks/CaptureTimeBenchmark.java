@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2021 audreyazura
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dosgenerator.benchmarks;
+
+import albanlafuente.physicstools.math.ContinuousFunction;
+import albanlafuente.physicstools.physics.PhysicsVariables;
+import dosgenerator.generator.ResampledFunction;
+import dosgenerator.generator.SCSVLoader;
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Capture time of the QDs of the default size distribution, read from the InAs capture time file as loaded and through its resampled table.
+ * The table is computed in the setup rather than through the resampling loader, so that no table file is written in the ressources.
+ * @author audreyazura
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CaptureTimeBenchmark
+{
+    private static final int NB_RADII = 1024;
+    
+    private ContinuousFunction m_function;
+    private ResampledFunction m_resampledFunction;
+    private BigDecimal[] m_radii;
+    private double[] m_doubleRadii;
+    private int m_next = 0;
+    
+    @Setup
+    public void setup() throws IOException, DataFormatException
+    {
+        String ressources = System.getProperty("dosgenerator.ressources", "ressources");
+        m_function = (new SCSVLoader()).loadFunction(new File(Paths.get(ressources, "capturetimes", "InAs.scsv").toString()), PhysicsVariables.UnitsPrefix.NANO, PhysicsVariables.UnitsPrefix.PICO);
+        m_resampledFunction = new ResampledFunction(m_function, ResampledFunction.DEFAULT_RELATIVE_TOLERANCE, ResampledFunction.DEFAULT_MAXIMUM_CELLS);
+        
+        //radii spread over 6 to 18 nm, around the 12 nm mean of the default distribution
+        m_radii = new BigDecimal[NB_RADII];
+        m_doubleRadii = new double[NB_RADII];
+        for (int i = 0 ; i < NB_RADII ; i += 1)
+        {
+            m_doubleRadii[i] = (6 + 12.0 * i / NB_RADII) * 1E-9;
+            m_radii[i] = new BigDecimal(m_doubleRadii[i]);
+        }
+    }
+    
+    @Benchmark
+    public BigDecimal loaded()
+    {
+        m_next = (m_next + 1) % NB_RADII;
+        return m_function.getValueAtPosition(m_radii[m_next]);
+    }
+    
+    @Benchmark
+    public double resampled()
+    {
+        m_next = (m_next + 1) % NB_RADII;
+        return m_resampledFunction.valueAt(m_doubleRadii[m_next]);
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2021 audreyazura
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dosgenerator.benchmarks;
+
+import albanlafuente.physicstools.physics.PhysicsVariables;
+import dosgenerator.generator.DOSHistogram;
+import dosgenerator.generator.QuantumDot;
+import dosgenerator.generator.SpectrumCalculator;
+import dosgenerator.generator.WellSolutionCache;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Binning of the states of a generated sample into the DOS histogram, with the bin width of the default simulation.
+ * @author audreyazura
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DOSHistogramBenchmark
+{
+    @Param({"10000", "100000"})
+    public int nQDs;
+    
+    private double[][] m_stateEnergies;
+    private double m_binWidth;
+    
+    @Setup
+    public void setup() throws IOException, InterruptedException, ExecutionException
+    {
+        SpectrumCalculator calculator = new SpectrumCalculator(BenchmarkSample.loadInAsGaAs(), SpectrumCalculator.ComputationMode.DOUBLE, new WellSolutionCache(1E-12, WellSolutionCache.DEFAULT_CAPACITY));
+        List<QuantumDot> QDList = BenchmarkSample.generate(calculator, nQDs);
+        
+        m_stateEnergies = new double[nQDs][];
+        for (int i = 0 ; i < nQDs ; i += 1)
+        {
+            m_stateEnergies[i] = QDList.get(i).getStateEnergies();
+        }
+        m_binWidth = (new BigDecimal("0.002")).multiply(PhysicsVariables.EV).doubleValue();
+    }
+    
+    @Benchmark
+    public DOSHistogram histogram()
+    {
+        DOSHistogram DOSCounts = new DOSHistogram(m_binWidth);
+        
+        for (double[] QDStates: m_stateEnergies)
+        {
+            DOSCounts.addAll(QDStates);
+        }
+        
+        return DOSCounts;
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2021 audreyazura
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dosgenerator.benchmarks;
+
+import dosgenerator.generator.FiniteWellSolver;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Convergence of the 1D finite well solvers, Newton and tabulated, for a few level indices and well parameters u0.
+ * The wells of the QDs have u0 from about 1 (heights) to a few tens (lateral sizes).
+ * @author audreyazura
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EnergyParameterBenchmark
+{
+    @Param({"0", "1", "5"})
+    public int index;
+    
+    @Param({"2", "10", "40"})
+    public double u0;
+    
+    private double m_u02;
+    
+    @Setup
+    public void setup()
+    {
+        m_u02 = u0 * u0;
+    }
+    
+    @Benchmark
+    public double energyParameter()
+    {
+        return FiniteWellSolver.energyParameter(index, m_u02);
+    }
+    
+    /**
+     * The solution with its number of iterations, the iterations being counted by the solver
+     */
+    @Benchmark
+    public FiniteWellSolver.Solution solve()
+    {
+        return FiniteWellSolver.solve(index, m_u02);
+    }
+    
+    /**
+     * The same wells solved through the interpolation table, whose time shouldn't depend on u0
+     */
+    @Benchmark
+    public FiniteWellSolver.Solution solveTabulated()
+    {
+        return FiniteWellSolver.solve(index, m_u02, FiniteWellSolver.Method.TABULATED);
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2021 audreyazura
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dosgenerator.benchmarks;
+
+import albanlafuente.physicstools.physics.PhysicsVariables;
+import dosgenerator.generator.QDSizeDistribution;
+import dosgenerator.generator.QuantumDot;
+import dosgenerator.generator.QuantumDotSpectrum;
+import dosgenerator.generator.SpatialGrid;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Test of a candidate position against a sample already holding 10k, 100k or 1M QDs, at the QD density of the default simulation.
+ * The placement grid is compared with the scan of every QD through getDistance the generator used to do.
+ * Only the geometry of the QDs matters here, they are built without levels.
+ * @author audreyazura
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class PlacementBenchmark
+{
+    private static final int NB_CANDIDATES = 1024;
+    
+    @Param({"10000", "100000", "1000000"})
+    public int nQDs;
+    
+    private List<QuantumDot> m_QDList;
+    private SpatialGrid m_placementGrid;
+    private double[][] m_candidates;
+    private BigDecimal[][] m_candidatesBigDecimal;
+    private int m_nextCandidate = 0;
+    
+    @Setup(Level.Trial)
+    public void setup()
+    {
+        SplittableRandom RNGenerator = new SplittableRandom(BenchmarkSample.SEED);
+        QuantumDotSpectrum noLevel = new QuantumDotSpectrum(new double[0], new double[0], new double[0]);
+        double sampleSide = BenchmarkSample.sampleSide(nQDs).doubleValue();
+        double nano = PhysicsVariables.UnitsPrefix.NANO.getMultiplier().doubleValue();
+        
+        m_QDList = new ArrayList<>(nQDs);
+        m_placementGrid = new SpatialGrid(QDSizeDistribution.DEFAULT.getMaximumRadius());
+        while (m_QDList.size() < nQDs)
+        {
+            double x = RNGenerator.nextDouble() * sampleSide;
+            double y = RNGenerator.nextDouble() * sampleSide;
+            double radius = drawRadius(RNGenerator) * nano;
+            
+            if (m_placementGrid.isFree(x, y, radius))
+            {
+                m_placementGrid.add(x, y, radius);
+                m_QDList.add(new QuantumDot(new BigDecimal(x), new BigDecimal(y), new BigDecimal(radius), new BigDecimal(radius / 3), noLevel));
+            }
+        }
+        
+        m_candidates = new double[NB_CANDIDATES][];
+        m_candidatesBigDecimal = new BigDecimal[NB_CANDIDATES][];
+        for (int i = 0 ; i < NB_CANDIDATES ; i += 1)
+        {
+            m_candidates[i] = new double[] {RNGenerator.nextDouble() * sampleSide, RNGenerator.nextDouble() * sampleSide, drawRadius(RNGenerator) * nano};
+            m_candidatesBigDecimal[i] = new BigDecimal[] {new BigDecimal(m_candidates[i][0]), new BigDecimal(m_candidates[i][1]), new BigDecimal(m_candidates[i][2])};
+        }
+    }
+    
+    @Benchmark
+    public BigDecimal getDistance()
+    {
+        BigDecimal[] candidate = nextCandidate();
+        
+        return m_QDList.get(m_nextCandidate).getDistance(candidate[0], candidate[1]);
+    }
+    
+    @Benchmark
+    public boolean gridPlacement()
+    {
+        double[] candidate = m_candidates[m_nextCandidate];
+        m_nextCandidate = (m_nextCandidate + 1) % NB_CANDIDATES;
+        
+        return m_placementGrid.isFree(candidate[0], candidate[1], candidate[2]);
+    }
+    
+    /**
+     * The test done before the placement grid, every QD of the sample being checked
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 2)
+    @Measurement(iterations = 5)
+    public boolean scanPlacement()
+    {
+        BigDecimal[] candidate = nextCandidate();
+        boolean valid = true;
+        
+        for (QuantumDot QD: m_QDList)
+        {
+            valid &= candidate[2].add(QD.getRadius()).compareTo(QD.getDistance(candidate[0], candidate[1])) < 0;
+        }
+        
+        return valid;
+    }
+    
+    private BigDecimal[] nextCandidate()
+    {
+        BigDecimal[] candidate = m_candidatesBigDecimal[m_nextCandidate];
+        m_nextCandidate = (m_nextCandidate + 1) % NB_CANDIDATES;
+        
+        return candidate;
+    }
+    
+    private static double drawRadius (SplittableRandom p_RNGenerator)
+    {
+        double radius;
+        
+        do
+        {
+            //Box-Muller, SplittableRandom having no gaussian
+            radius = Math.sqrt(-2 * Math.log(1 - p_RNGenerator.nextDouble())) * Math.cos(2 * Math.PI * p_RNGenerator.nextDouble()) * QDSizeDistribution.DEFAULT.getRadiusDeviation() + QDSizeDistribution.DEFAULT.getRadiusMean();
+        }while (radius <= 0);
+        
+        return radius;
+    }
+}
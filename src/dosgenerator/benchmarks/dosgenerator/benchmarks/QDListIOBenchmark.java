@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2021 audreyazura
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dosgenerator.benchmarks;
+
+import dosgenerator.generator.QDListIO;
+import dosgenerator.generator.QuantumDot;
+import dosgenerator.generator.SpectrumCache;
+import dosgenerator.generator.SpectrumCalculator;
+import dosgenerator.generator.WellSolutionCache;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Reading and writing of a generated QD list, in the text and binary formats.
+ * The text list doesn't hold the levels: the calculator reading it is given a spectrum cache already holding every QD, so that the reading measures the parsing and not the level computation.
+ * @author audreyazura
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QDListIOBenchmark
+{
+    @Param({"10000", "100000"})
+    public int nQDs;
+    
+    private SpectrumCalculator m_calculator;
+    private List<QuantumDot> m_QDList;
+    private Path m_directory;
+    private Path m_textFile;
+    private Path m_binaryFile;
+    
+    @Setup
+    public void setup() throws IOException, InterruptedException, ExecutionException
+    {
+        m_calculator = new SpectrumCalculator(BenchmarkSample.loadInAsGaAs(), SpectrumCalculator.ComputationMode.DOUBLE, new WellSolutionCache(1E-12, WellSolutionCache.DEFAULT_CAPACITY));
+        m_directory = Files.createTempDirectory("QDListIOBenchmark");
+        m_calculator.useSpectrumCache(new SpectrumCache(m_directory, m_calculator.getFingerprint(), 1E-12, SpectrumCache.DEFAULT_CAPACITY));
+        m_QDList = BenchmarkSample.generate(m_calculator, nQDs);
+        
+        m_textFile = m_directory.resolve("QDList.dat");
+        m_binaryFile = m_directory.resolve("QDList.qdb");
+        QDListIO.writeText(m_textFile.toString(), m_QDList);
+        QDListIO.writeBinary(m_binaryFile, m_QDList, m_calculator);
+        //filling the spectrum cache with the geometries as they are read back from the text file
+        QDListIO.readText(m_textFile.toString(), m_calculator);
+    }
+    
+    @TearDown
+    public void tearDown() throws IOException
+    {
+        for (Path file: new Path[] {m_textFile, m_binaryFile, m_directory.resolve("QDList-written.dat"), m_directory.resolve("QDList-written.qdb"), m_directory})
+        {
+            Files.deleteIfExists(file);
+        }
+    }
+    
+    @Benchmark
+    public List<QuantumDot> readText() throws IOException
+    {
+        return QDListIO.readText(m_textFile.toString(), m_calculator);
+    }
+    
+    @Benchmark
+    public void writeText() throws IOException
+    {
+        QDListIO.writeText(m_directory.resolve("QDList-written.dat").toString(), m_QDList);
+    }
+    
+    @Benchmark
+    public List<QuantumDot> readBinary() throws IOException, DataFormatException
+    {
+        return QDListIO.readBinary(m_binaryFile, m_calculator);
+    }
+    
+    @Benchmark
+    public void writeBinary() throws IOException
+    {
+        QDListIO.writeBinary(m_directory.resolve("QDList-written.qdb"), m_QDList, m_calculator);
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2021 audreyazura
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dosgenerator.benchmarks;
+
+import albanlafuente.physicstools.physics.PhysicsVariables;
+import dosgenerator.generator.QuantumDot;
+import dosgenerator.generator.SpectrumCalculator;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Construction of a QD, levels included, across a radius/height grid around the default size distribution.
+ * The calculator has no cache, so that every construction solves its wells.
+ * @author audreyazura
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QuantumDotBenchmark
+{
+    @Param({"8", "12", "16"})
+    public String radiusNano;
+    
+    @Param({"1.5", "2.5", "3.5"})
+    public String heightNano;
+    
+    @Param({"DOUBLE", "BIGDECIMAL"})
+    public SpectrumCalculator.ComputationMode mode;
+    
+    private SpectrumCalculator m_calculator;
+    private BigDecimal m_radius;
+    private BigDecimal m_height;
+    
+    @Setup
+    public void setup() throws IOException
+    {
+        m_calculator = new SpectrumCalculator(BenchmarkSample.loadInAsGaAs(), mode, null);
+        m_radius = (new BigDecimal(radiusNano)).multiply(PhysicsVariables.UnitsPrefix.NANO.getMultiplier());
+        m_height = (new BigDecimal(heightNano)).multiply(PhysicsVariables.UnitsPrefix.NANO.getMultiplier());
+    }
+    
+    @Benchmark
+    public QuantumDot construction()
+    {
+        return m_calculator.createQuantumDot(BigDecimal.ZERO, BigDecimal.ZERO, m_radius, m_height);
+    }
+}
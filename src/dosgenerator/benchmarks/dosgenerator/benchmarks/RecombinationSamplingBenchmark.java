@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2021 audreyazura
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dosgenerator.benchmarks;
+
+import albanlafuente.physicstools.physics.PhysicsVariables;
+import com.github.kilianB.pcg.fast.PcgRSFast;
+import dosgenerator.generator.QuantumDot;
+import dosgenerator.generator.SpectrumCalculator;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Drawing of recombination energies from a QD, one by one and by batches, on a small and a large QD.
+ * @author audreyazura
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RecombinationSamplingBenchmark
+{
+    private static final int BATCH_SIZE = 1024;
+    
+    @Param({"8", "16"})
+    public String radiusNano;
+    
+    private QuantumDot m_QD;
+    private PcgRSFast m_RNGenerator;
+    private double[] m_energies;
+    
+    @Setup
+    public void setup() throws IOException
+    {
+        SpectrumCalculator calculator = new SpectrumCalculator(BenchmarkSample.loadInAsGaAs(), SpectrumCalculator.ComputationMode.DOUBLE, null);
+        BigDecimal radius = (new BigDecimal(radiusNano)).multiply(PhysicsVariables.UnitsPrefix.NANO.getMultiplier());
+        BigDecimal height = radius.divide(new BigDecimal("4"));
+        
+        m_QD = calculator.createQuantumDot(BigDecimal.ZERO, BigDecimal.ZERO, radius, height);
+        m_RNGenerator = new PcgRSFast(42L, 0L);
+        m_energies = new double[BATCH_SIZE];
+        //the table is built on the first draw, outside of the measure
+        m_QD.drawRecombinationEnergy(m_RNGenerator);
+    }
+    
+    @Benchmark
+    public double single()
+    {
+        return m_QD.drawRecombinationEnergy(m_RNGenerator);
+    }
+    
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public double[] batch()
+    {
+        m_QD.drawRecombinationEnergies(m_RNGenerator, m_energies);
+        return m_energies;
+    }
+}
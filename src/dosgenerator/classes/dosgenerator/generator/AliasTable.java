@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2021 audreyazura
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dosgenerator.generator;
+
+import com.github.kilianB.pcg.fast.PcgRSFast;
+
+/**
+ * Walker alias table, drawing a value of a discrete distribution in constant time whatever the number of values.
+ * The table is built with Vose's method. Each draw uses a single random double: its integer part picks a column, its fractional part chooses between the value of the column and its alias.
+ * @author audreyazura
+ */
+public class AliasTable
+{
+    private final double[] m_values;
+    private final double[] m_thresholds;
+    private final int[] m_aliases;
+
+    /**
+     *
+     * @param p_values the values to draw
+     * @param p_weights the weight of each value, not necessarily normalized
+     */
+    public AliasTable (double[] p_values, double[] p_weights)
+    {
+        int n = p_values.length;
+        if (n == 0 || p_weights.length != n)
+        {
+            throw new IllegalArgumentException("The table needs at least one value, and one weight per value.");
+        }
+
+        double sum = 0;
+        for (double weight: p_weights)
+        {
+            if (weight < 0 || !Double.isFinite(weight))
+            {
+                throw new IllegalArgumentException("The weights have to be positive and finite.");
+            }
+            sum += weight;
+        }
+        if (sum <= 0)
+        {
+            throw new IllegalArgumentException("At least one weight has to be strictly positive.");
+        }
+
+        m_values = p_values.clone();
+        m_thresholds = new double[n];
+        m_aliases = new int[n];
+
+        //columns under the mean weight are filled with the excess of the columns above it
+        double[] scaled = new double[n];
+        int[] small = new int[n];
+        int[] large = new int[n];
+        int nbSmall = 0;
+        int nbLarge = 0;
+        for (int i = 0 ; i < n ; i += 1)
+        {
+            scaled[i] = p_weights[i] * n / sum;
+            if (scaled[i] < 1)
+            {
+                small[nbSmall] = i;
+                nbSmall += 1;
+            }
+            else
+            {
+                large[nbLarge] = i;
+                nbLarge += 1;
+            }
+        }
+
+        while (nbSmall > 0 && nbLarge > 0)
+        {
+            nbSmall -= 1;
+            int lessProbable = small[nbSmall];
+            int moreProbable = large[nbLarge - 1];
+
+            m_thresholds[lessProbable] = scaled[lessProbable];
+            m_aliases[lessProbable] = moreProbable;
+
+            scaled[moreProbable] = (scaled[moreProbable] + scaled[lessProbable]) - 1;
+            if (scaled[moreProbable] < 1)
+            {
+                nbLarge -= 1;
+                small[nbSmall] = moreProbable;
+                nbSmall += 1;
+            }
+        }
+
+        //what remains is only there because of rounding errors, and is full
+        for (int i = 0 ; i < nbLarge ; i += 1)
+        {
+            m_thresholds[large[i]] = 1;
+            m_aliases[large[i]] = large[i];
+        }
+        for (int i = 0 ; i < nbSmall ; i += 1)
+        {
+            m_thresholds[small[i]] = 1;
+            m_aliases[small[i]] = small[i];
+        }
+    }
+
+    public int size()
+    {
+        return m_values.length;
+    }
+
+    /**
+     *
+     * @param p_RNGenerator
+     * @return a value drawn following the weights
+     */
+    public double sample (PcgRSFast p_RNGenerator)
+    {
+        double draw = p_RNGenerator.nextDouble() * m_values.length;
+        //the product can be rounded up to the number of columns for draws just under 1
+        int column = Integer.min((int) draw, m_values.length - 1);
+
+        return draw - column < m_thresholds[column] ? m_values[column] : m_values[m_aliases[column]];
+    }
+
+    /**
+     *
+     * @param p_RNGenerator
+     * @param p_samples filled with values drawn following the weights
+     */
+    public void sample (PcgRSFast p_RNGenerator, double[] p_samples)
+    {
+        int n = m_values.length;
+
+        for (int i = 0 ; i < p_samples.length ; i += 1)
+        {
+            double draw = p_RNGenerator.nextDouble() * n;
+            int column = Integer.min((int) draw, n - 1);
+
+            p_samples[i] = draw - column < m_thresholds[column] ? m_values[column] : m_values[m_aliases[column]];
+        }
+    }
+}
@@ -0,0 +1,296 @@
+/*
+ * Copyright (C) 2021 audreyazura
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dosgenerator.generator;
+
+/**
+ * Homogeneous broadening of a DOS histogram, by convolution with a Gaussian, Lorentzian or Voigt kernel.
+ * The convolution is done by FFT. The transform of the histogram is computed once, so that several widths can be applied without going back to the histogram.
+ * The broadened DOS extends on each side of the histogram by the maximum kernel range, bins below 0 excluded.
+ * @author audreyazura
+ */
+public class DOSBroadening
+{
+    public enum Kernel
+    {
+        GAUSSIAN, LORENTZIAN, VOIGT;
+    }
+
+    //the kernels are cut at this many FWHM on each side of their center. The Lorentzian tails still hold about 3% of its weight there, which is renormalized
+    private static final double KERNEL_RANGE = 10;
+    //Olivero and Longbothum approximation of the FWHM of a Voigt profile: fV = 0.5346 fL + sqrt(0.2166 fL^2 + fG^2), within 0.02%
+    private static final double VOIGT_LORENTZIAN_FACTOR = 0.5346;
+    private static final double VOIGT_QUADRATIC_FACTOR = 0.2166;
+
+    private final double m_binWidth;
+    private final double m_maximumWidth;
+    private final int m_firstBin;
+    private final int m_nbBins;
+    private final int m_kernelHalfLength;
+    private final int m_FFTSize;
+    private final double[] m_realTransform;
+    private final double[] m_imaginaryTransform;
+
+    /**
+     *
+     * @param p_histogram the DOS to broaden, it has to hold at least one state
+     * @param p_maximumWidth the largest FWHM that will be applied, in J
+     */
+    public DOSBroadening (DOSHistogram p_histogram, double p_maximumWidth)
+    {
+        if (p_histogram.isEmpty() || p_maximumWidth <= 0)
+        {
+            throw new IllegalArgumentException("The histogram has to hold states and the maximum width has to be positive.");
+        }
+
+        m_binWidth = p_histogram.getBinWidth();
+        m_maximumWidth = p_maximumWidth;
+        m_kernelHalfLength = (int) Math.ceil(KERNEL_RANGE * p_maximumWidth / m_binWidth);
+        m_firstBin = Integer.max(0, p_histogram.getFirstBin() - m_kernelHalfLength);
+        m_nbBins = p_histogram.getLastBin() + m_kernelHalfLength - m_firstBin + 1;
+
+        //the padding avoids the wrapping of the circular convolution
+        int size = 1;
+        while (size < m_nbBins + 2 * m_kernelHalfLength)
+        {
+            size *= 2;
+        }
+        m_FFTSize = size;
+
+        m_realTransform = new double[m_FFTSize];
+        m_imaginaryTransform = new double[m_FFTSize];
+        for (int i = 0 ; i < m_nbBins ; i += 1)
+        {
+            m_realTransform[i] = p_histogram.getCount(m_firstBin + i);
+        }
+        fft(m_realTransform, m_imaginaryTransform, false);
+    }
+
+    public int getFirstBin()
+    {
+        return m_firstBin;
+    }
+
+    public int getNumberOfBins()
+    {
+        return m_nbBins;
+    }
+
+    /**
+     *
+     * @param p_index the index in the broadened arrays
+     * @return the lower bound of the corresponding bin, in J
+     */
+    public double getBinEnergy (int p_index)
+    {
+        return (m_firstBin + p_index) * m_binWidth;
+    }
+
+    /**
+     *
+     * @param p_kernel
+     * @param p_width the FWHM of the kernel, in J. For the Voigt kernel, the Gaussian and the Lorentzian share a FWHM chosen so that their convolution has this one
+     * @return the broadened number of states per bin, starting at getFirstBin()
+     */
+    public double[] broaden (Kernel p_kernel, double p_width)
+    {
+        if (p_width <= 0 || p_width > m_maximumWidth)
+        {
+            throw new IllegalArgumentException("The width has to be positive and at most " + m_maximumWidth + " J.");
+        }
+
+        double[] real = new double[m_FFTSize];
+        double[] imaginary = new double[m_FFTSize];
+
+        if (p_kernel == Kernel.VOIGT)
+        {
+            //a Voigt profile is the convolution of a Gaussian and a Lorentzian, so the product of their transforms
+            double componentWidth = p_width / (VOIGT_LORENTZIAN_FACTOR + Math.sqrt(VOIGT_QUADRATIC_FACTOR + 1));
+            kernelTransform(Kernel.GAUSSIAN, componentWidth, real, imaginary);
+            double[] lorentzianReal = new double[m_FFTSize];
+            double[] lorentzianImaginary = new double[m_FFTSize];
+            kernelTransform(Kernel.LORENTZIAN, componentWidth, lorentzianReal, lorentzianImaginary);
+            for (int i = 0 ; i < m_FFTSize ; i += 1)
+            {
+                double re = real[i] * lorentzianReal[i] - imaginary[i] * lorentzianImaginary[i];
+                imaginary[i] = real[i] * lorentzianImaginary[i] + imaginary[i] * lorentzianReal[i];
+                real[i] = re;
+            }
+            
+            //the profile is cut at the range of its own width like the other kernels, and its remaining weight renormalized
+            fft(real, imaginary, true);
+            int halfLength = kernelHalfLength(p_width);
+            double sum = 0;
+            for (int i = 0 ; i < m_FFTSize ; i += 1)
+            {
+                if (i > halfLength && i < m_FFTSize - halfLength)
+                {
+                    real[i] = 0;
+                }
+                imaginary[i] = 0;
+                sum += real[i];
+            }
+            for (int i = 0 ; i < m_FFTSize ; i += 1)
+            {
+                real[i] /= sum;
+            }
+            fft(real, imaginary, false);
+        }
+        else
+        {
+            kernelTransform(p_kernel, p_width, real, imaginary);
+        }
+
+        for (int i = 0 ; i < m_FFTSize ; i += 1)
+        {
+            double re = m_realTransform[i] * real[i] - m_imaginaryTransform[i] * imaginary[i];
+            imaginary[i] = m_realTransform[i] * imaginary[i] + m_imaginaryTransform[i] * real[i];
+            real[i] = re;
+        }
+        fft(real, imaginary, true);
+
+        double[] broadened = new double[m_nbBins];
+        System.arraycopy(real, 0, broadened, 0, m_nbBins);
+
+        return broadened;
+    }
+
+    /**
+     * Apply several widths in one pass over the histogram transform
+     * @param p_kernel
+     * @param p_widths the FWHMs, in J
+     * @return one broadened DOS per width
+     */
+    public double[][] broaden (Kernel p_kernel, double[] p_widths)
+    {
+        double[][] broadened = new double[p_widths.length][];
+
+        for (int i = 0 ; i < p_widths.length ; i += 1)
+        {
+            broadened[i] = broaden(p_kernel, p_widths[i]);
+        }
+
+        return broadened;
+    }
+
+    /**
+     * Sample the normalized kernel on the bins, centered on index 0 and wrapped around the FFT array, then transform it
+     */
+    private void kernelTransform (Kernel p_kernel, double p_width, double[] p_real, double[] p_imaginary)
+    {
+        int halfLength = kernelHalfLength(p_width);
+        double sigma = p_width / (2 * Math.sqrt(2 * Math.log(2)));
+        double gamma = p_width / 2;
+        double sum = 0;
+
+        for (int m = -halfLength ; m <= halfLength ; m += 1)
+        {
+            double energy = m * m_binWidth;
+            double value;
+
+            if (p_kernel == Kernel.GAUSSIAN)
+            {
+                value = Math.exp(-energy * energy / (2 * sigma * sigma));
+            }
+            else
+            {
+                value = 1 / (1 + (energy / gamma) * (energy / gamma));
+            }
+
+            p_real[Math.floorMod(m, m_FFTSize)] = value;
+            sum += value;
+        }
+
+        for (int i = 0 ; i < m_FFTSize ; i += 1)
+        {
+            p_real[i] /= sum;
+        }
+
+        fft(p_real, p_imaginary, false);
+    }
+
+    private int kernelHalfLength (double p_width)
+    {
+        return Integer.min(m_kernelHalfLength, (int) Math.ceil(KERNEL_RANGE * p_width / m_binWidth));
+    }
+
+    /**
+     * In place iterative radix-2 FFT. The inverse transform is normalized by the size.
+     */
+    private static void fft (double[] p_real, double[] p_imaginary, boolean p_inverse)
+    {
+        int n = p_real.length;
+
+        for (int i = 1, j = 0 ; i < n ; i += 1)
+        {
+            int bit = n >> 1;
+            for ( ; (j & bit) != 0 ; bit >>= 1)
+            {
+                j ^= bit;
+            }
+            j ^= bit;
+
+            if (i < j)
+            {
+                double temp = p_real[i];
+                p_real[i] = p_real[j];
+                p_real[j] = temp;
+                temp = p_imaginary[i];
+                p_imaginary[i] = p_imaginary[j];
+                p_imaginary[j] = temp;
+            }
+        }
+
+        for (int length = 2 ; length <= n ; length <<= 1)
+        {
+            double angle = 2 * Math.PI / length * (p_inverse ? 1 : -1);
+            double rootReal = Math.cos(angle);
+            double rootImaginary = Math.sin(angle);
+
+            for (int start = 0 ; start < n ; start += length)
+            {
+                double wReal = 1;
+                double wImaginary = 0;
+
+                for (int k = 0 ; k < length / 2 ; k += 1)
+                {
+                    int even = start + k;
+                    int odd = even + length / 2;
+                    double oddReal = p_real[odd] * wReal - p_imaginary[odd] * wImaginary;
+                    double oddImaginary = p_real[odd] * wImaginary + p_imaginary[odd] * wReal;
+
+                    p_real[odd] = p_real[even] - oddReal;
+                    p_imaginary[odd] = p_imaginary[even] - oddImaginary;
+                    p_real[even] += oddReal;
+                    p_imaginary[even] += oddImaginary;
+
+                    double nextReal = wReal * rootReal - wImaginary * rootImaginary;
+                    wImaginary = wReal * rootImaginary + wImaginary * rootReal;
+                    wReal = nextReal;
+                }
+            }
+        }
+
+        if (p_inverse)
+        {
+            for (int i = 0 ; i < n ; i += 1)
+            {
+                p_real[i] /= n;
+                p_imaginary[i] /= n;
+            }
+        }
+    }
+}
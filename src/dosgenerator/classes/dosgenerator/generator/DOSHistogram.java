@@ -0,0 +1,273 @@
+/*
+ * Copyright (C) 2021 audreyazura
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dosgenerator.generator;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Number of states per energy bin, filled QD after QD so that the states of the whole sample never have to be kept. The states of a QD can be removed again when it changes.
+ * Bin i holds the states with an energy in [i*binWidth, (i+1)*binWidth[. Energies are in J.
+ * @author audreyazura
+ */
+public class DOSHistogram
+{
+    private final double m_binWidth;
+
+    private long[] m_counts = new long[1024];
+    private int m_firstBin = Integer.MAX_VALUE;
+    private int m_lastBin = Integer.MIN_VALUE;
+    private long m_totalStates = 0;
+
+    public DOSHistogram (double p_binWidth)
+    {
+        if (p_binWidth <= 0)
+        {
+            throw new IllegalArgumentException("The bin width has to be positive.");
+        }
+
+        m_binWidth = p_binWidth;
+    }
+
+    public void add (double p_energy)
+    {
+        int bin = binIndex(p_energy);
+
+        if (bin >= m_counts.length)
+        {
+            m_counts = Arrays.copyOf(m_counts, Integer.max(2 * m_counts.length, bin + 1));
+        }
+
+        m_counts[bin] += 1;
+        m_firstBin = Integer.min(m_firstBin, bin);
+        m_lastBin = Integer.max(m_lastBin, bin);
+        m_totalStates += 1;
+    }
+
+    public void addAll (double[] p_energies)
+    {
+        for (double energy: p_energies)
+        {
+            add(energy);
+        }
+    }
+
+    /**
+     * Remove a state added before, for instance when the QD holding it changes
+     * @param p_energy in J
+     */
+    public void remove (double p_energy)
+    {
+        int bin = binIndex(p_energy);
+
+        if (bin >= m_counts.length || m_counts[bin] == 0)
+        {
+            throw new IllegalArgumentException("No state to remove at " + p_energy + " J.");
+        }
+
+        m_counts[bin] -= 1;
+        m_totalStates -= 1;
+        if (m_totalStates == 0)
+        {
+            m_firstBin = Integer.MAX_VALUE;
+            m_lastBin = Integer.MIN_VALUE;
+        }
+        else
+        {
+            while (m_counts[m_firstBin] == 0)
+            {
+                m_firstBin += 1;
+            }
+            while (m_counts[m_lastBin] == 0)
+            {
+                m_lastBin -= 1;
+            }
+        }
+    }
+
+    public void removeAll (double[] p_energies)
+    {
+        for (double energy: p_energies)
+        {
+            remove(energy);
+        }
+    }
+
+    /**
+     * Add the states of another histogram, of the same bin width
+     * @param p_histogram 
+     */
+    public void addAll (DOSHistogram p_histogram)
+    {
+        if (p_histogram.m_binWidth != m_binWidth)
+        {
+            throw new IllegalArgumentException("Only histograms of the same bin width can be merged.");
+        }
+        if (p_histogram.isEmpty())
+        {
+            return;
+        }
+
+        if (p_histogram.m_lastBin >= m_counts.length)
+        {
+            m_counts = Arrays.copyOf(m_counts, Integer.max(2 * m_counts.length, p_histogram.m_lastBin + 1));
+        }
+        for (int bin = p_histogram.m_firstBin ; bin <= p_histogram.m_lastBin ; bin += 1)
+        {
+            m_counts[bin] += p_histogram.m_counts[bin];
+        }
+        m_firstBin = Integer.min(m_firstBin, p_histogram.m_firstBin);
+        m_lastBin = Integer.max(m_lastBin, p_histogram.m_lastBin);
+        m_totalStates += p_histogram.m_totalStates;
+    }
+
+    public boolean isEmpty()
+    {
+        return m_totalStates == 0;
+    }
+
+    public double getBinWidth()
+    {
+        return m_binWidth;
+    }
+
+    /**
+     *
+     * @return the index of the lowest bin holding a state
+     */
+    public int getFirstBin()
+    {
+        return m_firstBin;
+    }
+
+    /**
+     *
+     * @return the index of the highest bin holding a state
+     */
+    public int getLastBin()
+    {
+        return m_lastBin;
+    }
+
+    /**
+     *
+     * @param p_bin
+     * @return the lower bound of the bin, in J
+     */
+    public double getBinEnergy (int p_bin)
+    {
+        return p_bin * m_binWidth;
+    }
+
+    public long getCount (int p_bin)
+    {
+        if (p_bin < 0 || p_bin >= m_counts.length)
+        {
+            return 0;
+        }
+
+        return m_counts[p_bin];
+    }
+
+    public long getTotalStates()
+    {
+        return m_totalStates;
+    }
+
+    /**
+     * Save the bin width and the counts of the filled bins
+     * @param p_file
+     * @throws IOException 
+     */
+    public void save (Path p_file) throws IOException
+    {
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(p_file)));
+
+        try
+        {
+            output.writeDouble(m_binWidth);
+            output.writeInt(isEmpty() ? 0 : m_firstBin);
+            output.writeInt(isEmpty() ? 0 : m_lastBin - m_firstBin + 1);
+            for (int bin = m_firstBin ; bin <= m_lastBin ; bin += 1)
+            {
+                output.writeLong(m_counts[bin]);
+            }
+        }
+        finally
+        {
+            output.close();
+        }
+    }
+
+    /**
+     *
+     * @param p_file a file written by save
+     * @return the saved histogram
+     * @throws IOException
+     */
+    public static DOSHistogram load (Path p_file) throws IOException
+    {
+        DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(p_file)));
+
+        try
+        {
+            DOSHistogram histogram = new DOSHistogram(input.readDouble());
+            int firstBin = input.readInt();
+            int nbBins = input.readInt();
+
+            if (nbBins > 0)
+            {
+                histogram.m_counts = new long[Integer.max(firstBin + nbBins, 1024)];
+                histogram.m_firstBin = firstBin;
+                histogram.m_lastBin = firstBin + nbBins - 1;
+                for (int bin = firstBin ; bin < firstBin + nbBins ; bin += 1)
+                {
+                    histogram.m_counts[bin] = input.readLong();
+                    histogram.m_totalStates += histogram.m_counts[bin];
+                }
+            }
+
+            return histogram;
+        }
+        finally
+        {
+            input.close();
+        }
+    }
+
+    private int binIndex (double p_energy)
+    {
+        if (!(p_energy >= 0))
+        {
+            throw new IllegalArgumentException("Negative state energy: " + p_energy);
+        }
+
+        double bin = Math.floor(p_energy / m_binWidth);
+        if (bin >= Integer.MAX_VALUE)
+        {
+            throw new IllegalArgumentException("State energy out of the histogram range: " + p_energy);
+        }
+
+        return (int) bin;
+    }
+}
@@ -0,0 +1,557 @@
+/*
+ * Copyright (C) 2021 audreyazura
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dosgenerator.generator;
+
+import albanlafuente.physicstools.physics.PhysicsVariables;
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Line2D;
+import java.awt.geom.Path2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import javax.imageio.ImageIO;
+
+/**
+ * Picture of a DOS, drawn in the process instead of through gnuplot, with the layout of the gnuplot picture the generator used to make: energy range from 0.6 to 1.1 eV, y range fitted on the DOS in that range and extended to the tics, label at (0.02, 0.94) of the graph, one line without title.
+ * The tics are placed with the gnuplot rules and written with its "% h" format, the exponents and the ^{} of the labels being drawn as superscripts.
+ * A plot only keeps its points, so several plots can be drawn at the same time on different threads.
+ * @author audreyazura
+ */
+public class DOSPlot
+{
+    public enum Format
+    {
+        PNG, SVG, NONE;
+    }
+
+    public static final double DEFAULT_MINIMUM_ENERGY = 0.6;
+    public static final double DEFAULT_MAXIMUM_ENERGY = 1.1;
+
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 480;
+    private static final int LEFT_MARGIN = 100;
+    private static final int RIGHT_MARGIN = 20;
+    private static final int TOP_MARGIN = 20;
+    private static final int BOTTOM_MARGIN = 60;
+    private static final int TIC_LENGTH = 6;
+    private static final int FONT_SIZE = 12;
+    private static final Color LINE_COLOR = new Color(0x9400D3);
+    private static final String X_LABEL = "Energy (eV)";
+    private static final String Y_LABEL = "Density of states (m^{-2})";
+
+    private final double[] m_energies;
+    private final double[] m_DOS;
+    private final double m_minimumEnergy;
+    private final double m_maximumEnergy;
+    private final String m_label;
+
+    /**
+     *
+     * @param p_energies the energy of each point, in eV, in increasing order
+     * @param p_DOS the DOS at each point
+     * @param p_minimumEnergy lower end of the x range, in eV
+     * @param p_maximumEnergy upper end of the x range, in eV
+     * @param p_label the text written in the upper left corner of the graph
+     */
+    public DOSPlot (double[] p_energies, double[] p_DOS, double p_minimumEnergy, double p_maximumEnergy, String p_label)
+    {
+        if (p_energies.length != p_DOS.length)
+        {
+            throw new IllegalArgumentException("One DOS value is needed per energy.");
+        }
+        if (!(p_minimumEnergy < p_maximumEnergy))
+        {
+            throw new IllegalArgumentException("The energy range is empty.");
+        }
+
+        m_energies = p_energies.clone();
+        m_DOS = p_DOS.clone();
+        m_minimumEnergy = p_minimumEnergy;
+        m_maximumEnergy = p_maximumEnergy;
+        m_label = p_label;
+    }
+
+    /**
+     * Plot of the DOS of a histogram, normalized as in the DOS files, on the default energy range
+     * @param p_counts
+     * @param p_sampleSurface in m^2
+     * @param p_label the text written in the upper left corner of the graph
+     * @return
+     */
+    public static DOSPlot of (DOSHistogram p_counts, BigDecimal p_sampleSurface, String p_label)
+    {
+        int nbPoints = p_counts.isEmpty() ? 0 : p_counts.getLastBin() - p_counts.getFirstBin() + 1;
+        double[] energies = new double[nbPoints];
+        double[] DOS = new double[nbPoints];
+
+        for (int i = 0 ; i < nbPoints ; i += 1)
+        {
+            int bin = p_counts.getFirstBin() + i;
+            energies[i] = (new BigDecimal(p_counts.getBinEnergy(bin))).divide(PhysicsVariables.EV, MathContext.DECIMAL128).doubleValue();
+            DOS[i] = (new BigDecimal(p_counts.getCount(bin))).divide(p_sampleSurface, MathContext.DECIMAL128).doubleValue();
+        }
+
+        return new DOSPlot(energies, DOS, DEFAULT_MINIMUM_ENERGY, DEFAULT_MAXIMUM_ENERGY, p_label);
+    }
+
+    /**
+     *
+     * @param p_file
+     * @param p_format PNG or SVG
+     * @throws IOException
+     */
+    public void write (Path p_file, Format p_format) throws IOException
+    {
+        switch (p_format)
+        {
+            case PNG:
+                writePNG(p_file);
+                break;
+            case SVG:
+                writeSVG(p_file);
+                break;
+            default:
+                throw new IllegalArgumentException("No picture is written in the " + p_format + " format.");
+        }
+    }
+
+    public void writePNG (Path p_file) throws IOException
+    {
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+
+        try
+        {
+            graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            graphics.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+            graphics.setColor(Color.WHITE);
+            graphics.fillRect(0, 0, WIDTH, HEIGHT);
+            draw(new ImageCanvas(graphics));
+        }
+        finally
+        {
+            graphics.dispose();
+        }
+
+        if (!ImageIO.write(image, "png", p_file.toFile()))
+        {
+            throw new IOException("No PNG writer available.");
+        }
+    }
+
+    public void writeSVG (Path p_file) throws IOException
+    {
+        SVGCanvas canvas = new SVGCanvas();
+        draw(canvas);
+
+        try (BufferedWriter writer = Files.newBufferedWriter(p_file, StandardCharsets.UTF_8))
+        {
+            writer.write(canvas.document());
+        }
+    }
+
+    /**
+     * Draw the graph, the same way for every format
+     */
+    private void draw (Canvas p_canvas)
+    {
+        double plotWidth = WIDTH - LEFT_MARGIN - RIGHT_MARGIN;
+        double plotHeight = HEIGHT - TOP_MARGIN - BOTTOM_MARGIN;
+
+        double[] yRange = yRange();
+        double yTicStep = ticStep(yRange[0], yRange[1]);
+        double xTicStep = ticStep(m_minimumEnergy, m_maximumEnergy);
+        double xScale = plotWidth / (m_maximumEnergy - m_minimumEnergy);
+        double yScale = plotHeight / (yRange[1] - yRange[0]);
+
+        //tics on the four sides, pointing inside, with their labels on the bottom and left ones
+        for (double tic: tics(m_minimumEnergy, m_maximumEnergy, xTicStep))
+        {
+            double x = LEFT_MARGIN + (tic - m_minimumEnergy) * xScale;
+            p_canvas.line(x, TOP_MARGIN + plotHeight, x, TOP_MARGIN + plotHeight - TIC_LENGTH);
+            p_canvas.line(x, TOP_MARGIN, x, TOP_MARGIN + TIC_LENGTH);
+            p_canvas.text(ticLabel(tic, xTicStep), x, TOP_MARGIN + plotHeight + FONT_SIZE + 6, Anchor.MIDDLE, false);
+        }
+        for (double tic: tics(yRange[0], yRange[1], yTicStep))
+        {
+            double y = TOP_MARGIN + plotHeight - (tic - yRange[0]) * yScale;
+            p_canvas.line(LEFT_MARGIN, y, LEFT_MARGIN + TIC_LENGTH, y);
+            p_canvas.line(LEFT_MARGIN + plotWidth, y, LEFT_MARGIN + plotWidth - TIC_LENGTH, y);
+            p_canvas.text(ticLabel(tic, yTicStep), LEFT_MARGIN - 6, y + FONT_SIZE / 3.0, Anchor.END, false);
+        }
+        p_canvas.rectangle(LEFT_MARGIN, TOP_MARGIN, plotWidth, plotHeight);
+
+        p_canvas.text(X_LABEL, LEFT_MARGIN + plotWidth / 2, HEIGHT - 12, Anchor.MIDDLE, false);
+        p_canvas.text(Y_LABEL, 18, TOP_MARGIN + plotHeight / 2, Anchor.MIDDLE, true);
+        p_canvas.text(m_label, LEFT_MARGIN + 0.02 * plotWidth, TOP_MARGIN + 0.06 * plotHeight + FONT_SIZE / 3.0, Anchor.START, false);
+
+        //the line goes from the last point before the range to the first one after it, and is cut at the border
+        List<double[]> points = new ArrayList<>();
+        for (int i = 0 ; i < m_energies.length ; i += 1)
+        {
+            boolean beforeNext = i + 1 < m_energies.length && m_energies[i + 1] >= m_minimumEnergy;
+            boolean afterPrevious = i > 0 && m_energies[i - 1] <= m_maximumEnergy;
+            if ((m_energies[i] >= m_minimumEnergy || beforeNext) && (m_energies[i] <= m_maximumEnergy || afterPrevious))
+            {
+                points.add(new double[] {LEFT_MARGIN + (m_energies[i] - m_minimumEnergy) * xScale, TOP_MARGIN + plotHeight - (m_DOS[i] - yRange[0]) * yScale});
+            }
+        }
+        if (points.size() > 1)
+        {
+            p_canvas.curve(points, LEFT_MARGIN, TOP_MARGIN, plotWidth, plotHeight);
+        }
+    }
+
+    /**
+     * Range of the DOS in the energy range, extended to the tics as gnuplot autoscale does
+     * @return {minimum, maximum}
+     */
+    private double[] yRange()
+    {
+        double minimum = Double.POSITIVE_INFINITY;
+        double maximum = Double.NEGATIVE_INFINITY;
+        for (int i = 0 ; i < m_energies.length ; i += 1)
+        {
+            if (m_energies[i] >= m_minimumEnergy && m_energies[i] <= m_maximumEnergy)
+            {
+                minimum = Double.min(minimum, m_DOS[i]);
+                maximum = Double.max(maximum, m_DOS[i]);
+            }
+        }
+
+        if (minimum > maximum)
+        {
+            return new double[] {-10, 10};
+        }
+        if (minimum == maximum)
+        {
+            //gnuplot widens a flat range by 1% of the value, or by 1 around 0
+            double widening = minimum == 0 ? 1 : Math.abs(minimum) * 0.01;
+            minimum -= widening;
+            maximum += widening;
+        }
+
+        double step = ticStep(minimum, maximum);
+        return new double[] {Math.floor(minimum / step) * step, Math.ceil(maximum / step) * step};
+    }
+
+    /**
+     * Distance between two tics, chosen as gnuplot does
+     */
+    private static double ticStep (double p_minimum, double p_maximum)
+    {
+        double range = Math.abs(p_maximum - p_minimum);
+        double power = Math.pow(10, Math.floor(Math.log10(range)));
+        double positions = 20 / (range / power);
+
+        double tic;
+        if (positions > 40)
+        {
+            tic = 0.05;
+        }
+        else if (positions > 20)
+        {
+            tic = 0.1;
+        }
+        else if (positions > 10)
+        {
+            tic = 0.2;
+        }
+        else if (positions > 4)
+        {
+            tic = 0.5;
+        }
+        else if (positions > 2)
+        {
+            tic = 1;
+        }
+        else if (positions > 0.5)
+        {
+            tic = 2;
+        }
+        else
+        {
+            tic = Math.ceil(range / power);
+        }
+
+        return tic * power;
+    }
+
+    private static List<Double> tics (double p_minimum, double p_maximum, double p_step)
+    {
+        List<Double> tics = new ArrayList<>();
+        //a small tolerance keeps the tics falling on the ends despite the rounding of the division
+        long first = (long) Math.ceil(p_minimum / p_step - 1e-9);
+        long last = (long) Math.floor(p_maximum / p_step + 1e-9);
+
+        for (long i = first ; i <= last ; i += 1)
+        {
+            tics.add(i * p_step);
+        }
+
+        return tics;
+    }
+
+    /**
+     * Tic label in the gnuplot "% h" format: like %g, with the exponent written as a power of 10
+     */
+    static String ticLabel (double p_value, double p_step)
+    {
+        //values that should be 0 but for the rounding of the tic positions
+        if (Math.abs(p_value) < p_step * 1e-9)
+        {
+            return "0";
+        }
+
+        BigDecimal value = (new BigDecimal(p_value)).round(new MathContext(6));
+        int exponent = value.precision() - value.scale() - 1;
+        if (exponent < -4 || exponent >= 6)
+        {
+            return value.movePointLeft(exponent).stripTrailingZeros().toPlainString() + "x10^{" + exponent + "}";
+        }
+
+        return value.stripTrailingZeros().toPlainString();
+    }
+
+    /**
+     * Pieces of a text, the odd ones being superscripts written as ^{} in the text
+     */
+    private static List<String> superscriptPieces (String p_text)
+    {
+        List<String> pieces = new ArrayList<>();
+        int start = 0;
+        int superscript = p_text.indexOf("^{");
+
+        while (superscript >= 0 && p_text.indexOf('}', superscript) >= 0)
+        {
+            int end = p_text.indexOf('}', superscript);
+            pieces.add(p_text.substring(start, superscript));
+            pieces.add(p_text.substring(superscript + 2, end));
+            start = end + 1;
+            superscript = p_text.indexOf("^{", start);
+        }
+        pieces.add(p_text.substring(start));
+
+        return pieces;
+    }
+
+    private enum Anchor
+    {
+        START, MIDDLE, END;
+    }
+
+    /**
+     * What the graph is drawn on
+     */
+    private interface Canvas
+    {
+        void line (double p_x1, double p_y1, double p_x2, double p_y2);
+
+        void rectangle (double p_x, double p_y, double p_width, double p_height);
+
+        /**
+         *
+         * @param p_points {x, y} of each point
+         * @param p_clipX the clip rectangle, in which the line is kept
+         */
+        void curve (List<double[]> p_points, double p_clipX, double p_clipY, double p_clipWidth, double p_clipHeight);
+
+        /**
+         *
+         * @param p_text with ^{} for the superscripts
+         * @param p_x position of the anchor
+         * @param p_y position of the baseline
+         * @param p_vertical written from bottom to top, p_y being then the position of the anchor
+         */
+        void text (String p_text, double p_x, double p_y, Anchor p_anchor, boolean p_vertical);
+    }
+
+    private static class ImageCanvas implements Canvas
+    {
+        private final Graphics2D m_graphics;
+        private final Font m_font;
+        private final Font m_superscriptFont;
+
+        ImageCanvas (Graphics2D p_graphics)
+        {
+            m_graphics = p_graphics;
+            m_font = new Font(Font.SANS_SERIF, Font.PLAIN, FONT_SIZE);
+            m_superscriptFont = m_font.deriveFont(FONT_SIZE * 0.7f);
+            m_graphics.setStroke(new BasicStroke(1));
+        }
+
+        @Override
+        public void line (double p_x1, double p_y1, double p_x2, double p_y2)
+        {
+            m_graphics.setColor(Color.BLACK);
+            m_graphics.draw(new Line2D.Double(p_x1, p_y1, p_x2, p_y2));
+        }
+
+        @Override
+        public void rectangle (double p_x, double p_y, double p_width, double p_height)
+        {
+            m_graphics.setColor(Color.BLACK);
+            m_graphics.draw(new Rectangle2D.Double(p_x, p_y, p_width, p_height));
+        }
+
+        @Override
+        public void curve (List<double[]> p_points, double p_clipX, double p_clipY, double p_clipWidth, double p_clipHeight)
+        {
+            Path2D.Double path = new Path2D.Double();
+            path.moveTo(p_points.get(0)[0], p_points.get(0)[1]);
+            for (int i = 1 ; i < p_points.size() ; i += 1)
+            {
+                path.lineTo(p_points.get(i)[0], p_points.get(i)[1]);
+            }
+
+            Graphics2D clipped = (Graphics2D) m_graphics.create();
+            try
+            {
+                clipped.clip(new Rectangle2D.Double(p_clipX, p_clipY, p_clipWidth, p_clipHeight));
+                clipped.setColor(LINE_COLOR);
+                clipped.draw(path);
+            }
+            finally
+            {
+                clipped.dispose();
+            }
+        }
+
+        @Override
+        public void text (String p_text, double p_x, double p_y, Anchor p_anchor, boolean p_vertical)
+        {
+            List<String> pieces = superscriptPieces(p_text);
+            float width = 0;
+            for (int i = 0 ; i < pieces.size() ; i += 1)
+            {
+                width += m_graphics.getFontMetrics(i % 2 == 0 ? m_font : m_superscriptFont).stringWidth(pieces.get(i));
+            }
+
+            Graphics2D textGraphics = (Graphics2D) m_graphics.create();
+            try
+            {
+                textGraphics.setColor(Color.BLACK);
+                textGraphics.translate(p_x, p_y);
+                if (p_vertical)
+                {
+                    textGraphics.transform(AffineTransform.getQuadrantRotateInstance(-1));
+                    //the anchor is then on the middle of the text height
+                    textGraphics.translate(0, FONT_SIZE / 3.0);
+                }
+
+                float x = p_anchor == Anchor.START ? 0 : p_anchor == Anchor.MIDDLE ? -width / 2 : -width;
+                for (int i = 0 ; i < pieces.size() ; i += 1)
+                {
+                    Font font = i % 2 == 0 ? m_font : m_superscriptFont;
+                    textGraphics.setFont(font);
+                    textGraphics.drawString(pieces.get(i), x, i % 2 == 0 ? 0 : -FONT_SIZE * 0.4f);
+                    x += textGraphics.getFontMetrics(font).stringWidth(pieces.get(i));
+                }
+            }
+            finally
+            {
+                textGraphics.dispose();
+            }
+        }
+    }
+
+    private static class SVGCanvas implements Canvas
+    {
+        private final StringBuilder m_body = new StringBuilder();
+
+        @Override
+        public void line (double p_x1, double p_y1, double p_x2, double p_y2)
+        {
+            m_body.append("<line x1=\"").append(coordinate(p_x1)).append("\" y1=\"").append(coordinate(p_y1)).append("\" x2=\"").append(coordinate(p_x2)).append("\" y2=\"").append(coordinate(p_y2)).append("\" stroke=\"black\"/>\n");
+        }
+
+        @Override
+        public void rectangle (double p_x, double p_y, double p_width, double p_height)
+        {
+            m_body.append("<rect x=\"").append(coordinate(p_x)).append("\" y=\"").append(coordinate(p_y)).append("\" width=\"").append(coordinate(p_width)).append("\" height=\"").append(coordinate(p_height)).append("\" fill=\"none\" stroke=\"black\"/>\n");
+        }
+
+        @Override
+        public void curve (List<double[]> p_points, double p_clipX, double p_clipY, double p_clipWidth, double p_clipHeight)
+        {
+            m_body.append("<clipPath id=\"graph\"><rect x=\"").append(coordinate(p_clipX)).append("\" y=\"").append(coordinate(p_clipY)).append("\" width=\"").append(coordinate(p_clipWidth)).append("\" height=\"").append(coordinate(p_clipHeight)).append("\"/></clipPath>\n");
+            m_body.append("<polyline clip-path=\"url(#graph)\" fill=\"none\" stroke=\"#9400d3\" points=\"");
+            for (double[] point: p_points)
+            {
+                m_body.append(coordinate(point[0])).append(',').append(coordinate(point[1])).append(' ');
+            }
+            m_body.append("\"/>\n");
+        }
+
+        @Override
+        public void text (String p_text, double p_x, double p_y, Anchor p_anchor, boolean p_vertical)
+        {
+            m_body.append("<text x=\"").append(coordinate(p_x)).append("\" y=\"").append(coordinate(p_y)).append("\" text-anchor=\"").append(p_anchor.name().toLowerCase()).append('"');
+            if (p_vertical)
+            {
+                m_body.append(" dy=\"").append(coordinate(FONT_SIZE / 3.0)).append("\" transform=\"rotate(-90 ").append(coordinate(p_x)).append(' ').append(coordinate(p_y)).append(")\"");
+            }
+            m_body.append('>');
+
+            List<String> pieces = superscriptPieces(p_text);
+            for (int i = 0 ; i < pieces.size() ; i += 1)
+            {
+                if (i % 2 == 0)
+                {
+                    m_body.append(escape(pieces.get(i)));
+                }
+                else
+                {
+                    m_body.append("<tspan baseline-shift=\"super\" font-size=\"70%\">").append(escape(pieces.get(i))).append("</tspan>");
+                }
+            }
+            m_body.append("</text>\n");
+        }
+
+        String document()
+        {
+            return "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                    + "<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"" + WIDTH + "\" height=\"" + HEIGHT + "\" viewBox=\"0 0 " + WIDTH + " " + HEIGHT + "\" font-family=\"sans-serif\" font-size=\"" + FONT_SIZE + "\">\n"
+                    + "<rect width=\"100%\" height=\"100%\" fill=\"white\"/>\n"
+                    + m_body
+                    + "</svg>\n";
+        }
+
+        private static String coordinate (double p_value)
+        {
+            return String.valueOf(Math.round(p_value * 100) / 100.0);
+        }
+
+        private static String escape (String p_text)
+        {
+            return p_text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+        }
+    }
+}
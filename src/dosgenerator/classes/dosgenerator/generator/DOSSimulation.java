@@ -0,0 +1,785 @@
+/*
+ * Copyright (C) 2021 audreyazura
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dosgenerator.generator;
+
+import albanlafuente.physicstools.physics.PhysicsVariables;
+import com.github.kilianB.pcg.fast.PcgRSFast;
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.DataFormatException;
+
+/**
+ * One DOS simulation: completes the QD list found in the output directory up to the wished number of QDs, then saves the list, the DOS, its broadened versions and its picture in that directory.
+ * The generation is checkpointed in the output directory while it runs, so that an interrupted simulation can be resumed with the same results, see GenerationCheckpoint.
+ * @author audreyazura
+ */
+public class DOSSimulation
+{
+    private final SimulationParameters m_parameters;
+    private final SpectrumCalculator m_calculator;
+    private final SpectrumCache m_spectrumCache;
+    private final Path m_outputDirectory;
+    private final RunMetrics m_metrics = new RunMetrics();
+    
+    //the checkpoint of the generation in progress, null if it isn't checkpointed
+    private GenerationCheckpoint m_checkpoint = null;
+    private long m_lastCheckpoint;
+    
+    /**
+     * 
+     * @param p_parameters
+     * @param p_calculator the calculator of the sample material, it can be shared between simulations
+     * @param p_spectrumCache the cache used by the calculator, saved with the results. null if there is none
+     */
+    public DOSSimulation (SimulationParameters p_parameters, SpectrumCalculator p_calculator, SpectrumCache p_spectrumCache)
+    {
+        m_parameters = p_parameters;
+        m_calculator = p_calculator;
+        m_spectrumCache = p_spectrumCache;
+        m_outputDirectory = p_parameters.getOutputDirectory();
+    }
+    
+    public RunMetrics getMetrics()
+    {
+        return m_metrics;
+    }
+    
+    public void run()
+    {
+        //the QDs are kept in primitive arrays, so that large samples fit in memory
+        QDEnsemble QDList = new QDEnsemble();
+        
+        //the placement grid is sized on the largest radius the distribution is expected to give
+        SpatialGrid placementGrid = new SpatialGrid(m_parameters.getSizeDistribution().getMaximumRadius());
+        
+        //the DOS is filled as the QDs are loaded or generated
+        BigDecimal DOSInterval = m_parameters.getBinWidth();
+        DOSHistogram DOSCounts = new DOSHistogram(DOSInterval.doubleValue());
+        
+        try
+        {
+            Files.createDirectories(m_outputDirectory);
+        }
+        catch (IOException ex)
+        {
+            Logger.getLogger(DOSSimulation.class.getName()).log(Level.SEVERE, null, ex);
+            return;
+        }
+        
+        //the solver and the caches can be shared with other simulations, only their evolution during this one is counted
+        long initialSolvedWells = FiniteWellSolver.getSolvedWells();
+        long initialIterations = FiniteWellSolver.getTotalIterations();
+        WellSolutionCache wellCache = m_calculator.getWellCache();
+        long initialWellHits = wellCache == null ? 0 : wellCache.getHits();
+        long initialWellMisses = wellCache == null ? 0 : wellCache.getMisses();
+        long initialSpectrumHits = m_spectrumCache == null ? 0 : m_spectrumCache.getHits();
+        long initialSpectrumMisses = m_spectrumCache == null ? 0 : m_spectrumCache.getMisses();
+        
+        /**********************************************************************
+         *                  LOADING ALREADY GENERATED QDS                     * 
+         **********************************************************************/
+        
+        System.out.println("Loading already generated QDs");
+        m_metrics.startPhase("load");
+        
+        //the binary list is used when it exists, the text one stays as an import and export format
+        String QDListFile = m_outputDirectory.resolve("QDList.dat").toString();
+        Path QDBinaryFile = m_outputDirectory.resolve("QDList.qdb");
+        boolean tiled = m_parameters.getTileSize() != null;
+        if (tiled)
+        {
+            System.out.println("Tiled generation, the tiles already generated are read from the tile directory");
+        }
+        else
+        {
+            try
+            {
+                //the QDs saved without their levels are read with their geometry only, their levels are computed afterwards in parallel
+                if (Files.exists(QDBinaryFile))
+                {
+                    QDListIO.readBinary(QDBinaryFile, QDList, m_calculator);
+                }
+                else
+                {
+                    QDListIO.readText(QDListFile, QDList);
+                }
+                m_metrics.set("loaded_spectra_computed", QDList.computeSpectra(m_calculator, m_parameters.getNumberOfThreads()));
+            
+                for (int i = 0 ; i < QDList.size() ; i += 1)
+                {
+                    double[] states = QDList.getStateEnergies(i);
+                    
+                    DOSCounts.addAll(states);
+                    placementGrid.add(QDList.getX(i), QDList.getY(i), QDList.getRadius(i));
+                    m_metrics.recordQD(states.length);
+                }
+                m_metrics.set("loaded_qds", QDList.size());
+            }
+            catch (IOException ex)
+            {
+                System.out.println("No QD file found, continuing on full randomized QDs");
+            }
+            catch (DataFormatException|ExecutionException ex)
+            {
+                Logger.getLogger(DOSSimulation.class.getName()).log(Level.SEVERE, null, ex);
+            }
+            catch (InterruptedException ex)
+            {
+                stopInterrupted(null);
+                return;
+            }
+        }
+        
+        /**********************************************************************
+         *                     GENERATING THE QD LIST                         * 
+         **********************************************************************/
+        
+        System.out.println("Generating the other needed QDs");
+        m_metrics.startPhase("generate");
+        
+        int totalWishedQDs = m_parameters.getTotalWishedQDs();
+        BigDecimal sampleXSize = m_parameters.getSampleXSize();
+        BigDecimal sampleYSize = m_parameters.getSampleYSize();
+        //the same master seed gives the same QDs whatever the number of threads. It is saved with the parameters to reproduce a run
+        long masterSeed = m_parameters.getSeed() != null ? m_parameters.getSeed() : (new PcgRSFast()).nextLong();
+        
+        //an interrupted generation is continued from its checkpoint, with the master seed it was started with. The tiled generations are continued from their tile files instead
+        Path checkpointFile = m_outputDirectory.resolve(GenerationCheckpoint.FILE_NAME);
+        int loadedQDs = QDList.size();
+        if (!tiled && m_parameters.resume())
+        {
+            if (Files.exists(checkpointFile))
+            {
+                try
+                {
+                    m_checkpoint = GenerationCheckpoint.resume(checkpointFile, generationKey(), loadedQDs, m_parameters.getSeed(), QDList);
+                }
+                catch (IOException|DataFormatException ex)
+                {
+                    Logger.getLogger(DOSSimulation.class.getName()).log(Level.SEVERE, "The generation can't be resumed, its checkpoint is left as it is.", ex);
+                    return;
+                }
+                masterSeed = m_checkpoint.getMasterSeed();
+                
+                for (int i = loadedQDs ; i < QDList.size() ; i += 1)
+                {
+                    double[] states = QDList.getStateEnergies(i);
+                    
+                    DOSCounts.addAll(states);
+                    m_metrics.recordQD(states.length);
+                }
+                m_metrics.set("restored_qds", m_checkpoint.getNumberOfQDs());
+                System.out.println("Resuming the generation from its checkpoint: " + m_checkpoint.getNumberOfQDs() + " QDs restored");
+            }
+            else
+            {
+                System.out.println("No checkpoint found, the generation starts from the beginning");
+            }
+        }
+        
+        System.out.println("Master seed: " + masterSeed);
+        saveParameters(masterSeed);
+        
+        int nQDs = totalWishedQDs - QDList.size();
+        if (nQDs < 0)
+        {
+            nQDs = 0;
+        }
+        
+        ParallelQDGenerator generator = null;
+        if (!tiled)
+        {
+            generator = new ParallelQDGenerator(m_calculator, m_parameters.getSizeDistribution(), sampleXSize, sampleYSize, masterSeed, m_parameters.getNumberOfThreads());
+            
+            if (m_checkpoint != null)
+            {
+                //the candidates drawn before the interruption are placed again, which puts the generator back in its state. The QDs they give have to be the restored ones
+                QDEnsemble replayedQDs = new QDEnsemble();
+                generator.replay(m_checkpoint.getNextCandidate(), placementGrid, geometry -> replayedQDs.addGeometry(geometry[0].doubleValue(), geometry[1].doubleValue(), geometry[2].doubleValue(), geometry[3].doubleValue()));
+                
+                boolean sameQDs = replayedQDs.size() == QDList.size() - loadedQDs;
+                for (int i = 0 ; i < replayedQDs.size() && sameQDs ; i += 1)
+                {
+                    int restored = loadedQDs + i;
+                    sameQDs = replayedQDs.getX(i) == QDList.getX(restored) && replayedQDs.getY(i) == QDList.getY(restored) && replayedQDs.getRadius(i) == QDList.getRadius(restored) && replayedQDs.getHeight(i) == QDList.getHeight(restored);
+                }
+                if (!sameQDs)
+                {
+                    Logger.getLogger(DOSSimulation.class.getName()).log(Level.SEVERE, "The QDs drawn again aren't those of the checkpoint, the generation can't be resumed. The checkpoint is left as it is.");
+                    closeCheckpoint();
+                    return;
+                }
+            }
+            else if (m_parameters.getCheckpointInterval() > 0)
+            {
+                try
+                {
+                    if (Files.exists(checkpointFile))
+                    {
+                        System.out.println("The checkpoint of an interrupted generation is replaced, the --resume option continues it instead");
+                    }
+                    m_checkpoint = GenerationCheckpoint.create(checkpointFile, masterSeed, generationKey(), loadedQDs, m_calculator.getMode() == SpectrumCalculator.ComputationMode.DOUBLE);
+                }
+                catch (IOException ex)
+                {
+                    Logger.getLogger(DOSSimulation.class.getName()).log(Level.WARNING, "The generation can't be checkpointed.", ex);
+                }
+            }
+            m_lastCheckpoint = System.nanoTime();
+        }
+        
+        //the files are written by their own thread while the computation goes on
+        OutputStage output = new OutputStage();
+        
+        //the text list is streamed as the QDs are generated, starting with those already there
+        OutputStage.TextStream QDTextStream = null;
+        if (!tiled && m_parameters.exportTextQDList())
+        {
+            try
+            {
+                QDTextStream = output.openText(Paths.get(QDListFile), OutputStage.DEFAULT_BUFFER_SIZE);
+                QDTextStream.append(QDListIO.TEXT_HEADER);
+                for (int i = 0 ; i < QDList.size() ; i += 1)
+                {
+                    QDListIO.appendText(QDTextStream, QDList, i);
+                }
+            }
+            catch (IOException ex)
+            {
+                Logger.getLogger(DOSSimulation.class.getName()).log(Level.SEVERE, null, ex);
+            }
+        }
+        
+        //the outputs are named after the QDs the sample holds, fewer than the wished ones if it saturated
+        long nbSampleQDs = totalWishedQDs;
+        if (tiled)
+        {
+            //only the tiles being generated are kept in memory, the QDs are saved tile by tile
+            TiledQDGenerator tiledGenerator = new TiledQDGenerator(m_calculator, m_parameters.getSizeDistribution(), sampleXSize, sampleYSize, m_parameters.getTileSize(), masterSeed, m_parameters.getNumberOfThreads(), m_outputDirectory.resolve("tiles"), m_metrics);
+            try
+            {
+                DOSCounts.addAll(tiledGenerator.generate(totalWishedQDs, DOSCounts.getBinWidth()));
+                //the tiles read from the tile directory count in the sample, but only the tiles generated now are checked for saturation
+                nbSampleQDs = tiledGenerator.getNumberOfPlacedQDs();
+                
+                if (tiledGenerator.getNumberOfMissingQDs() > 0)
+                {
+                    Logger.getLogger(DOSSimulation.class.getName()).log(Level.WARNING, "The sample is saturated: only " + tiledGenerator.getNumberOfPlacedQDs() + " of the " + totalWishedQDs + " wished QDs could be placed. The results are those of the saturated sample.");
+                    m_metrics.set("sample_saturated", 1);
+                }
+            }
+            catch (IOException|ExecutionException ex)
+            {
+                Logger.getLogger(DOSSimulation.class.getName()).log(Level.SEVERE, null, ex);
+            }
+            catch (InterruptedException ex)
+            {
+                stopInterrupted(output);
+                return;
+            }
+            m_metrics.set("generated_qds", tiledGenerator.getNumberOfPlacedQDs());
+        }
+        else
+        {
+            ParallelQDGenerator QDGenerator = generator;
+            int generatedQDs = nQDs;
+            int alreadyThere = QDList.size();
+            long generationStart = System.nanoTime();
+            OutputStage.TextStream generatedQDStream = QDTextStream;
+            try
+            {
+                int placedQDs = QDGenerator.generate(nQDs, placementGrid, createdQD ->
+                {
+                    double[] states = createdQD.getStateEnergies();
+                
+                    QDList.add(createdQD);
+                    if (generatedQDStream != null)
+                    {
+                        QDListIO.appendText(generatedQDStream, QDList, QDList.size() - 1);
+                    }
+                    DOSCounts.addAll(states);
+                    m_metrics.recordQD(states.length);
+                    m_metrics.reportProgress("Generated QDs", QDList.size() - alreadyThere, generatedQDs, () -> String.format("%.0f QDs/s, %.1f%% of the candidates rejected", (QDList.size() - alreadyThere) / ((System.nanoTime() - generationStart) / 1E9), 100.0 * QDGenerator.getNumberOfRejections() / QDGenerator.getNumberOfCandidates()));
+                }, () ->
+                {
+                    if (System.nanoTime() - m_lastCheckpoint >= m_parameters.getCheckpointInterval() * 1E9)
+                    {
+                        checkpoint(QDList, loadedQDs, QDGenerator.getNumberOfCandidates());
+                    }
+                });
+                //a crash in the following phases then only needs the candidates to be placed again
+                checkpoint(QDList, loadedQDs, QDGenerator.getNumberOfCandidates());
+            
+                if (placedQDs < nQDs)
+                {
+                    Logger.getLogger(DOSSimulation.class.getName()).log(Level.WARNING, "The sample is saturated: only " + QDList.size() + " of the " + totalWishedQDs + " wished QDs could be placed. The results are those of the saturated sample.");
+                    m_metrics.set("sample_saturated", 1);
+                    nbSampleQDs = QDList.size();
+                }
+            }
+            catch (ExecutionException ex)
+            {
+                Logger.getLogger(DOSSimulation.class.getName()).log(Level.SEVERE, null, ex);
+            }
+            catch (InterruptedException ex)
+            {
+                stopInterrupted(output);
+                return;
+            }
+            m_metrics.set("generated_qds", QDList.size() - alreadyThere);
+            m_metrics.set("placement_attempts", generator.getNumberOfCandidates());
+            m_metrics.set("placement_rejections", generator.getNumberOfRejections());
+            m_metrics.set("saturated_cells", generator.getSaturationMap().getNumberOfSaturatedCells());
+        }
+        
+        /**********************************************************************
+         *                     CALCULATING THE DOS                            * 
+         **********************************************************************/
+        
+        System.out.println("Calculating the DOS");
+        m_metrics.startPhase("DOS");
+        
+        //the states have been counted while the QDs were added, only the normalization by the sample surface remains
+        BigDecimal sampleVolume = sampleXSize.multiply(sampleYSize);
+        Map<BigDecimal, BigDecimal> DOS = normalizedDOS(DOSCounts, sampleVolume);
+        
+        /**********************************************************************
+         *                       SAVING TO FILES                              * 
+         **********************************************************************/
+        
+        System.out.println("Saving to files");
+        m_metrics.startPhase("save");
+        
+        //handed over to the writer thread, QDList and DOSCounts not being modified any more
+        String QDCount = nbSampleQDs + "QDs";
+        String DOSDatFile = m_outputDirectory.resolve("DOS_" + QDCount + ".dat").toString();
+        output.submit(() -> writeDOS(DOSDatFile, DOS));
+        if (m_spectrumCache != null)
+        {
+            output.submit(m_spectrumCache::save);
+        }
+        //the QDs of a tiled generation are already saved in the tile files
+        if (!tiled)
+        {
+            output.submit(() -> QDListIO.writeBinary(QDBinaryFile, QDList, m_calculator));
+        }
+        if (QDTextStream != null)
+        {
+            try
+            {
+                QDTextStream.close();
+            }
+            catch (IOException ex)
+            {
+                Logger.getLogger(DOSSimulation.class.getName()).log(Level.SEVERE, null, ex);
+            }
+        }
+        
+        /**********************************************************************
+         *                     BROADENING THE DOS                             * 
+         **********************************************************************/
+        
+        //homogeneous broadening, for comparison with photoluminescence. Every width is applied to the same transform of the histogram
+        DOSBroadening.Kernel broadeningKernel = m_parameters.getBroadeningKernel();
+        String[] broadeningWidthsmeV = m_parameters.getBroadeningWidthsmeV();
+        double[] broadeningWidths = new double[broadeningWidthsmeV.length];
+        for (int i = 0 ; i < broadeningWidths.length ; i += 1)
+        {
+            broadeningWidths[i] = (new BigDecimal(broadeningWidthsmeV[i])).multiply(PhysicsVariables.UnitsPrefix.MILLI.getMultiplier()).multiply(PhysicsVariables.EV).doubleValue();
+        }
+        
+        if (!DOSCounts.isEmpty() && broadeningWidths.length > 0)
+        {
+            System.out.println("Broadening the DOS");
+            m_metrics.startPhase("broaden");
+            
+            DOSBroadening broadening = new DOSBroadening(DOSCounts, Arrays.stream(broadeningWidths).max().getAsDouble());
+            double[][] broadenedDOS = broadening.broaden(broadeningKernel, broadeningWidths);
+            
+            for (int i = 0 ; i < broadeningWidths.length ; i += 1)
+            {
+                String broadenedDatFile = m_outputDirectory.resolve("DOS_" + QDCount + "_" + broadeningKernel.toString().toLowerCase() + broadeningWidthsmeV[i] + "meV.dat").toString();
+                double[] widthDOS = broadenedDOS[i];
+                
+                output.submit(() ->
+                {
+                    BufferedWriter broadenedWriter = new BufferedWriter(new FileWriter(broadenedDatFile));
+                    try
+                    {
+                        broadenedWriter.write("Energy (eV)\tDOS (m^-2)");
+                        for (int bin = 0 ; bin < broadening.getNumberOfBins() ; bin += 1)
+                        {
+                            broadenedWriter.newLine();
+                            broadenedWriter.write(energyToWrite(new BigDecimal(broadening.getBinEnergy(bin))).toPlainString() + "\t" + BigDecimal.valueOf(widthDOS[bin]).divide(sampleVolume, MathContext.DECIMAL128));
+                        }
+                    }
+                    finally
+                    {
+                        broadenedWriter.close();
+                    }
+                });
+            }
+        }
+        
+        /**********************************************************************
+         *                  THERMAL EMISSION SPECTRA                          * 
+         **********************************************************************/
+        
+        //the levels are weighted again for each temperature and chemical potential, without being computed again
+        String[] emissionTemperaturesK = m_parameters.getEmissionTemperaturesK();
+        String[] emissionChemicalPotentialseV = m_parameters.getEmissionChemicalPotentialseV();
+        if (emissionTemperaturesK.length > 0)
+        {
+            System.out.println("Computing the thermal emission spectra");
+            m_metrics.startPhase("emission");
+            
+            double eV = PhysicsVariables.EV.doubleValue();
+            double[] temperatures = new double[emissionTemperaturesK.length];
+            double[] chemicalPotentials = new double[emissionTemperaturesK.length];
+            for (int i = 0 ; i < temperatures.length ; i += 1)
+            {
+                temperatures[i] = Double.parseDouble(emissionTemperaturesK[i]);
+                chemicalPotentials[i] = Double.parseDouble(emissionChemicalPotentialseV[i]) * eV;
+            }
+            
+            if (tiled)
+            {
+                Logger.getLogger(DOSSimulation.class.getName()).log(Level.WARNING, "The thermal emission spectra need the whole QD list, they aren't computed for a tiled generation.");
+            }
+            else
+            {
+                try
+                {
+                    ThermalReweighting.EmissionSpectra emission = (new ThermalReweighting(temperatures, chemicalPotentials)).emissionSpectra(QDList, DOSCounts.getBinWidth());
+                    for (int i = 0 ; i < temperatures.length ; i += 1)
+                    {
+                        String emissionDatFile = m_outputDirectory.resolve("Emission_" + QDCount + "_" + emissionTemperaturesK[i] + "K_" + emissionChemicalPotentialseV[i] + "eV.dat").toString();
+                        double[] intensities = emission.getIntensities(i);
+                        
+                        output.submit(() ->
+                        {
+                            BufferedWriter emissionWriter = new BufferedWriter(new FileWriter(emissionDatFile));
+                            try
+                            {
+                                emissionWriter.write("Energy (eV)\tEmission (m^-2)");
+                                for (int bin = 0 ; bin < emission.getNumberOfBins() ; bin += 1)
+                                {
+                                    emissionWriter.newLine();
+                                    emissionWriter.write(energyToWrite(new BigDecimal(emission.getBinEnergy(bin))).toPlainString() + "\t" + BigDecimal.valueOf(intensities[bin]).divide(sampleVolume, MathContext.DECIMAL128));
+                                }
+                            }
+                            finally
+                            {
+                                emissionWriter.close();
+                            }
+                        });
+                    }
+                }
+                catch (IllegalArgumentException ex)
+                {
+                    //QDs loaded from a list saved without the offsets of their levels
+                    Logger.getLogger(DOSSimulation.class.getName()).log(Level.WARNING, "The thermal emission spectra can't be computed.", ex);
+                }
+            }
+        }
+        
+        /**********************************************************************
+         *                        SIZE EVOLUTION                              * 
+         **********************************************************************/
+        
+        //the DOS is updated step after step, only the QDs whose quantized geometry changes get new levels
+        int evolutionSteps = m_parameters.getEvolutionSteps();
+        if (evolutionSteps > 0)
+        {
+            System.out.println("Evolving the QD sizes");
+            m_metrics.startPhase("evolution");
+            
+            if (tiled || m_calculator.getMode() != SpectrumCalculator.ComputationMode.DOUBLE)
+            {
+                Logger.getLogger(DOSSimulation.class.getName()).log(Level.WARNING, "The size evolution needs the whole QD list computed in double precision, it isn't done for this simulation.");
+            }
+            else
+            {
+                Path evolutionDirectory = m_outputDirectory.resolve("evolution");
+                double sizeMultiplier = m_parameters.getEvolutionSizeMultiplier();
+                SizeEvolution evolution = new SizeEvolution(m_calculator, QDList, DOSCounts.getBinWidth(), m_parameters.getNumberOfThreads());
+                
+                try
+                {
+                    Files.createDirectories(evolutionDirectory);
+                    evolution.evolve(evolutionSteps, (step, QDIndex) -> sizeMultiplier, (step, evolvedDOS) ->
+                    {
+                        //normalized now, the histogram being updated by the next step
+                        String stepDatFile = evolutionDirectory.resolve("DOS_" + QDCount + "_step" + step + ".dat").toString();
+                        Map<BigDecimal, BigDecimal> stepDOS = normalizedDOS(evolvedDOS, sampleVolume);
+                        output.submit(() -> writeDOS(stepDatFile, stepDOS));
+                        m_metrics.reportProgress("Evolution steps", step, evolutionSteps, () -> evolution.getNumberOfRecomputedSpectra() + " spectra computed");
+                    });
+                }
+                catch (IOException|ExecutionException ex)
+                {
+                    Logger.getLogger(DOSSimulation.class.getName()).log(Level.SEVERE, null, ex);
+                }
+                catch (InterruptedException ex)
+                {
+                    stopInterrupted(output);
+                    return;
+                }
+                m_metrics.set("evolution_steps", evolution.getStep());
+                m_metrics.set("evolution_size_changes", evolution.getNumberOfChangedQDs());
+                m_metrics.set("evolution_recomputed_spectra", evolution.getNumberOfRecomputedSpectra());
+            }
+        }
+        
+        /**********************************************************************
+         *                     MAKING DOS PICTURE                             * 
+         **********************************************************************/
+        
+        m_metrics.startPhase("plot");
+        
+        DOSPlot.Format plotFormat = m_parameters.getPlotFormat();
+        if (plotFormat != DOSPlot.Format.NONE)
+        {
+            Path DOSPicFile = m_outputDirectory.resolve("DOS_" + QDCount + "." + plotFormat.name().toLowerCase());
+            
+            try
+            {
+                DOSPlot.of(DOSCounts, sampleVolume, "#QDs: " + nbSampleQDs + (nbSampleQDs < totalWishedQDs ? " (" + totalWishedQDs + " wished)" : "")).write(DOSPicFile, plotFormat);
+            } 
+            catch (IOException ex)
+            {
+                Logger.getLogger(DOSSimulation.class.getName()).log(Level.SEVERE, null, ex);
+            }
+        }
+        
+        /**********************************************************************
+         *                   WAITING FOR THE WRITTEN FILES                    * 
+         **********************************************************************/
+        
+        m_metrics.startPhase("output");
+        
+        try
+        {
+            try
+            {
+                output.close();
+            }
+            finally
+            {
+                closeCheckpoint();
+            }
+            
+            //the results being saved, the generation won't have to be resumed
+            if (!tiled)
+            {
+                Files.deleteIfExists(checkpointFile);
+            }
+        }
+        catch (IOException ex)
+        {
+            Logger.getLogger(DOSSimulation.class.getName()).log(Level.SEVERE, null, ex);
+        }
+        
+        /**********************************************************************
+         *                      SAVING THE METRICS                            * 
+         **********************************************************************/
+        
+        m_metrics.endPhase();
+        m_metrics.set("solved_wells", FiniteWellSolver.getSolvedWells() - initialSolvedWells);
+        m_metrics.set("solver_iterations", FiniteWellSolver.getTotalIterations() - initialIterations);
+        if (wellCache != null)
+        {
+            m_metrics.set("well_cache_hits", wellCache.getHits() - initialWellHits);
+            m_metrics.set("well_cache_misses", wellCache.getMisses() - initialWellMisses);
+        }
+        if (m_spectrumCache != null)
+        {
+            m_metrics.set("spectrum_cache_hits", m_spectrumCache.getHits() - initialSpectrumHits);
+            m_metrics.set("spectrum_cache_misses", m_spectrumCache.getMisses() - initialSpectrumMisses);
+        }
+        
+        try
+        {
+            m_metrics.writeJSON(m_outputDirectory.resolve("metrics.json"));
+            m_metrics.writeCSV(m_outputDirectory.resolve("metrics.csv"));
+        }
+        catch (IOException ex)
+        {
+            Logger.getLogger(DOSSimulation.class.getName()).log(Level.SEVERE, null, ex);
+        }
+        System.out.println("Run metrics: " + m_metrics.summary());
+    }
+    
+    /**
+     * 
+     * @param p_counts
+     * @param p_sampleSurface in m^2
+     * @return the DOS, in m^-2, for the lower energy of each bin
+     */
+    private static Map<BigDecimal, BigDecimal> normalizedDOS (DOSHistogram p_counts, BigDecimal p_sampleSurface)
+    {
+        Map<BigDecimal, BigDecimal> DOS = new TreeMap<>();
+        for (int bin = p_counts.getFirstBin() ; bin <= p_counts.getLastBin() ; bin += 1)
+        {
+            DOS.put(new BigDecimal(p_counts.getBinEnergy(bin)), (new BigDecimal(p_counts.getCount(bin))).divide(p_sampleSurface, MathContext.DECIMAL128));
+        }
+        
+        return DOS;
+    }
+    
+    /**
+     * 
+     * @param p_energy in J
+     * @return the energy in eV, rounded the way the DOS files write it
+     */
+    private static BigDecimal energyToWrite (BigDecimal p_energy)
+    {
+        return p_energy.divide(PhysicsVariables.EV, MathContext.DECIMAL128).setScale(p_energy.scale() - p_energy.precision() + 4, RoundingMode.HALF_UP);
+    }
+    
+    private static void writeDOS (String p_file, Map<BigDecimal, BigDecimal> p_DOS) throws IOException
+    {
+        BufferedWriter DOSwriter = new BufferedWriter(new FileWriter(p_file));
+        try
+        {
+            DOSwriter.write("Energy (eV)\tDOS (m^-2)");
+            for (BigDecimal state: p_DOS.keySet())
+            {
+                DOSwriter.newLine();
+                DOSwriter.write(energyToWrite(state).toPlainString() + "\t" + p_DOS.get(state));
+            }
+        }
+        finally
+        {
+            DOSwriter.close();
+        }
+    }
+    
+    /**
+     * Save the QDs generated since the last checkpoint, with the state of the generator. The generation goes on without checkpoint if it can't be written
+     * @param p_QDs
+     * @param p_loadedQDs the number of QDs placed before the generation
+     * @param p_nextCandidate the number of candidates drawn by the generator
+     */
+    private void checkpoint (QDEnsemble p_QDs, int p_loadedQDs, long p_nextCandidate)
+    {
+        if (m_checkpoint == null || (p_loadedQDs + m_checkpoint.getNumberOfQDs() == p_QDs.size() && m_checkpoint.getNextCandidate() == p_nextCandidate))
+        {
+            return;
+        }
+        
+        long checkpointStart = System.nanoTime();
+        try
+        {
+            m_checkpoint.append(p_QDs, p_loadedQDs + m_checkpoint.getNumberOfQDs(), p_nextCandidate);
+            m_metrics.add("checkpoints", 1);
+        }
+        catch (IOException ex)
+        {
+            Logger.getLogger(DOSSimulation.class.getName()).log(Level.WARNING, "The generation can't be checkpointed any more.", ex);
+            closeCheckpoint();
+        }
+        m_lastCheckpoint = System.nanoTime();
+        m_metrics.add("checkpoint_time_ms", (m_lastCheckpoint - checkpointStart) / 1000000);
+    }
+    
+    /**
+     * Stop the simulation once its thread was interrupted, keeping the interruption for the caller. The files being written are dropped, the checkpoint being kept so that the generation can be resumed
+     * @param p_output the writer of the files, null if it isn't started yet
+     */
+    private void stopInterrupted (OutputStage p_output)
+    {
+        Thread.currentThread().interrupt();
+        Logger.getLogger(DOSSimulation.class.getName()).log(Level.WARNING, "The simulation was interrupted, its results aren't saved.");
+        
+        if (p_output != null)
+        {
+            p_output.abort();
+        }
+        closeCheckpoint();
+    }
+    
+    private void closeCheckpoint()
+    {
+        if (m_checkpoint != null)
+        {
+            try
+            {
+                m_checkpoint.close();
+            }
+            catch (IOException ex)
+            {
+                Logger.getLogger(DOSSimulation.class.getName()).log(Level.WARNING, null, ex);
+            }
+            m_checkpoint = null;
+        }
+    }
+    
+    /**
+     * 
+     * @return a description of every parameter the drawn QDs and their levels depend on, a checkpoint being only resumed by a run with the same one
+     */
+    private String generationKey()
+    {
+        return m_calculator.getFingerprint() + ";mode=" + m_calculator.getMode() + ";sampleX=" + m_parameters.getSampleXSize() + ";sampleY=" + m_parameters.getSampleYSize()
+                + ";" + m_parameters.getSizeDistribution().getFingerprint();
+    }
+    
+    /**
+     * Save the parameters of the run next to its results, with the master seed actually used
+     */
+    private void saveParameters (long p_masterSeed)
+    {
+        Properties usedParameters = new Properties();
+        usedParameters.putAll(m_parameters.getProperties());
+        usedParameters.setProperty("seed", String.valueOf(p_masterSeed));
+        //running them again starts a new generation
+        usedParameters.remove("resume");
+        
+        try
+        {
+            Writer parametersWriter = new FileWriter(m_outputDirectory.resolve("parameters.properties").toString());
+            try
+            {
+                usedParameters.store(parametersWriter, null);
+            }
+            finally
+            {
+                parametersWriter.close();
+            }
+        }
+        catch (IOException ex)
+        {
+            Logger.getLogger(DOSSimulation.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
+}
@@ -0,0 +1,266 @@
+/*
+ * Copyright (C) 2020-2021 Alban Lafuente
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dosgenerator.generator;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Solver of the finite potential well transcendental equation, shared by the BigDecimal and the double computation of the QD levels
+ * See https://en.wikipedia.org/wiki/Finite_potential_well
+ * The solution is searched with a safeguarded Newton method: a few bisection steps in the bracket of the solution give a deterministic starting point,
+ * then Newton steps are taken as long as they stay in the bracket, bisection steps otherwise. The same well gives therefore always the same solution.
+ * @author Alban Lafuente
+ */
+public class FiniteWellSolver
+{
+    /**
+     * Ways of solving a well: the safeguarded Newton method of this class, or the interpolation table of TabulatedWellSolver polished by a few Newton steps
+     */
+    public enum Method
+    {
+        NEWTON, TABULATED;
+    }
+    
+    private static final int WARM_UP_BISECTIONS = 4;
+    private static final int MAX_ITERATIONS = 200;
+    static final double RELATIVE_TOLERANCE = 1E-15;
+    
+    private static final LongAdder SOLVED_WELLS = new LongAdder();
+    private static final LongAdder TOTAL_ITERATIONS = new LongAdder();
+    
+    private FiniteWellSolver ()
+    {
+
+    }
+
+    /**
+     * Solve v^2 (1 + tan^2 v) = u0^2 (even index) or v^2 (1 + cot^2 v) = u0^2 (odd index) with v between index*pi/2 and (index+1)*pi/2
+     * @param index the index of the level
+     * @param u02 the squared well parameter u0^2 = m L^2 V0 / (2 hbar^2)
+     * @return the energy parameter v, or -1 if the well doesn't have a level with this index
+     */
+    public static double energyParameter (int index, double u02)
+    {
+        return solve(index, u02).getParameter();
+    }
+    
+    /**
+     * 
+     * @param index the index of the level
+     * @param u02 the squared well parameter u0^2 = m L^2 V0 / (2 hbar^2)
+     * @param method
+     * @return the energy parameter v, or -1 if the well doesn't have a level with this index
+     */
+    public static double energyParameter (int index, double u02, Method method)
+    {
+        return solve(index, u02, method).getParameter();
+    }
+    
+    /**
+     * 
+     * @param index the index of the level
+     * @param u02 the squared well parameter u0^2 = m L^2 V0 / (2 hbar^2)
+     * @param method
+     * @return the solution
+     */
+    public static Solution solve (int index, double u02, Method method)
+    {
+        if (method == Method.NEWTON)
+        {
+            return solve(index, u02);
+        }
+        
+        Solution solution = TabulatedWellSolver.solve(index, u02);
+        if (solution.getParameter() >= 0)
+        {
+            SOLVED_WELLS.increment();
+            TOTAL_ITERATIONS.add(solution.getIterations());
+        }
+        
+        return solution;
+    }
+    
+    /**
+     * Same as energyParameter, also giving the number of iterations needed
+     * @param index the index of the level
+     * @param u02 the squared well parameter u0^2 = m L^2 V0 / (2 hbar^2)
+     * @return the solution
+     */
+    public static Solution solve (int index, double u02)
+    {
+        //vi has to be between i*pi/2 and (i+1)*pi/2, the function going from (i*pi/2)^2 to infinity on this interval. Minimum Vi should also always be lower than u0
+        double minVi = index * Math.PI/2;
+        if (Math.pow(minVi, 2) >= u02)
+        {
+            return new Solution(-1, 0);
+        }
+        
+        double lower = minVi;
+        double upper = Double.min((index + 1) * Math.PI/2, Math.sqrt(u02));
+        double vi = 0.5 * (lower + upper);
+        int counter = 0;
+        
+        while (counter < MAX_ITERATIONS)
+        {
+            counter += 1;
+            
+            double residual = functionToOptimize(index, vi, u02);
+            if (residual == 0)
+            {
+                break;
+            }
+            
+            //the residual is negative below the solution and positive above it, its sign tells on which side of the solution vi is
+            if (residual < 0)
+            {
+                lower = vi;
+            }
+            else
+            {
+                upper = vi;
+            }
+            
+            double next;
+            double derivative = derivativeFunction(index, vi, u02);
+            if (counter <= WARM_UP_BISECTIONS || !(derivative > 0))
+            {
+                next = 0.5 * (lower + upper);
+            }
+            else
+            {
+                double step = residual / derivative;
+                if (Math.abs(step) <= RELATIVE_TOLERANCE * vi)
+                {
+                    //converged, the last step being below the precision of vi
+                    vi -= step;
+                    break;
+                }
+                
+                next = vi - step;
+                if (next <= lower || next >= upper)
+                {
+                    next = 0.5 * (lower + upper);
+                }
+            }
+            
+            boolean converged = upper - lower <= RELATIVE_TOLERANCE * upper;
+            vi = next;
+            if (converged)
+            {
+                break;
+            }
+        }
+        
+        SOLVED_WELLS.increment();
+        TOTAL_ITERATIONS.add(counter);
+        
+        return new Solution(vi, counter);
+    }
+    
+    /**
+     * 
+     * @return the number of wells having a solution solved since the start of the program
+     */
+    public static long getSolvedWells()
+    {
+        return SOLVED_WELLS.sum();
+    }
+    
+    /**
+     * 
+     * @return the number of iterations needed to solve every well since the start of the program
+     */
+    public static long getTotalIterations()
+    {
+        return TOTAL_ITERATIONS.sum();
+    }
+
+    /**
+     * v^2 (1 + tan^2 v) = u0^2 is solved as v^2 - u0^2 cos^2 v = 0 (and v^2 - u0^2 sin^2 v = 0 for the cotangent), which has the same solution but no pole at the end of the interval
+     */
+    static double functionToOptimize(int index, double v, double u02)
+    {
+        if (index % 2 == 0)
+        {
+            return Math.pow(v, 2) - u02 * Math.pow(Math.cos(v), 2);
+        }
+        else
+        {
+            return Math.pow(v, 2) - u02 * Math.pow(Math.sin(v), 2);
+        }
+    }
+
+    static double derivativeFunction(int index, double v, double u02)
+    {
+        if (index % 2 == 0)
+        {
+            return 2 * v + u02 * Math.sin(2 * v);
+        }
+        else
+        {
+            return 2 * v - u02 * Math.sin(2 * v);
+        }
+    }
+    
+    public static class Solution
+    {
+        private final double m_parameter;
+        private final int m_iterations;
+        private final double m_errorBound;
+        
+        public Solution (double p_parameter, int p_iterations)
+        {
+            this(p_parameter, p_iterations, Double.NaN);
+        }
+        
+        /**
+         * 
+         * @param p_parameter
+         * @param p_iterations
+         * @param p_errorBound the largest distance between the parameter and the exact solution, NaN if not estimated
+         */
+        public Solution (double p_parameter, int p_iterations, double p_errorBound)
+        {
+            m_parameter = p_parameter;
+            m_iterations = p_iterations;
+            m_errorBound = p_errorBound;
+        }
+        
+        /**
+         * 
+         * @return the energy parameter v, or -1 if the well doesn't have a level with this index
+         */
+        public double getParameter()
+        {
+            return m_parameter;
+        }
+        
+        public int getIterations()
+        {
+            return m_iterations;
+        }
+        
+        /**
+         * 
+         * @return the largest distance between the parameter and the exact solution, NaN if the solver doesn't estimate it
+         */
+        public double getErrorBound()
+        {
+            return m_errorBound;
+        }
+    }
+}
@@ -0,0 +1,341 @@
+/*
+ * Copyright (C) 2021 audreyazura
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dosgenerator.generator;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+
+/**
+ * Append-only record of a generation in progress, so that an interrupted run can be continued with the same result as an uninterrupted one.
+ * Each candidate QD being drawn from its own stream, split from the master seed with its index, the state of the generation is the master seed and the number of candidates drawn. The checkpoint keeps them with the QDs accepted so far and their levels: the candidates are placed again on resume without computing any level, see ParallelQDGenerator.replay, and the DOS is rebuilt from the saved levels.
+ * The file is a header (master seed, key of the run, number of QDs loaded before the generation) followed by records, each holding the QDs accepted since the previous one and the number of candidates drawn after them.
+ * Every record ends with its CRC32 and is forced to the disk before the generation goes on: a record cut by a crash is dropped when the checkpoint is read, and overwritten by the next one.
+ * @author audreyazura
+ */
+public class GenerationCheckpoint implements Closeable
+{
+    public static final String FILE_NAME = "generation.checkpoint";
+
+    private static final int MAGIC = 0x51444350;
+    private static final int VERSION = 1;
+    //magic, version, master seed, loaded QDs, spectra flag and key length
+    private static final int HEADER_SIZE = 2 * Integer.BYTES + Long.BYTES + Integer.BYTES + 1 + Integer.BYTES;
+    //position, radius, height and recombination offset, then the number of levels
+    private static final int QD_SIZE = 5 * Double.BYTES + Integer.BYTES;
+    //energy, cumulative probability and degeneracy
+    private static final int LEVEL_SIZE = 2 * Double.BYTES + Short.BYTES;
+
+    private final FileChannel m_channel;
+    private final long m_masterSeed;
+
+    private long m_nextCandidate;
+    private int m_nbQDs;
+
+    private GenerationCheckpoint (FileChannel p_channel, long p_masterSeed, long p_nextCandidate, int p_nbQDs)
+    {
+        m_channel = p_channel;
+        m_masterSeed = p_masterSeed;
+        m_nextCandidate = p_nextCandidate;
+        m_nbQDs = p_nbQDs;
+    }
+
+    /**
+     * Start the checkpoint of a new generation, replacing the file if it exists
+     * @param p_file
+     * @param p_masterSeed the seed the candidates are split from
+     * @param p_runKey a description of every parameter the drawn QDs depend on
+     * @param p_loadedQDs the number of QDs placed before the generation started
+     * @param p_withSpectra true if the QDs have their level probabilities, false if they are known by their states only
+     * @return the empty checkpoint, open for appending
+     * @throws IOException
+     */
+    public static GenerationCheckpoint create (Path p_file, long p_masterSeed, String p_runKey, int p_loadedQDs, boolean p_withSpectra) throws IOException
+    {
+        byte[] key = p_runKey.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE + key.length + Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putLong(p_masterSeed).putInt(p_loadedQDs).put((byte) (p_withSpectra ? 1 : 0)).putInt(key.length).put(key);
+        header.putInt(checksum(header.array(), 0, header.position()));
+        header.flip();
+
+        FileChannel channel = FileChannel.open(p_file, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+        try
+        {
+            write(channel, header);
+            channel.force(true);
+        }
+        catch (IOException ex)
+        {
+            channel.close();
+            throw ex;
+        }
+
+        return new GenerationCheckpoint(channel, p_masterSeed, 0, 0);
+    }
+
+    /**
+     * Read the checkpoint of an interrupted generation. The QDs of its complete records are added to the ensemble, the following bytes being dropped
+     * @param p_file
+     * @param p_runKey the key of the run continuing the generation, which has to be the one of the checkpoint
+     * @param p_loadedQDs the number of QDs placed before the generation, which has to be the one of the checkpoint
+     * @param p_masterSeed the master seed of the run, null if it has to be the one of the checkpoint
+     * @param p_QDs receives the QDs of the checkpoint, in the order they were accepted
+     * @return the checkpoint, open for appending after its last complete record
+     * @throws IOException
+     * @throws DataFormatException if the file isn't the checkpoint of a generation with these parameters
+     */
+    public static GenerationCheckpoint resume (Path p_file, String p_runKey, int p_loadedQDs, Long p_masterSeed, QDEnsemble p_QDs) throws IOException, DataFormatException
+    {
+        FileChannel channel = FileChannel.open(p_file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        try
+        {
+            ByteBuffer header = read(channel, 0, HEADER_SIZE);
+            if (header == null || header.getInt() != MAGIC || header.getInt() != VERSION)
+            {
+                throw new DataFormatException(p_file + " is not a generation checkpoint.");
+            }
+            long masterSeed = header.getLong();
+            int loadedQDs = header.getInt();
+            boolean withSpectra = header.get() != 0;
+            int keyLength = header.getInt();
+            ByteBuffer key = keyLength >= 0 ? read(channel, HEADER_SIZE, keyLength + Integer.BYTES) : null;
+            if (key == null)
+            {
+                throw new DataFormatException("The header of " + p_file + " is cut.");
+            }
+            CRC32 headerChecksum = new CRC32();
+            headerChecksum.update(header.array(), 0, HEADER_SIZE);
+            headerChecksum.update(key.array(), 0, keyLength);
+            key.position(keyLength);
+            if ((int) headerChecksum.getValue() != key.getInt())
+            {
+                throw new DataFormatException("The header of " + p_file + " is corrupted.");
+            }
+            if (!(new String(key.array(), 0, keyLength, StandardCharsets.UTF_8)).equals(p_runKey) || loadedQDs != p_loadedQDs || (p_masterSeed != null && p_masterSeed != masterSeed))
+            {
+                throw new DataFormatException(p_file + " is the checkpoint of a generation with other parameters.");
+            }
+
+            long position = HEADER_SIZE + keyLength + Integer.BYTES;
+            long nextCandidate = 0;
+            int nbQDs = 0;
+            while (true)
+            {
+                ByteBuffer length = read(channel, position, Integer.BYTES);
+                if (length == null)
+                {
+                    break;
+                }
+                int recordSize = length.getInt();
+                ByteBuffer record = recordSize >= Long.BYTES + Integer.BYTES ? read(channel, position + Integer.BYTES, recordSize + Integer.BYTES) : null;
+                if (record == null || checksum(record.array(), 0, recordSize) != record.getInt(recordSize))
+                {
+                    //written when the run was interrupted
+                    break;
+                }
+
+                nextCandidate = record.getLong();
+                nbQDs += readQDs(record, withSpectra, p_QDs);
+                position += Integer.BYTES + recordSize + Integer.BYTES;
+            }
+
+            channel.truncate(position);
+            channel.position(position);
+            channel.force(true);
+
+            return new GenerationCheckpoint(channel, masterSeed, nextCandidate, nbQDs);
+        }
+        catch (IOException|DataFormatException ex)
+        {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Save the QDs accepted since the previous record, and force them to the disk
+     * @param p_QDs the ensemble of the generated QDs, with their levels
+     * @param p_first the index of the first QD of the ensemble not saved yet, the QDs being saved up to the end of the ensemble
+     * @param p_nextCandidate the number of candidates drawn by the generation, the last of these QDs included
+     * @throws IOException
+     */
+    public void append (QDEnsemble p_QDs, int p_first, long p_nextCandidate) throws IOException
+    {
+        long recordSize = Long.BYTES + Integer.BYTES;
+        for (int i = p_first ; i < p_QDs.size() ; i += 1)
+        {
+            recordSize += QD_SIZE + (long) p_QDs.getNumberOfLevels(i) * LEVEL_SIZE;
+        }
+        if (recordSize > Integer.MAX_VALUE - 2 * Integer.BYTES)
+        {
+            throw new IllegalArgumentException("A checkpoint record can't hold more than " + Integer.MAX_VALUE + " bytes.");
+        }
+
+        ByteBuffer record = ByteBuffer.allocate((int) recordSize + 2 * Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        record.putInt((int) recordSize);
+        record.putLong(p_nextCandidate).putInt(p_QDs.size() - p_first);
+        for (int i = p_first ; i < p_QDs.size() ; i += 1)
+        {
+            record.putDouble(p_QDs.getX(i)).putDouble(p_QDs.getY(i)).putDouble(p_QDs.getRadius(i)).putDouble(p_QDs.getHeight(i)).putDouble(p_QDs.getRecombinationOffset(i));
+            record.putInt(p_QDs.getNumberOfLevels(i));
+            for (int level = 0 ; level < p_QDs.getNumberOfLevels(i) ; level += 1)
+            {
+                record.putDouble(p_QDs.getLevelEnergy(i, level)).putDouble(p_QDs.getCumulativeProbability(i, level)).putShort((short) p_QDs.getDegeneracy(i, level));
+            }
+        }
+        record.putInt(checksum(record.array(), Integer.BYTES, (int) recordSize));
+        record.flip();
+
+        write(m_channel, record);
+        m_channel.force(false);
+
+        m_nextCandidate = p_nextCandidate;
+        m_nbQDs += p_QDs.size() - p_first;
+    }
+
+    /**
+     *
+     * @return the master seed of the checkpointed generation
+     */
+    public long getMasterSeed()
+    {
+        return m_masterSeed;
+    }
+
+    /**
+     *
+     * @return the number of candidates drawn by the generation, up to the last saved QD
+     */
+    public long getNextCandidate()
+    {
+        return m_nextCandidate;
+    }
+
+    /**
+     *
+     * @return the number of QDs saved in the checkpoint
+     */
+    public int getNumberOfQDs()
+    {
+        return m_nbQDs;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        m_channel.close();
+    }
+
+    /**
+     * Add the QDs of a record to the ensemble
+     * @return the number of QDs of the record
+     */
+    private static int readQDs (ByteBuffer p_record, boolean p_withSpectra, QDEnsemble p_QDs)
+    {
+        int nbQDs = p_record.getInt();
+
+        for (int i = 0 ; i < nbQDs ; i += 1)
+        {
+            double x = p_record.getDouble();
+            double y = p_record.getDouble();
+            double radius = p_record.getDouble();
+            double height = p_record.getDouble();
+            double recombinationOffset = p_record.getDouble();
+            double[] levels = new double[p_record.getInt()];
+            double[] probabilities = new double[levels.length];
+            short[] degeneracies = new short[levels.length];
+            int nbStates = 0;
+            for (int level = 0 ; level < levels.length ; level += 1)
+            {
+                levels[level] = p_record.getDouble();
+                probabilities[level] = p_record.getDouble();
+                degeneracies[level] = p_record.getShort();
+                nbStates += degeneracies[level];
+            }
+
+            double[] states = new double[nbStates];
+            int state = 0;
+            for (int level = 0 ; level < levels.length ; level += 1)
+            {
+                for (int j = 0 ; j < degeneracies[level] ; j += 1)
+                {
+                    states[state] = levels[level];
+                    state += 1;
+                }
+            }
+
+            if (p_withSpectra)
+            {
+                p_QDs.add(x, y, radius, height, new QuantumDotSpectrum(states, levels, probabilities, recombinationOffset));
+            }
+            else
+            {
+                p_QDs.add(x, y, radius, height, states);
+            }
+        }
+
+        return nbQDs;
+    }
+
+    /**
+     *
+     * @return the bytes of the file from the given position, null if the file ends before them
+     */
+    private static ByteBuffer read (FileChannel p_channel, long p_position, int p_length) throws IOException
+    {
+        if (p_position + p_length > p_channel.size())
+        {
+            return null;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(p_length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining())
+        {
+            if (p_channel.read(buffer, p_position + buffer.position()) < 0)
+            {
+                return null;
+            }
+        }
+        buffer.flip();
+
+        return buffer;
+    }
+
+    private static void write (FileChannel p_channel, ByteBuffer p_buffer) throws IOException
+    {
+        while (p_buffer.hasRemaining())
+        {
+            p_channel.write(p_buffer);
+        }
+    }
+
+    private static int checksum (byte[] p_bytes, int p_offset, int p_length)
+    {
+        CRC32 checksum = new CRC32();
+        checksum.update(p_bytes, p_offset, p_length);
+
+        return (int) checksum.getValue();
+    }
+}
@@ -0,0 +1,273 @@
+/*
+ * Copyright (C) 2021 audreyazura
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dosgenerator.generator;
+
+import java.util.Arrays;
+import java.util.function.IntToDoubleFunction;
+
+/**
+ * Enumeration of the bound electron levels (nz, nx, ny) of a QD in increasing energy order, the x and y directions being the same 1D well.
+ * The energy of a level is the sum of the energies of three 1D wells, each increasing with its index. A level can then only be bound if the levels with one index less are, and the levels are taken from a min-heap, starting from (0, 0, 0): the level taken out adds (nz, nx, ny + 1), plus (nz, nx + 1, 0) if ny = 0 and (nz + 1, 0, 0) if nx = ny = 0, which reaches every level exactly once.
+ * The levels above the band offset are never added to the heap, so that the work only depends on the number of bound levels, each 1D well being solved once per index, up to the first index without a bound level.
+ * @author audreyazura
+ */
+public class LevelEnumerator
+{
+    private LevelEnumerator ()
+    {
+
+    }
+
+    /**
+     *
+     * @param p_planeEnergies the energy of the level of each index of the in-plane wells, negative if the well has no level with this index. Called once per index, in increasing order
+     * @param p_heightEnergies the same for the well along the height
+     * @param p_prefactor the factor applied to the sum of the three 1D energies to get the level energy
+     * @param p_bandOffset the energy above which the levels aren't bound
+     * @param p_maximumLevels the number of levels kept, starting from the lowest one, 0 to keep them all
+     * @return the energy of each bound level, in increasing order. The degenerated levels appear once per (nz, nx, ny)
+     */
+    public static double[] lowestLevels (IntToDoubleFunction p_planeEnergies, IntToDoubleFunction p_heightEnergies, double p_prefactor, double p_bandOffset, int p_maximumLevels)
+    {
+        if (p_maximumLevels < 0)
+        {
+            throw new IllegalArgumentException("The number of levels can't be negative.");
+        }
+
+        WellLevels planeLevels = new WellLevels(p_planeEnergies);
+        WellLevels heightLevels = new WellLevels(p_heightEnergies);
+        Heap candidates = new Heap();
+        double[] levels = new double[16];
+        int nbLevels = 0;
+
+        addIfBound(candidates, planeLevels, heightLevels, p_prefactor, p_bandOffset, 0, 0, 0);
+        while (candidates.size() > 0 && (p_maximumLevels == 0 || nbLevels < p_maximumLevels))
+        {
+            int nz = candidates.nz(0);
+            int nx = candidates.nx(0);
+            int ny = candidates.ny(0);
+            if (nbLevels == levels.length)
+            {
+                levels = Arrays.copyOf(levels, 2 * nbLevels);
+            }
+            levels[nbLevels] = candidates.energy(0);
+            nbLevels += 1;
+            candidates.removeFirst();
+
+            addIfBound(candidates, planeLevels, heightLevels, p_prefactor, p_bandOffset, nz, nx, ny + 1);
+            if (ny == 0)
+            {
+                addIfBound(candidates, planeLevels, heightLevels, p_prefactor, p_bandOffset, nz, nx + 1, 0);
+                if (nx == 0)
+                {
+                    addIfBound(candidates, planeLevels, heightLevels, p_prefactor, p_bandOffset, nz + 1, 0, 0);
+                }
+            }
+        }
+
+        return Arrays.copyOf(levels, nbLevels);
+    }
+
+    private static void addIfBound (Heap p_candidates, WellLevels p_planeLevels, WellLevels p_heightLevels, double p_prefactor, double p_bandOffset, int p_nz, int p_nx, int p_ny)
+    {
+        double energyZ = p_heightLevels.get(p_nz);
+        double energyX = p_planeLevels.get(p_nx);
+        double energyY = p_planeLevels.get(p_ny);
+        if (energyX < 0 || energyY < 0 || energyZ < 0)
+        {
+            return;
+        }
+
+        //summed in the order of the former nested loops, so that the energies don't change by a rounding
+        double energy = p_prefactor * (energyX + energyY + energyZ);
+        if (energy > p_bandOffset)
+        {
+            return;
+        }
+
+        p_candidates.add(energy, p_nz, p_nx, p_ny);
+    }
+
+    /**
+     * Energies of the levels of one 1D well, computed the first time they are asked for
+     */
+    private static class WellLevels
+    {
+        private final IntToDoubleFunction m_energies;
+        private double[] m_levels = new double[8];
+        private int m_nbKnown = 0;
+        private boolean m_lastFound = false;
+
+        WellLevels (IntToDoubleFunction p_energies)
+        {
+            m_energies = p_energies;
+        }
+
+        /**
+         *
+         * @param p_index
+         * @return the energy of the level, -1 if the well doesn't have it
+         */
+        double get (int p_index)
+        {
+            while (p_index >= m_nbKnown && !m_lastFound)
+            {
+                double energy = m_energies.applyAsDouble(m_nbKnown);
+                if (energy < 0)
+                {
+                    m_lastFound = true;
+                    break;
+                }
+
+                if (m_nbKnown == m_levels.length)
+                {
+                    m_levels = Arrays.copyOf(m_levels, 2 * m_nbKnown);
+                }
+                m_levels[m_nbKnown] = energy;
+                m_nbKnown += 1;
+            }
+
+            return p_index < m_nbKnown ? m_levels[p_index] : -1;
+        }
+    }
+
+    /**
+     * Binary min-heap of the candidate levels, on the energy then on (nz, nx, ny) so that the order of the degenerated levels is fixed
+     */
+    private static class Heap
+    {
+        private double[] m_energies = new double[16];
+        private int[] m_nz = new int[16];
+        private int[] m_nx = new int[16];
+        private int[] m_ny = new int[16];
+        private int m_size = 0;
+
+        int size()
+        {
+            return m_size;
+        }
+
+        double energy (int p_position)
+        {
+            return m_energies[p_position];
+        }
+
+        int nz (int p_position)
+        {
+            return m_nz[p_position];
+        }
+
+        int nx (int p_position)
+        {
+            return m_nx[p_position];
+        }
+
+        int ny (int p_position)
+        {
+            return m_ny[p_position];
+        }
+
+        void add (double p_energy, int p_nz, int p_nx, int p_ny)
+        {
+            if (m_size == m_energies.length)
+            {
+                m_energies = Arrays.copyOf(m_energies, 2 * m_size);
+                m_nz = Arrays.copyOf(m_nz, 2 * m_size);
+                m_nx = Arrays.copyOf(m_nx, 2 * m_size);
+                m_ny = Arrays.copyOf(m_ny, 2 * m_size);
+            }
+
+            set(m_size, p_energy, p_nz, p_nx, p_ny);
+            m_size += 1;
+
+            int position = m_size - 1;
+            while (position > 0)
+            {
+                int parent = (position - 1) >>> 1;
+                if (!before(position, parent))
+                {
+                    break;
+                }
+                swap(position, parent);
+                position = parent;
+            }
+        }
+
+        void removeFirst()
+        {
+            m_size -= 1;
+            set(0, m_energies[m_size], m_nz[m_size], m_nx[m_size], m_ny[m_size]);
+
+            int position = 0;
+            while (true)
+            {
+                int smallest = position;
+                int left = 2 * position + 1;
+                int right = left + 1;
+                if (left < m_size && before(left, smallest))
+                {
+                    smallest = left;
+                }
+                if (right < m_size && before(right, smallest))
+                {
+                    smallest = right;
+                }
+                if (smallest == position)
+                {
+                    break;
+                }
+                swap(position, smallest);
+                position = smallest;
+            }
+        }
+
+        private boolean before (int p_first, int p_second)
+        {
+            if (m_energies[p_first] != m_energies[p_second])
+            {
+                return m_energies[p_first] < m_energies[p_second];
+            }
+            if (m_nz[p_first] != m_nz[p_second])
+            {
+                return m_nz[p_first] < m_nz[p_second];
+            }
+            if (m_nx[p_first] != m_nx[p_second])
+            {
+                return m_nx[p_first] < m_nx[p_second];
+            }
+            return m_ny[p_first] < m_ny[p_second];
+        }
+
+        private void set (int p_position, double p_energy, int p_nz, int p_nx, int p_ny)
+        {
+            m_energies[p_position] = p_energy;
+            m_nz[p_position] = p_nz;
+            m_nx[p_position] = p_nx;
+            m_ny[p_position] = p_ny;
+        }
+
+        private void swap (int p_first, int p_second)
+        {
+            double energy = m_energies[p_first];
+            int nz = m_nz[p_first];
+            int nx = m_nx[p_first];
+            int ny = m_ny[p_first];
+            set(p_first, m_energies[p_second], m_nz[p_second], m_nx[p_second], m_ny[p_second]);
+            set(p_second, energy, nz, nx, ny);
+        }
+    }
+}
@@ -0,0 +1,452 @@
+/*
+ * Copyright (C) 2021 audreyazura
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dosgenerator.generator;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Writer thread of the files of a simulation, so that the computation doesn't wait for the disk.
+ * Whole files are handed over with submit, their formatting and writing being done on the writer thread. Text files produced progressively, like the QD list during the generation, are streamed through a TextStream: one of its two buffers is filled while the other one is written, the producer only waiting when a whole buffer is still being written as the next one gets full.
+ * The generation threads never write themselves, only the thread receiving the accepted QDs does.
+ * @author audreyazura
+ */
+public class OutputStage implements Closeable
+{
+    public static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+    //longest number written by appendScaled: sign, 17 digits, a point and up to 6 zeros before them, or an exponent of up to 4 characters
+    private static final int MAXIMUM_NUMBER_SIZE = 32;
+
+    private final ExecutorService m_writer;
+    private final List<Future<?>> m_tasks = new ArrayList<>();
+    private final List<TextStream> m_streams = new ArrayList<>();
+
+    @FunctionalInterface
+    public interface FileTask
+    {
+        void write() throws IOException;
+    }
+
+    public OutputStage ()
+    {
+        m_writer = Executors.newSingleThreadExecutor(task ->
+        {
+            Thread writerThread = new Thread(task, "output writer");
+            writerThread.setDaemon(true);
+            return writerThread;
+        });
+    }
+
+    /**
+     * Write a file on the writer thread. The data the task writes shouldn't be modified until close returns
+     * @param p_task
+     */
+    public synchronized void submit (FileTask p_task)
+    {
+        m_tasks.add(m_writer.submit(() ->
+        {
+            p_task.write();
+            return null;
+        }));
+    }
+
+    /**
+     *
+     * @param p_file the file written, replaced only once the stream is closed
+     * @param p_bufferSize the size of each of the two buffers, in bytes
+     * @return a stream to fill from a single thread
+     * @throws IOException
+     */
+    public synchronized TextStream openText (Path p_file, int p_bufferSize) throws IOException
+    {
+        TextStream stream = new TextStream(p_file, p_bufferSize);
+        m_streams.add(stream);
+
+        return stream;
+    }
+
+    /**
+     * Close the streams left open and wait for every file to be written
+     * @throws IOException the first error met by the writer thread, the other ones being suppressed in it
+     */
+    @Override
+    public synchronized void close() throws IOException
+    {
+        List<IOException> errors = new ArrayList<>();
+
+        for (TextStream stream: m_streams)
+        {
+            try
+            {
+                stream.close();
+            }
+            catch (IOException ex)
+            {
+                errors.add(ex);
+            }
+        }
+        for (Future<?> task: m_tasks)
+        {
+            try
+            {
+                await(task);
+            }
+            catch (IOException ex)
+            {
+                errors.add(ex);
+            }
+        }
+        m_streams.clear();
+        m_tasks.clear();
+        m_writer.shutdown();
+
+        if (!errors.isEmpty())
+        {
+            for (int i = 1 ; i < errors.size() ; i += 1)
+            {
+                errors.get(0).addSuppressed(errors.get(i));
+            }
+            throw errors.get(0);
+        }
+    }
+
+    /**
+     * Stop the writer thread without finishing the files, for a run that can't go on. The temporary files of the streams are removed, the files they replace being left as they were
+     */
+    public synchronized void abort()
+    {
+        m_writer.shutdownNow();
+        for (TextStream stream: m_streams)
+        {
+            stream.discard();
+        }
+        m_streams.clear();
+        m_tasks.clear();
+    }
+
+    private static void await (Future<?> p_task) throws IOException
+    {
+        try
+        {
+            p_task.get();
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the writer thread.");
+        }
+        catch (ExecutionException ex)
+        {
+            if (ex.getCause() instanceof IOException)
+            {
+                throw (IOException) ex.getCause();
+            }
+            throw new IOException(ex.getCause());
+        }
+    }
+
+    /**
+     * Text file written by the writer thread as it is filled. The errors of the writing are kept and thrown by close, so that the producer can append without handling them
+     */
+    public class TextStream implements Closeable
+    {
+        private final Path m_file;
+        private final Path m_temporaryFile;
+        private final FileChannel m_channel;
+        private final byte[] m_digits = new byte[MAXIMUM_NUMBER_SIZE];
+
+        private ByteBuffer m_filled;
+        private ByteBuffer m_written;
+        private Future<?> m_pendingWrite = null;
+        private IOException m_error = null;
+        private boolean m_closed = false;
+
+        private TextStream (Path p_file, int p_bufferSize) throws IOException
+        {
+            if (p_bufferSize < MAXIMUM_NUMBER_SIZE)
+            {
+                throw new IllegalArgumentException("The buffers have to hold at least " + MAXIMUM_NUMBER_SIZE + " bytes.");
+            }
+
+            m_file = p_file;
+            m_temporaryFile = p_file.resolveSibling(p_file.getFileName() + ".tmp");
+            m_channel = FileChannel.open(m_temporaryFile, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+            m_filled = ByteBuffer.allocate(p_bufferSize);
+            m_written = ByteBuffer.allocate(p_bufferSize);
+        }
+
+        public TextStream append (String p_text)
+        {
+            byte[] bytes = p_text.getBytes(StandardCharsets.UTF_8);
+            int position = 0;
+
+            while (position < bytes.length)
+            {
+                if (!m_filled.hasRemaining())
+                {
+                    handOver();
+                }
+                int length = Integer.min(bytes.length - position, m_filled.remaining());
+                m_filled.put(bytes, position, length);
+                position += length;
+            }
+
+            return this;
+        }
+
+        public TextStream append (char p_character)
+        {
+            if (!m_filled.hasRemaining())
+            {
+                handOver();
+            }
+            m_filled.put((byte) p_character);
+
+            return this;
+        }
+
+        public TextStream newLine()
+        {
+            if (m_filled.remaining() < LINE_SEPARATOR.length)
+            {
+                handOver();
+            }
+            m_filled.put(LINE_SEPARATOR);
+
+            return this;
+        }
+
+        /**
+         * Write p_value * 10^p_powerOfTen the way BigDecimal.valueOf(p_value), shifted by p_powerOfTen and without trailing zeros, is printed by toString, without creating any BigDecimal. This is the text of QuantumDot.scaledString for the values read in double precision
+         * @param p_value a finite value
+         * @param p_powerOfTen
+         * @return
+         */
+        public TextStream appendScaled (double p_value, int p_powerOfTen)
+        {
+            if (!Double.isFinite(p_value))
+            {
+                throw new IllegalArgumentException("Only finite values can be written.");
+            }
+            if (m_filled.remaining() < MAXIMUM_NUMBER_SIZE)
+            {
+                handOver();
+            }
+
+            //the digits of the shortest decimal Double.toString finds, which are those of BigDecimal.valueOf
+            String representation = Double.toString(p_value);
+            boolean negative = representation.charAt(0) == '-';
+            int nbDigits = 0;
+            int pointIndex = -1;
+            int exponent = 0;
+            for (int i = negative ? 1 : 0 ; i < representation.length() ; i += 1)
+            {
+                char character = representation.charAt(i);
+                if (character == '.')
+                {
+                    pointIndex = nbDigits;
+                }
+                else if (character == 'E')
+                {
+                    exponent = Integer.parseInt(representation, i + 1, representation.length(), 10);
+                    break;
+                }
+                else
+                {
+                    m_digits[nbDigits] = (byte) character;
+                    nbDigits += 1;
+                }
+            }
+
+            //value = digits * 10^-scale once the leading and trailing zeros are removed
+            int scale = nbDigits - pointIndex - exponent - p_powerOfTen;
+            int first = 0;
+            while (first < nbDigits - 1 && m_digits[first] == '0')
+            {
+                first += 1;
+            }
+            int last = nbDigits;
+            while (last - first > 1 && m_digits[last - 1] == '0')
+            {
+                last -= 1;
+                scale -= 1;
+            }
+
+            if (last - first == 1 && m_digits[first] == '0')
+            {
+                m_filled.put((byte) '0');
+                return this;
+            }
+            if (negative)
+            {
+                m_filled.put((byte) '-');
+            }
+
+            int nbSignificant = last - first;
+            int adjustedExponent = nbSignificant - 1 - scale;
+            if (scale == 0)
+            {
+                m_filled.put(m_digits, first, nbSignificant);
+            }
+            else if (scale > 0 && adjustedExponent >= -6)
+            {
+                int integerDigits = nbSignificant - scale;
+                if (integerDigits > 0)
+                {
+                    m_filled.put(m_digits, first, integerDigits);
+                    m_filled.put((byte) '.');
+                    m_filled.put(m_digits, first + integerDigits, scale);
+                }
+                else
+                {
+                    m_filled.put((byte) '0');
+                    m_filled.put((byte) '.');
+                    for (int i = 0 ; i < -integerDigits ; i += 1)
+                    {
+                        m_filled.put((byte) '0');
+                    }
+                    m_filled.put(m_digits, first, nbSignificant);
+                }
+            }
+            else
+            {
+                m_filled.put(m_digits[first]);
+                if (nbSignificant > 1)
+                {
+                    m_filled.put((byte) '.');
+                    m_filled.put(m_digits, first + 1, nbSignificant - 1);
+                }
+                m_filled.put((byte) 'E');
+                m_filled.put((byte) (adjustedExponent >= 0 ? '+' : '-'));
+                m_filled.put(Integer.toString(Math.abs(adjustedExponent)).getBytes(StandardCharsets.US_ASCII));
+            }
+
+            return this;
+        }
+
+        /**
+         * Give the filled buffer to the writer thread and keep filling the other one, once its own writing is done
+         */
+        private void handOver()
+        {
+            waitForPendingWrite();
+
+            ByteBuffer full = m_filled;
+            full.flip();
+            m_filled = m_written;
+            m_written = full;
+
+            if (m_error != null)
+            {
+                //nothing is written any more, the error being thrown by close
+                full.clear();
+                return;
+            }
+
+            m_pendingWrite = m_writer.submit(() ->
+            {
+                while (full.hasRemaining())
+                {
+                    m_channel.write(full);
+                }
+                full.clear();
+                return null;
+            });
+        }
+
+        private void waitForPendingWrite()
+        {
+            if (m_pendingWrite != null)
+            {
+                try
+                {
+                    await(m_pendingWrite);
+                }
+                catch (IOException ex)
+                {
+                    m_error = m_error == null ? ex : m_error;
+                }
+                m_pendingWrite = null;
+            }
+        }
+
+        /**
+         * Drop what was written, without replacing the file
+         */
+        private void discard()
+        {
+            m_closed = true;
+            try
+            {
+                m_channel.close();
+                Files.deleteIfExists(m_temporaryFile);
+            }
+            catch (IOException ex)
+            {
+                m_error = m_error == null ? ex : m_error;
+            }
+        }
+
+        /**
+         * Write what is left and replace the file
+         * @throws IOException the first error met while writing the stream
+         */
+        @Override
+        public void close() throws IOException
+        {
+            if (m_closed)
+            {
+                return;
+            }
+            m_closed = true;
+
+            handOver();
+            waitForPendingWrite();
+            try
+            {
+                m_channel.close();
+            }
+            catch (IOException ex)
+            {
+                m_error = m_error == null ? ex : m_error;
+            }
+
+            if (m_error != null)
+            {
+                Files.deleteIfExists(m_temporaryFile);
+                throw m_error;
+            }
+            Files.move(m_temporaryFile, m_file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+}
@@ -0,0 +1,295 @@
+/*
+ * Copyright (C) 2021 audreyazura
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dosgenerator.generator;
+
+import albanlafuente.physicstools.physics.PhysicsVariables;
+import com.github.kilianB.pcg.fast.PcgRSFast;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+
+/**
+ * Generates QDs on several threads while keeping the result independent of the number of threads.
+ * Each candidate QD draws its position and size from its own PCG stream, split from the master seed with the candidate index.
+ * The candidates are accepted or rejected one after the other, in the order of their index, before any level is computed. The levels of the accepted QDs are then computed in parallel.
+ * The rejections are tracked by a SaturationMap, so that the generation stops drawing in the parts of the sample that can't accept any more QD and ends once the whole sample is saturated.
+ * The state of the generation is then the number of candidates drawn: a generation can be brought back to it by replaying the placement of these candidates, without computing their levels.
+ * @author audreyazura
+ */
+public class ParallelQDGenerator
+{
+    private static final int MAX_BATCH_SIZE = 4096;
+
+    private final SpectrumCalculator m_calculator;
+    private final QDSizeDistribution m_sizeDistribution;
+    private final BigDecimal m_originX;
+    private final BigDecimal m_originY;
+    private final BigDecimal m_sampleXSize;
+    private final BigDecimal m_sampleYSize;
+    private final long m_masterSeed;
+    private final int m_nbThreads;
+    private final SaturationMap m_saturationMap;
+
+    private long m_nextCandidate = 0;
+    private long m_rejectedCandidates = 0;
+
+    /**
+     *
+     * @param p_calculator the calculator building the QDs, has to be usable from several threads
+     * @param p_sampleXSize in m
+     * @param p_sampleYSize in m
+     * @param p_masterSeed the seed every candidate stream is split from
+     * @param p_nbThreads the number of threads computing the candidates
+     */
+    public ParallelQDGenerator (SpectrumCalculator p_calculator, BigDecimal p_sampleXSize, BigDecimal p_sampleYSize, long p_masterSeed, int p_nbThreads)
+    {
+        this(p_calculator, QDSizeDistribution.DEFAULT, p_sampleXSize, p_sampleYSize, p_masterSeed, p_nbThreads);
+    }
+    
+    /**
+     *
+     * @param p_calculator the calculator building the QDs, has to be usable from several threads
+     * @param p_sizeDistribution the distribution the QD radii and heights are drawn from
+     * @param p_sampleXSize in m
+     * @param p_sampleYSize in m
+     * @param p_masterSeed the seed every candidate stream is split from
+     * @param p_nbThreads the number of threads computing the candidates
+     */
+    public ParallelQDGenerator (SpectrumCalculator p_calculator, QDSizeDistribution p_sizeDistribution, BigDecimal p_sampleXSize, BigDecimal p_sampleYSize, long p_masterSeed, int p_nbThreads)
+    {
+        this(p_calculator, p_sizeDistribution, BigDecimal.ZERO, BigDecimal.ZERO, p_sampleXSize, p_sampleYSize, p_masterSeed, p_nbThreads);
+    }
+    
+    /**
+     * Generator of the QDs of a rectangle of the sample, for a tiled generation
+     * @param p_calculator the calculator building the QDs, has to be usable from several threads
+     * @param p_sizeDistribution the distribution the QD radii and heights are drawn from
+     * @param p_originX the lower x of the rectangle, in m
+     * @param p_originY the lower y of the rectangle, in m
+     * @param p_sampleXSize the x size of the rectangle, in m
+     * @param p_sampleYSize the y size of the rectangle, in m
+     * @param p_masterSeed the seed every candidate stream is split from
+     * @param p_nbThreads the number of threads computing the candidates
+     */
+    public ParallelQDGenerator (SpectrumCalculator p_calculator, QDSizeDistribution p_sizeDistribution, BigDecimal p_originX, BigDecimal p_originY, BigDecimal p_sampleXSize, BigDecimal p_sampleYSize, long p_masterSeed, int p_nbThreads)
+    {
+        if (p_nbThreads <= 0)
+        {
+            throw new IllegalArgumentException("At least one thread is needed.");
+        }
+
+        m_calculator = p_calculator;
+        m_sizeDistribution = p_sizeDistribution;
+        m_originX = p_originX;
+        m_originY = p_originY;
+        m_sampleXSize = p_sampleXSize;
+        m_sampleYSize = p_sampleYSize;
+        m_masterSeed = p_masterSeed;
+        m_nbThreads = p_nbThreads;
+        m_saturationMap = new SaturationMap(p_sampleXSize.doubleValue(), p_sampleYSize.doubleValue(), 2 * p_sizeDistribution.getMaximumRadius());
+    }
+
+    /**
+     * Add QDs to the sample until the wished number of new QDs is reached, or until the sample is saturated
+     * @param p_nQDs the number of QDs to add
+     * @param p_placementGrid the positions already taken, the new ones are added to it
+     * @param p_acceptedQDs receives the new QDs, one by one, in the order they are accepted
+     * @return the number of QDs added, lower than the wished one if no more QD could be placed
+     * @throws InterruptedException
+     * @throws ExecutionException
+     */
+    public int generate (int p_nQDs, SpatialGrid p_placementGrid, Consumer<QuantumDot> p_acceptedQDs) throws InterruptedException, ExecutionException
+    {
+        return generate(p_nQDs, p_placementGrid, p_acceptedQDs, () -> {});
+    }
+    
+    /**
+     * Add QDs to the sample until the wished number of new QDs is reached, or until the sample is saturated
+     * @param p_nQDs the number of QDs to add
+     * @param p_placementGrid the positions already taken, the new ones are added to it
+     * @param p_acceptedQDs receives the new QDs, one by one, in the order they are accepted
+     * @param p_batchDone called once the QDs of a batch are all received, when the number of candidates drawn is the one right after them
+     * @return the number of QDs added, lower than the wished one if no more QD could be placed
+     * @throws InterruptedException
+     * @throws ExecutionException
+     */
+    public int generate (int p_nQDs, SpatialGrid p_placementGrid, Consumer<QuantumDot> p_acceptedQDs, Runnable p_batchDone) throws InterruptedException, ExecutionException
+    {
+        ForkJoinPool pool = new ForkJoinPool(m_nbThreads);
+
+        try
+        {
+            int accepted = 0;
+            while (accepted < p_nQDs && !m_saturationMap.isFull())
+            {
+                //the positions are tested before any level is computed, so that only the accepted QDs are computed
+                int batchSize = Integer.min(p_nQDs - accepted, MAX_BATCH_SIZE);
+                List<BigDecimal[]> acceptedGeometries = new ArrayList<>(batchSize);
+                while (acceptedGeometries.size() < batchSize && !m_saturationMap.isFull())
+                {
+                    BigDecimal[] geometry = placeNextCandidate(p_placementGrid);
+                    if (geometry != null)
+                    {
+                        acceptedGeometries.add(geometry);
+                    }
+                }
+
+                QuantumDot[] createdQDs = pool.submit(() -> acceptedGeometries.parallelStream().map(geometry -> m_calculator.createQuantumDot(geometry[0], geometry[1], geometry[2], geometry[3])).toArray(QuantumDot[]::new)).get();
+                for (QuantumDot createdQD: createdQDs)
+                {
+                    p_acceptedQDs.accept(createdQD);
+                }
+                accepted += createdQDs.length;
+                p_batchDone.run();
+            }
+
+            return accepted;
+        }
+        finally
+        {
+            //the computations still running are stopped if the generation was interrupted
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Draw and place again the candidates of a previous generation with the same master seed, up to the given number of candidates, without computing any level. The placement grid and the saturation map are then those the previous generation had at this point
+     * @param p_nbCandidates the number of candidates the previous generation had drawn
+     * @param p_placementGrid the positions taken before the previous generation, the accepted candidates are added to it
+     * @param p_acceptedGeometries receives the geometry {x, y, radius, height} of the accepted candidates, in the order they are accepted
+     * @return the number of candidates accepted
+     */
+    public int replay (long p_nbCandidates, SpatialGrid p_placementGrid, Consumer<BigDecimal[]> p_acceptedGeometries)
+    {
+        int accepted = 0;
+        
+        while (m_nextCandidate < p_nbCandidates && !m_saturationMap.isFull())
+        {
+            BigDecimal[] geometry = placeNextCandidate(p_placementGrid);
+            if (geometry != null)
+            {
+                p_acceptedGeometries.accept(geometry);
+                accepted += 1;
+            }
+        }
+        
+        return accepted;
+    }
+    
+    /**
+     * 
+     * @return the number of candidates tested for placement since the generator was created
+     */
+    public long getNumberOfCandidates()
+    {
+        return m_nextCandidate;
+    }
+    
+    /**
+     * 
+     * @return the number of candidates rejected because they overlapped a QD already placed
+     */
+    public long getNumberOfRejections()
+    {
+        return m_rejectedCandidates;
+    }
+    
+    public SaturationMap getSaturationMap()
+    {
+        return m_saturationMap;
+    }
+    
+    /**
+     * Draw the next candidate and place it if it doesn't overlap a QD already placed
+     * @param p_placementGrid
+     * @return the geometry of the candidate if it was placed, null if it was rejected
+     */
+    private BigDecimal[] placeNextCandidate (SpatialGrid p_placementGrid)
+    {
+        BigDecimal[] geometry = drawGeometry(m_nextCandidate);
+        m_nextCandidate += 1;
+
+        double x = geometry[0].doubleValue();
+        double y = geometry[1].doubleValue();
+        double radius = geometry[2].doubleValue();
+        if (p_placementGrid.isFree(x, y, radius))
+        {
+            p_placementGrid.add(x, y, radius);
+            m_saturationMap.recordAcceptance(x - m_originX.doubleValue(), y - m_originY.doubleValue());
+            return geometry;
+        }
+        
+        m_saturationMap.recordRejection(x - m_originX.doubleValue(), y - m_originY.doubleValue());
+        m_rejectedCandidates += 1;
+        return null;
+    }
+    
+    /**
+     * Draw the geometry of the candidate of the given index, from the stream of this index. The position is drawn on the unsaturated part of the sample
+     * @param p_candidateIndex
+     * @return {x, y, radius, height}
+     */
+    private BigDecimal[] drawGeometry (long p_candidateIndex)
+    {
+        PcgRSFast RNGenerator = candidateStream(p_candidateIndex);
+        BigDecimal x, y, radiusNano, radius, height;
+
+        double[] position = m_saturationMap.drawPosition(RNGenerator);
+        x = m_originX.add((new BigDecimal(position[0])).multiply(m_sampleXSize)).stripTrailingZeros();
+        y = m_originY.add((new BigDecimal(position[1])).multiply(m_sampleYSize)).stripTrailingZeros();
+
+        do
+        {
+            radiusNano = new BigDecimal(RNGenerator.nextGaussian() * m_sizeDistribution.getRadiusDeviation() + m_sizeDistribution.getRadiusMean());
+            radius = radiusNano.multiply(PhysicsVariables.UnitsPrefix.NANO.getMultiplier()).stripTrailingZeros();
+        }while (radius.compareTo(BigDecimal.ZERO) <= 0);
+
+        do
+        {
+            /**
+             * the height is correlated to the radius with the relation
+             * height = radius / ratio + offset
+             * with a variation around the line. To reproduce that variation, we use the relation
+             * height = radius / ratio + GaussianRNG*deviation + offset
+             * GaussianRNG giving a number on a gaussian centered on 0 with a variance of 1.
+             */
+            height = (radiusNano.divide(m_sizeDistribution.getHeightRatio(), MathContext.DECIMAL128)).add(new BigDecimal(RNGenerator.nextGaussian() * m_sizeDistribution.getHeightDeviation() + m_sizeDistribution.getHeightOffset())).multiply(PhysicsVariables.UnitsPrefix.NANO.getMultiplier()).stripTrailingZeros();
+        }while(height.compareTo(BigDecimal.ZERO) <= 0);
+
+        return new BigDecimal[] {x, y, radius, height};
+    }
+
+    private PcgRSFast candidateStream (long p_candidateIndex)
+    {
+        return new PcgRSFast(mix(m_masterSeed + p_candidateIndex * 0x9E3779B97F4A7C15L), p_candidateIndex);
+    }
+
+    /**
+     * SplitMix64 finalizer, to decorrelate the seeds of consecutive candidates
+     */
+    static long mix (long p_value)
+    {
+        long z = p_value;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,676 @@
+/*
+ * Copyright (C) 2021 audreyazura
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dosgenerator.generator;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+import org.nevec.rjm.BigDecimalMath;
+
+/**
+ * Compact store of a large number of QDs, kept in primitive arrays instead of one object per QD.
+ * The geometry is kept in one column per quantity, in m. The levels of every QD are kept in shared pools, each QD pointing to its first level: every distinct level is stored once with its degeneracy (spin included) and its cumulative recombination probability, instead of once per state.
+ * The recombination offset of the levels of each QD is kept too, so that their probabilities can be computed again at another temperature (see ThermalReweighting).
+ * A QD takes 44 bytes plus 18 bytes per distinct level, so 80 bytes with two levels, against several hundred bytes for a QuantumDot with its spectrum.
+ * A QD can be added with its geometry only, to be placed and saved before its levels are known. The levels of those QDs are computed all at once by computeSpectra, until then they can't be read.
+ * The QDs are read through a View, a flyweight giving the same accessors as QuantumDot.
+ * @author audreyazura
+ */
+public class QDEnsemble
+{
+    private static final int DEFAULT_CAPACITY = 1024;
+
+    private int m_size = 0;
+    private double[] m_positionsX;
+    private double[] m_positionsY;
+    private double[] m_radii;
+    private double[] m_heights;
+    private double[] m_recombinationOffsets;
+    //the levels of the QD i are the ones from m_levelOffsets[i] to m_levelOffsets[i + 1] excluded
+    private int[] m_levelOffsets;
+
+    private int m_nbLevels = 0;
+    private double[] m_levelEnergies;
+    private double[] m_cumulativeProbabilities;
+    private short[] m_degeneracies;
+
+    private long m_nbStates = 0;
+    private boolean m_hasProbabilities = true;
+    private final BitSet m_geometryOnly = new BitSet();
+    private int m_nbGeometryOnly = 0;
+
+    public QDEnsemble ()
+    {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     *
+     * @param p_capacity the number of QDs the ensemble can hold before growing
+     */
+    public QDEnsemble (int p_capacity)
+    {
+        if (p_capacity <= 0)
+        {
+            throw new IllegalArgumentException("The capacity has to be positive.");
+        }
+
+        m_positionsX = new double[p_capacity];
+        m_positionsY = new double[p_capacity];
+        m_radii = new double[p_capacity];
+        m_heights = new double[p_capacity];
+        m_recombinationOffsets = new double[p_capacity];
+        m_levelOffsets = new int[p_capacity + 1];
+
+        //QDs usually have a few distinct levels
+        m_levelEnergies = new double[4 * p_capacity];
+        m_cumulativeProbabilities = new double[4 * p_capacity];
+        m_degeneracies = new short[4 * p_capacity];
+    }
+
+    /**
+     * Add a QD. The QDs computed with BigDecimal don't give their level probabilities, only their states are kept
+     * @param p_QD
+     */
+    public void add (QuantumDot p_QD)
+    {
+        if (p_QD.getSpectrum() != null)
+        {
+            add(p_QD.getX().doubleValue(), p_QD.getY().doubleValue(), p_QD.getRadius().doubleValue(), p_QD.getHeight().doubleValue(), p_QD.getSpectrum());
+        }
+        else
+        {
+            addStates(p_QD.getX().doubleValue(), p_QD.getY().doubleValue(), p_QD.getRadius().doubleValue(), p_QD.getHeight().doubleValue(), p_QD.getStateEnergies(), null, Double.NaN);
+        }
+    }
+
+    /**
+     *
+     * @param p_positionX in m
+     * @param p_positionY in m
+     * @param p_radius in m
+     * @param p_height in m
+     * @param p_spectrum the levels of the QD
+     */
+    public void add (double p_positionX, double p_positionY, double p_radius, double p_height, QuantumDotSpectrum p_spectrum)
+    {
+        double[] cumulativeProbabilities = new double[p_spectrum.numberOfLevels()];
+        for (int i = 0 ; i < cumulativeProbabilities.length ; i += 1)
+        {
+            cumulativeProbabilities[i] = p_spectrum.getCumulativeProbability(i);
+        }
+
+        addStates(p_positionX, p_positionY, p_radius, p_height, p_spectrum.getStateEnergies(), cumulativeProbabilities, p_spectrum.getRecombinationOffset());
+    }
+
+    /**
+     * Add a QD known by its states only, as the QDs computed with BigDecimal
+     * @param p_positionX in m
+     * @param p_positionY in m
+     * @param p_radius in m
+     * @param p_height in m
+     * @param p_stateEnergies the energy of each state of the QD, in J
+     */
+    public void add (double p_positionX, double p_positionY, double p_radius, double p_height, double[] p_stateEnergies)
+    {
+        addStates(p_positionX, p_positionY, p_radius, p_height, p_stateEnergies.clone(), null, Double.NaN);
+    }
+
+    /**
+     * Add a QD without its levels, which will be computed by computeSpectra
+     * @param p_positionX in m
+     * @param p_positionY in m
+     * @param p_radius in m
+     * @param p_height in m
+     */
+    public void addGeometry (double p_positionX, double p_positionY, double p_radius, double p_height)
+    {
+        ensureCapacity(m_size + 1, m_nbLevels);
+
+        m_positionsX[m_size] = p_positionX;
+        m_positionsY[m_size] = p_positionY;
+        m_radii[m_size] = p_radius;
+        m_heights[m_size] = p_height;
+        m_recombinationOffsets[m_size] = Double.NaN;
+        m_geometryOnly.set(m_size);
+        m_nbGeometryOnly += 1;
+
+        m_size += 1;
+        m_levelOffsets[m_size] = m_nbLevels;
+    }
+
+    /**
+     * Compute the levels of the QDs added with their geometry only, in parallel. The level pools are then rebuilt once, in the order of the QDs
+     * @param p_calculator
+     * @param p_nbThreads the number of threads computing the levels
+     * @return the number of QDs whose levels were computed
+     * @throws InterruptedException
+     * @throws ExecutionException
+     */
+    public int computeSpectra (SpectrumCalculator p_calculator, int p_nbThreads) throws InterruptedException, ExecutionException
+    {
+        if (m_nbGeometryOnly == 0)
+        {
+            return 0;
+        }
+
+        int[] pending = m_geometryOnly.stream().toArray();
+        QuantumDot[] computedQDs;
+        ForkJoinPool pool = new ForkJoinPool(p_nbThreads);
+        try
+        {
+            computedQDs = pool.submit(() -> IntStream.of(pending).parallel().mapToObj(i -> p_calculator.createQuantumDot(BigDecimal.valueOf(m_positionsX[i]), BigDecimal.valueOf(m_positionsY[i]), BigDecimal.valueOf(m_radii[i]), BigDecimal.valueOf(m_heights[i]))).toArray(QuantumDot[]::new)).get();
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+
+        QDEnsemble rebuilt = new QDEnsemble(m_positionsX.length);
+        int next = 0;
+        for (int i = 0 ; i < m_size ; i += 1)
+        {
+            if (next < pending.length && pending[next] == i)
+            {
+                rebuilt.add(computedQDs[next]);
+                next += 1;
+            }
+            else
+            {
+                rebuilt.copy(this, i);
+            }
+        }
+
+        m_positionsX = rebuilt.m_positionsX;
+        m_positionsY = rebuilt.m_positionsY;
+        m_radii = rebuilt.m_radii;
+        m_heights = rebuilt.m_heights;
+        m_recombinationOffsets = rebuilt.m_recombinationOffsets;
+        m_levelOffsets = rebuilt.m_levelOffsets;
+        m_nbLevels = rebuilt.m_nbLevels;
+        m_levelEnergies = rebuilt.m_levelEnergies;
+        m_cumulativeProbabilities = rebuilt.m_cumulativeProbabilities;
+        m_degeneracies = rebuilt.m_degeneracies;
+        m_nbStates = rebuilt.m_nbStates;
+        m_hasProbabilities &= rebuilt.m_hasProbabilities;
+        m_geometryOnly.clear();
+        m_nbGeometryOnly = 0;
+
+        return pending.length;
+    }
+
+    /**
+     * Append a QD of another ensemble, with its levels
+     */
+    private void copy (QDEnsemble p_source, int p_index)
+    {
+        int first = p_source.m_levelOffsets[p_index];
+        int nbLevels = p_source.m_levelOffsets[p_index + 1] - first;
+        ensureCapacity(m_size + 1, m_nbLevels + nbLevels);
+
+        m_positionsX[m_size] = p_source.m_positionsX[p_index];
+        m_positionsY[m_size] = p_source.m_positionsY[p_index];
+        m_radii[m_size] = p_source.m_radii[p_index];
+        m_heights[m_size] = p_source.m_heights[p_index];
+        m_recombinationOffsets[m_size] = p_source.m_recombinationOffsets[p_index];
+        System.arraycopy(p_source.m_levelEnergies, first, m_levelEnergies, m_nbLevels, nbLevels);
+        System.arraycopy(p_source.m_cumulativeProbabilities, first, m_cumulativeProbabilities, m_nbLevels, nbLevels);
+        System.arraycopy(p_source.m_degeneracies, first, m_degeneracies, m_nbLevels, nbLevels);
+        for (int level = first ; level < first + nbLevels ; level += 1)
+        {
+            m_nbStates += p_source.m_degeneracies[level];
+        }
+
+        m_nbLevels += nbLevels;
+        m_size += 1;
+        m_levelOffsets[m_size] = m_nbLevels;
+    }
+
+    /**
+     * Group the states in distinct levels and store them
+     * @param p_cumulativeProbabilities one per distinct level, null if they aren't known
+     * @param p_recombinationOffset NaN if it isn't known
+     */
+    private void addStates (double p_positionX, double p_positionY, double p_radius, double p_height, double[] p_stateEnergies, double[] p_cumulativeProbabilities, double p_recombinationOffset)
+    {
+        Arrays.sort(p_stateEnergies);
+        int nbDistinct = 0;
+        for (int i = 0 ; i < p_stateEnergies.length ; i += 1)
+        {
+            if (i == 0 || p_stateEnergies[i] != p_stateEnergies[i - 1])
+            {
+                nbDistinct += 1;
+            }
+        }
+        if (p_cumulativeProbabilities != null && p_cumulativeProbabilities.length != nbDistinct)
+        {
+            throw new IllegalArgumentException("The spectrum has " + p_cumulativeProbabilities.length + " levels for " + nbDistinct + " distinct state energies.");
+        }
+
+        ensureCapacity(m_size + 1, m_nbLevels + nbDistinct);
+
+        m_positionsX[m_size] = p_positionX;
+        m_positionsY[m_size] = p_positionY;
+        m_radii[m_size] = p_radius;
+        m_heights[m_size] = p_height;
+        m_recombinationOffsets[m_size] = p_recombinationOffset;
+
+        int level = m_nbLevels - 1;
+        for (int i = 0 ; i < p_stateEnergies.length ; i += 1)
+        {
+            if (i == 0 || p_stateEnergies[i] != p_stateEnergies[i - 1])
+            {
+                level += 1;
+                m_levelEnergies[level] = p_stateEnergies[i];
+                m_cumulativeProbabilities[level] = p_cumulativeProbabilities != null ? p_cumulativeProbabilities[level - m_nbLevels] : Double.NaN;
+                m_degeneracies[level] = 0;
+            }
+            if (m_degeneracies[level] == Short.MAX_VALUE)
+            {
+                throw new IllegalArgumentException("A level can't hold more than " + Short.MAX_VALUE + " states.");
+            }
+            m_degeneracies[level] += 1;
+        }
+
+        m_nbLevels += nbDistinct;
+        m_nbStates += p_stateEnergies.length;
+        m_hasProbabilities &= p_cumulativeProbabilities != null;
+        m_size += 1;
+        m_levelOffsets[m_size] = m_nbLevels;
+    }
+
+    private void ensureCapacity (int p_nbQDs, int p_nbLevels)
+    {
+        if (p_nbLevels < 0)
+        {
+            throw new IllegalStateException("The ensemble can't hold more than " + Integer.MAX_VALUE + " levels.");
+        }
+
+        if (p_nbQDs > m_positionsX.length)
+        {
+            int capacity = (int) Long.min(Integer.MAX_VALUE - 8, Long.max(p_nbQDs, m_positionsX.length + (m_positionsX.length >> 1)));
+            m_positionsX = Arrays.copyOf(m_positionsX, capacity);
+            m_positionsY = Arrays.copyOf(m_positionsY, capacity);
+            m_radii = Arrays.copyOf(m_radii, capacity);
+            m_heights = Arrays.copyOf(m_heights, capacity);
+            m_recombinationOffsets = Arrays.copyOf(m_recombinationOffsets, capacity);
+            m_levelOffsets = Arrays.copyOf(m_levelOffsets, capacity + 1);
+        }
+
+        if (p_nbLevels > m_levelEnergies.length)
+        {
+            int capacity = (int) Long.min(Integer.MAX_VALUE - 8, Long.max(p_nbLevels, m_levelEnergies.length + (m_levelEnergies.length >> 1)));
+            m_levelEnergies = Arrays.copyOf(m_levelEnergies, capacity);
+            m_cumulativeProbabilities = Arrays.copyOf(m_cumulativeProbabilities, capacity);
+            m_degeneracies = Arrays.copyOf(m_degeneracies, capacity);
+        }
+    }
+
+    /**
+     * Release the unused part of the arrays, once every QD has been added
+     */
+    public void trimToSize()
+    {
+        m_positionsX = Arrays.copyOf(m_positionsX, m_size);
+        m_positionsY = Arrays.copyOf(m_positionsY, m_size);
+        m_radii = Arrays.copyOf(m_radii, m_size);
+        m_heights = Arrays.copyOf(m_heights, m_size);
+        m_recombinationOffsets = Arrays.copyOf(m_recombinationOffsets, m_size);
+        m_levelOffsets = Arrays.copyOf(m_levelOffsets, m_size + 1);
+        m_levelEnergies = Arrays.copyOf(m_levelEnergies, m_nbLevels);
+        m_cumulativeProbabilities = Arrays.copyOf(m_cumulativeProbabilities, m_nbLevels);
+        m_degeneracies = Arrays.copyOf(m_degeneracies, m_nbLevels);
+    }
+
+    public int size()
+    {
+        return m_size;
+    }
+
+    /**
+     *
+     * @return the total number of states of the QDs, spin included, without the QDs whose levels haven't been computed yet
+     */
+    public long getNumberOfStates()
+    {
+        return m_nbStates;
+    }
+
+    /**
+     *
+     * @return false if one of the QDs was computed with BigDecimal, and so was added without its level probabilities, or if the levels of one of them haven't been computed yet
+     */
+    public boolean hasSpectra()
+    {
+        return m_hasProbabilities && m_nbGeometryOnly == 0;
+    }
+
+    /**
+     *
+     * @return the number of QDs added with their geometry only, whose levels haven't been computed yet
+     */
+    public int getNumberOfGeometryOnly()
+    {
+        return m_nbGeometryOnly;
+    }
+
+    /**
+     *
+     * @param p_index
+     * @return true if the QD was added with its geometry only, and its levels haven't been computed yet
+     */
+    public boolean isGeometryOnly (int p_index)
+    {
+        checkIndex(p_index);
+        return m_geometryOnly.get(p_index);
+    }
+
+    public double getX (int p_index)
+    {
+        checkIndex(p_index);
+        return m_positionsX[p_index];
+    }
+
+    public double getY (int p_index)
+    {
+        checkIndex(p_index);
+        return m_positionsY[p_index];
+    }
+
+    public double getRadius (int p_index)
+    {
+        checkIndex(p_index);
+        return m_radii[p_index];
+    }
+
+    public double getHeight (int p_index)
+    {
+        checkIndex(p_index);
+        return m_heights[p_index];
+    }
+
+    /**
+     *
+     * @param p_index
+     * @return the QD band gap plus its hole confinement energy, in J. NaN if the QD was added without it
+     */
+    public double getRecombinationOffset (int p_index)
+    {
+        checkIndex(p_index);
+        return m_recombinationOffsets[p_index];
+    }
+
+    /**
+     *
+     * @param p_index
+     * @return the number of distinct levels of the QD
+     */
+    public int getNumberOfLevels (int p_index)
+    {
+        checkLevels(p_index);
+        return m_levelOffsets[p_index + 1] - m_levelOffsets[p_index];
+    }
+
+    /**
+     *
+     * @param p_index the QD index
+     * @param p_level the level index in the QD, the levels being sorted by increasing energy
+     * @return the recombination energy of the level, in J
+     */
+    public double getLevelEnergy (int p_index, int p_level)
+    {
+        return m_levelEnergies[levelPosition(p_index, p_level)];
+    }
+
+    /**
+     *
+     * @param p_index the QD index
+     * @param p_level the level index in the QD
+     * @return the number of states of the level, spin included
+     */
+    public int getDegeneracy (int p_index, int p_level)
+    {
+        return m_degeneracies[levelPosition(p_index, p_level)];
+    }
+
+    /**
+     *
+     * @param p_index the QD index
+     * @param p_level the level index in the QD
+     * @return the cumulative recombination probability of the level, NaN if the QD was added without its probabilities
+     */
+    public double getCumulativeProbability (int p_index, int p_level)
+    {
+        return m_cumulativeProbabilities[levelPosition(p_index, p_level)];
+    }
+
+    /**
+     *
+     * @param p_index
+     * @return the energy of each state of the QD, in J, sorted in increasing order
+     */
+    public double[] getStateEnergies (int p_index)
+    {
+        checkLevels(p_index);
+        int nbStates = 0;
+        for (int level = m_levelOffsets[p_index] ; level < m_levelOffsets[p_index + 1] ; level += 1)
+        {
+            nbStates += m_degeneracies[level];
+        }
+
+        double[] stateEnergies = new double[nbStates];
+        int state = 0;
+        for (int level = m_levelOffsets[p_index] ; level < m_levelOffsets[p_index + 1] ; level += 1)
+        {
+            Arrays.fill(stateEnergies, state, state + m_degeneracies[level], m_levelEnergies[level]);
+            state += m_degeneracies[level];
+        }
+
+        return stateEnergies;
+    }
+
+    /**
+     *
+     * @param p_index
+     * @return the levels of the QD, with its states in increasing energy order. null if the QD was added without its probabilities
+     */
+    public QuantumDotSpectrum getSpectrum (int p_index)
+    {
+        checkLevels(p_index);
+        int first = m_levelOffsets[p_index];
+        int last = m_levelOffsets[p_index + 1];
+
+        if (last > first && Double.isNaN(m_cumulativeProbabilities[first]))
+        {
+            return null;
+        }
+
+        return new QuantumDotSpectrum(getStateEnergies(p_index), Arrays.copyOfRange(m_levelEnergies, first, last), Arrays.copyOfRange(m_cumulativeProbabilities, first, last), m_recombinationOffsets[p_index]);
+    }
+
+    /**
+     *
+     * @param p_index
+     * @return a view on the QD of this index
+     */
+    public View get (int p_index)
+    {
+        View view = new View();
+        view.moveTo(p_index);
+
+        return view;
+    }
+
+    /**
+     *
+     * @return a view on no QD yet, to be moved on the QDs with View.moveTo()
+     */
+    public View view()
+    {
+        return new View();
+    }
+
+    /**
+     * Go through every QD with a single view
+     * @param p_action receives the same view, moved from one QD to the next. It shouldn't be kept
+     */
+    public void forEach (Consumer<View> p_action)
+    {
+        View view = view();
+        for (int i = 0 ; i < m_size ; i += 1)
+        {
+            view.moveTo(i);
+            p_action.accept(view);
+        }
+    }
+
+    private int levelPosition (int p_index, int p_level)
+    {
+        checkLevels(p_index);
+        if (p_level < 0 || p_level >= m_levelOffsets[p_index + 1] - m_levelOffsets[p_index])
+        {
+            throw new IndexOutOfBoundsException("Level " + p_level + " out of the " + (m_levelOffsets[p_index + 1] - m_levelOffsets[p_index]) + " levels of the QD " + p_index + ".");
+        }
+
+        return m_levelOffsets[p_index] + p_level;
+    }
+
+    private void checkIndex (int p_index)
+    {
+        if (p_index < 0 || p_index >= m_size)
+        {
+            throw new IndexOutOfBoundsException("QD " + p_index + " out of an ensemble of " + m_size + " QDs.");
+        }
+    }
+
+    private void checkLevels (int p_index)
+    {
+        checkIndex(p_index);
+        if (m_geometryOnly.get(p_index))
+        {
+            throw new IllegalStateException("The levels of the QD " + p_index + " haven't been computed yet.");
+        }
+    }
+
+    /**
+     * Flyweight on one QD of the ensemble, with the accessors of QuantumDot. A view can be moved from one QD to another, so that going through the ensemble doesn't create an object per QD
+     */
+    public class View
+    {
+        private int m_index = -1;
+
+        private View ()
+        {
+
+        }
+
+        public void moveTo (int p_index)
+        {
+            checkIndex(p_index);
+            m_index = p_index;
+        }
+
+        public int getIndex()
+        {
+            return m_index;
+        }
+
+        public BigDecimal getX()
+        {
+            return BigDecimal.valueOf(m_positionsX[m_index]);
+        }
+
+        public BigDecimal getY()
+        {
+            return BigDecimal.valueOf(m_positionsY[m_index]);
+        }
+
+        public BigDecimal getRadius()
+        {
+            return BigDecimal.valueOf(m_radii[m_index]);
+        }
+
+        public BigDecimal getHeight()
+        {
+            return BigDecimal.valueOf(m_heights[m_index]);
+        }
+
+        public BigDecimal getDistance (BigDecimal p_positionX, BigDecimal p_positionY)
+        {
+            BigDecimal squaredDistance = ((getX().subtract(p_positionX)).pow(2)).add(((getY().subtract(p_positionY)).pow(2)));
+
+            if (squaredDistance.compareTo(BigDecimal.ZERO) == 0)
+            {
+                return BigDecimal.ZERO;
+            }
+
+            return BigDecimalMath.sqrt(squaredDistance);
+        }
+
+        /**
+         *
+         * @param p_positionX in m
+         * @param p_positionY in m
+         * @return the distance between the center of the QD and the position, in m
+         */
+        public double getDistance (double p_positionX, double p_positionY)
+        {
+            return Math.hypot(m_positionsX[m_index] - p_positionX, m_positionsY[m_index] - p_positionY);
+        }
+
+        /**
+         *
+         * @return the states of the QD, each level appearing once per state, in increasing energy order
+         */
+        public ArrayList<BigDecimal> getStates()
+        {
+            checkLevels(m_index);
+            ArrayList<BigDecimal> listOfStates = new ArrayList<>();
+
+            for (int level = m_levelOffsets[m_index] ; level < m_levelOffsets[m_index + 1] ; level += 1)
+            {
+                BigDecimal energy = new BigDecimal(m_levelEnergies[level]);
+                for (int i = 0 ; i < m_degeneracies[level] ; i += 1)
+                {
+                    listOfStates.add(energy);
+                }
+            }
+
+            return listOfStates;
+        }
+
+        public double[] getStateEnergies()
+        {
+            return QDEnsemble.this.getStateEnergies(m_index);
+        }
+
+        public QuantumDotSpectrum getSpectrum()
+        {
+            return QDEnsemble.this.getSpectrum(m_index);
+        }
+
+        public String scaledString(BigDecimal p_sizeScale)
+        {
+            return QuantumDot.scaledString(getX(), getY(), getRadius(), getHeight(), p_sizeScale);
+        }
+    }
+}
@@ -0,0 +1,671 @@
+/*
+ * Copyright (C) 2021 audreyazura
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dosgenerator.generator;
+
+import albanlafuente.physicstools.physics.PhysicsVariables;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+import java.util.zip.DataFormatException;
+
+/**
+ * Reading and writing of QD lists.
+ * The text format has one QD per line: x, y, radius and height in nm, separated by tabulations.
+ * The binary format is columnar, in little endian:
+ *  - header: magic number (int), version (int), number of QDs n (int), flags (int), then the length (int) and UTF-8 bytes of the fingerprint of the calculator of the spectra. Version 1 files have no fingerprint
+ *  - x, y, radius and height in m, each as n contiguous doubles
+ *  - if the spectra flag is set: the first state and first level index of each QD and the total counts (two series of n+1 ints), then all the state energies, level energies and cumulative level probabilities (doubles)
+ *  - if the offsets flag is set: the recombination offset of the levels of each QD, as n doubles
+ * The spectra are only read back by a calculator with the same fingerprint, the other ones compute them again.
+ * @author audreyazura
+ */
+public class QDListIO
+{
+    public static final int FLAG_SPECTRA = 1;
+    public static final int FLAG_OFFSETS = 2;
+    public static final String TEXT_HEADER = "x (nm)\ty (nm)\tradius (nm)\theight (nm)";
+
+    private static final int MAGIC = 0x51444C42;
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 5 * Integer.BYTES;
+    private static final int VERSION_1_HEADER_SIZE = 4 * Integer.BYTES;
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private QDListIO ()
+    {
+
+    }
+
+    /**
+     *
+     * @param p_file
+     * @param p_calculator builds the QDs from their geometry
+     * @return the QDs of the file
+     * @throws IOException
+     */
+    public static List<QuantumDot> readText (String p_file, SpectrumCalculator p_calculator) throws IOException
+    {
+        List<QuantumDot> QDList = new ArrayList<>();
+        
+        readText(p_file, geometry -> QDList.add(p_calculator.createQuantumDot(geometry[0], geometry[1], geometry[2], geometry[3])));
+
+        return QDList;
+    }
+    
+    /**
+     * Read a text QD list into a compact ensemble, with the geometry of the QDs only. Their levels are then computed all at once with QDEnsemble.computeSpectra
+     * @param p_file
+     * @param p_QDs the ensemble the QDs of the file are added to
+     * @throws IOException
+     */
+    public static void readText (String p_file, QDEnsemble p_QDs) throws IOException
+    {
+        readText(p_file, geometry -> p_QDs.addGeometry(geometry[0].doubleValue(), geometry[1].doubleValue(), geometry[2].doubleValue(), geometry[3].doubleValue()));
+    }
+    
+    /**
+     * Go through the QDs of a text list, in the order of the file
+     * @param p_file
+     * @param p_receiver receives {x, y, radius, height} of each QD, in m
+     */
+    private static void readText (String p_file, Consumer<BigDecimal[]> p_receiver) throws IOException
+    {
+        BufferedReader fileReader = new BufferedReader(new FileReader(p_file));
+        Pattern numberRegex = Pattern.compile("^\\-?\\d+(\\.\\d+(e(\\+|\\-)\\d+)?)?");
+
+        try
+        {
+            String line;
+            while (((line = fileReader.readLine()) != null))
+            {
+                String[] lineSplit = line.strip().split("[,;\t]");
+
+                if(numberRegex.matcher(lineSplit[0]).matches())
+                {
+                    BigDecimal x = (new BigDecimal(lineSplit[0].strip())).multiply(PhysicsVariables.UnitsPrefix.NANO.getMultiplier()).stripTrailingZeros();
+                    BigDecimal y = (new BigDecimal(lineSplit[1].strip())).multiply(PhysicsVariables.UnitsPrefix.NANO.getMultiplier()).stripTrailingZeros();
+                    BigDecimal radius = (new BigDecimal(lineSplit[2].strip())).multiply(PhysicsVariables.UnitsPrefix.NANO.getMultiplier()).stripTrailingZeros();
+                    BigDecimal height = (new BigDecimal(lineSplit[3].strip())).multiply(PhysicsVariables.UnitsPrefix.NANO.getMultiplier()).stripTrailingZeros();
+
+                    p_receiver.accept(new BigDecimal[] {x, y, radius, height});
+                }
+            }
+        }
+        finally
+        {
+            fileReader.close();
+        }
+    }
+
+    public static void writeText (String p_file, List<QuantumDot> p_QDList) throws IOException
+    {
+        BufferedWriter QDWriter = new BufferedWriter(new FileWriter(p_file));
+
+        try
+        {
+            QDWriter.write(TEXT_HEADER);
+            for (QuantumDot qd: p_QDList)
+            {
+                QDWriter.newLine();
+                QDWriter.write(qd.scaledString(PhysicsVariables.UnitsPrefix.NANO.getMultiplier()));
+            }
+        }
+        finally
+        {
+            QDWriter.close();
+        }
+    }
+
+    /**
+     * Write the text list of an ensemble, the numbers being formatted from their double values without going through BigDecimal
+     * @param p_file
+     * @param p_QDs
+     * @throws IOException 
+     */
+    public static void writeText (String p_file, QDEnsemble p_QDs) throws IOException
+    {
+        OutputStage output = new OutputStage();
+
+        try
+        {
+            OutputStage.TextStream QDWriter = output.openText(Paths.get(p_file), OutputStage.DEFAULT_BUFFER_SIZE);
+            QDWriter.append(TEXT_HEADER);
+            for (int i = 0 ; i < p_QDs.size() ; i += 1)
+            {
+                appendText(QDWriter, p_QDs, i);
+            }
+        }
+        finally
+        {
+            output.close();
+        }
+    }
+    
+    /**
+     * Add the line of one QD to a text list being written, the header being written first
+     * @param p_stream
+     * @param p_QDs
+     * @param p_index 
+     */
+    public static void appendText (OutputStage.TextStream p_stream, QDEnsemble p_QDs, int p_index)
+    {
+        //in nm
+        p_stream.newLine().appendScaled(p_QDs.getX(p_index), 9).append('\t').appendScaled(p_QDs.getY(p_index), 9).append('\t').appendScaled(p_QDs.getRadius(p_index), 9).append('\t').appendScaled(p_QDs.getHeight(p_index), 9);
+    }
+
+    /**
+     *
+     * @param p_file
+     * @param p_calculator builds the QDs whose spectra aren't saved in the file, or were saved by a calculator with another fingerprint
+     * @return the QDs of the file
+     * @throws IOException
+     * @throws DataFormatException if the file isn't a binary QD list
+     */
+    public static List<QuantumDot> readBinary (Path p_file, SpectrumCalculator p_calculator) throws IOException, DataFormatException
+    {
+        List<QuantumDot> QDList = new ArrayList<>();
+        
+        readBinary(p_file, p_calculator.getFingerprint(), (x, y, radius, height, spectrum) ->
+        {
+            BigDecimal bigX = BigDecimal.valueOf(x);
+            BigDecimal bigY = BigDecimal.valueOf(y);
+            BigDecimal bigRadius = BigDecimal.valueOf(radius);
+            BigDecimal bigHeight = BigDecimal.valueOf(height);
+
+            if (spectrum != null)
+            {
+                QDList.add(new QuantumDot(bigX, bigY, bigRadius, bigHeight, spectrum));
+            }
+            else
+            {
+                QDList.add(p_calculator.createQuantumDot(bigX, bigY, bigRadius, bigHeight));
+            }
+        });
+        
+        return QDList;
+    }
+    
+    /**
+     * Read a binary QD list directly into a compact ensemble, without creating any QD. The QDs whose spectra aren't saved in the file are added with their geometry only, their levels being then computed all at once with QDEnsemble.computeSpectra
+     * @param p_file
+     * @param p_QDs the ensemble the QDs of the file are added to
+     * @param p_calculator the calculator the ensemble is computed with, the saved spectra are ignored if it has another fingerprint
+     * @throws IOException
+     * @throws DataFormatException if the file isn't a binary QD list
+     */
+    public static void readBinary (Path p_file, QDEnsemble p_QDs, SpectrumCalculator p_calculator) throws IOException, DataFormatException
+    {
+        readBinary(p_file, p_calculator.getFingerprint(), (x, y, radius, height, spectrum) ->
+        {
+            if (spectrum != null)
+            {
+                p_QDs.add(x, y, radius, height, spectrum);
+            }
+            else
+            {
+                p_QDs.addGeometry(x, y, radius, height);
+            }
+        });
+    }
+    
+    /**
+     * Go through the QDs of a binary list, in the order of the file
+     * @param p_file
+     * @param p_fingerprint the fingerprint of the calculator the spectra have to come from
+     * @param p_receiver receives the geometry of each QD, with its spectrum if it is saved in the file with this fingerprint
+     */
+    private static void readBinary (Path p_file, String p_fingerprint, QDReceiver p_receiver) throws IOException, DataFormatException
+    {
+        FileChannel channel = FileChannel.open(p_file, StandardOpenOption.READ);
+
+        try
+        {
+            long fileSize = channel.size();
+            if (fileSize < VERSION_1_HEADER_SIZE)
+            {
+                throw new DataFormatException(p_file + " is not a binary QD list.");
+            }
+            ByteBuffer header = map(channel, 0, VERSION_1_HEADER_SIZE);
+            int version;
+            if (header.getInt() != MAGIC || ((version = header.getInt()) != VERSION && version != 1))
+            {
+                throw new DataFormatException(p_file + " is not a binary QD list.");
+            }
+            int nQDs = header.getInt();
+            int flags = header.getInt();
+
+            //the sizes are checked against the file before anything is allocated or mapped from them
+            long position = VERSION_1_HEADER_SIZE;
+            boolean sameCalculator = false;
+            if (version == VERSION)
+            {
+                int fingerprintLength = fileSize < HEADER_SIZE ? -1 : map(channel, position, Integer.BYTES).getInt();
+                if (fingerprintLength < 0 || fingerprintLength > fileSize - HEADER_SIZE)
+                {
+                    throw new DataFormatException(p_file + " has a corrupted header.");
+                }
+                byte[] fingerprint = new byte[fingerprintLength];
+                map(channel, HEADER_SIZE, fingerprintLength).get(fingerprint);
+                sameCalculator = p_fingerprint.equals(new String(fingerprint, StandardCharsets.UTF_8));
+                position = HEADER_SIZE + fingerprintLength;
+            }
+            if (nQDs < 0 || 4L * nQDs * Double.BYTES > fileSize - position)
+            {
+                throw new DataFormatException(p_file + " is too short for its " + nQDs + " QDs.");
+            }
+            
+            double[][] geometry = new double[4][nQDs];
+            for (double[] column: geometry)
+            {
+                mapDoubles(channel, position, nQDs).get(column);
+                position += (long) nQDs * Double.BYTES;
+            }
+
+            int[] stateOffsets = null;
+            int[] levelOffsets = null;
+            DoubleBuffer states = null;
+            DoubleBuffer levels = null;
+            DoubleBuffer probabilities = null;
+            double[] recombinationOffsets = null;
+            //the spectra saved by another calculator, or without its fingerprint, are computed again
+            if ((flags & FLAG_SPECTRA) != 0 && sameCalculator)
+            {
+                if (2L * (nQDs + 1) * Integer.BYTES > fileSize - position)
+                {
+                    throw new DataFormatException(p_file + " is too short for the spectra of its " + nQDs + " QDs.");
+                }
+                stateOffsets = new int[nQDs + 1];
+                levelOffsets = new int[nQDs + 1];
+                mapInts(channel, position, nQDs + 1).get(stateOffsets);
+                position += (long) (nQDs + 1) * Integer.BYTES;
+                mapInts(channel, position, nQDs + 1).get(levelOffsets);
+                position += (long) (nQDs + 1) * Integer.BYTES;
+                
+                if (!isIncreasing(stateOffsets) || !isIncreasing(levelOffsets) || ((long) stateOffsets[nQDs] + 2L * levelOffsets[nQDs] + ((flags & FLAG_OFFSETS) != 0 ? nQDs : 0)) * Double.BYTES > fileSize - position)
+                {
+                    throw new DataFormatException(p_file + " has corrupted spectrum offsets.");
+                }
+
+                states = mapDoubles(channel, position, stateOffsets[nQDs]);
+                position += (long) stateOffsets[nQDs] * Double.BYTES;
+                levels = mapDoubles(channel, position, levelOffsets[nQDs]);
+                position += (long) levelOffsets[nQDs] * Double.BYTES;
+                probabilities = mapDoubles(channel, position, levelOffsets[nQDs]);
+                position += (long) levelOffsets[nQDs] * Double.BYTES;
+                
+                if ((flags & FLAG_OFFSETS) != 0)
+                {
+                    recombinationOffsets = new double[nQDs];
+                    mapDoubles(channel, position, nQDs).get(recombinationOffsets);
+                }
+            }
+
+            for (int i = 0 ; i < nQDs ; i += 1)
+            {
+                QuantumDotSpectrum spectrum = null;
+                
+                if (stateOffsets != null)
+                {
+                    double[] QDStates = new double[stateOffsets[i + 1] - stateOffsets[i]];
+                    double[] QDLevels = new double[levelOffsets[i + 1] - levelOffsets[i]];
+                    double[] QDProbabilities = new double[QDLevels.length];
+                    states.get(QDStates);
+                    levels.get(QDLevels);
+                    probabilities.get(QDProbabilities);
+
+                    spectrum = new QuantumDotSpectrum(QDStates, QDLevels, QDProbabilities, recombinationOffsets != null ? recombinationOffsets[i] : Double.NaN);
+                }
+                
+                p_receiver.accept(geometry[0][i], geometry[1][i], geometry[2][i], geometry[3][i], spectrum);
+            }
+        }
+        finally
+        {
+            channel.close();
+        }
+    }
+
+    /**
+     *
+     * @param p_file
+     * @param p_QDList
+     * @param p_calculator the calculator of the QDs, their levels are saved with its fingerprint if it computes them in double precision
+     * @throws IOException
+     */
+    public static void writeBinary (Path p_file, List<QuantumDot> p_QDList, SpectrumCalculator p_calculator) throws IOException
+    {
+        int nQDs = p_QDList.size();
+        boolean withSpectra = p_calculator.getMode() == SpectrumCalculator.ComputationMode.DOUBLE;
+        if (withSpectra)
+        {
+            for (QuantumDot qd: p_QDList)
+            {
+                if (qd.getSpectrum() == null)
+                {
+                    throw new IllegalArgumentException("Only the spectra computed in double precision can be saved.");
+                }
+            }
+        }
+
+        //the offsets are only saved if every QD knows them
+        boolean withOffsets = withSpectra;
+        if (withSpectra)
+        {
+            for (QuantumDot qd: p_QDList)
+            {
+                withOffsets &= !Double.isNaN(qd.getSpectrum().getRecombinationOffset());
+            }
+        }
+
+        byte[] fingerprint = p_calculator.getFingerprint().getBytes(StandardCharsets.UTF_8);
+        if (HEADER_SIZE + fingerprint.length > BUFFER_SIZE)
+        {
+            throw new IllegalArgumentException("The fingerprint of the calculator doesn't fit in the header.");
+        }
+        
+        FileChannel channel = FileChannel.open(p_file, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+        try
+        {
+            buffer.putInt(MAGIC).putInt(VERSION).putInt(nQDs).putInt((withSpectra ? FLAG_SPECTRA : 0) | (withOffsets ? FLAG_OFFSETS : 0)).putInt(fingerprint.length).put(fingerprint);
+
+            for (QuantumDot qd: p_QDList)
+            {
+                putDouble(channel, buffer, qd.getX().doubleValue());
+            }
+            for (QuantumDot qd: p_QDList)
+            {
+                putDouble(channel, buffer, qd.getY().doubleValue());
+            }
+            for (QuantumDot qd: p_QDList)
+            {
+                putDouble(channel, buffer, qd.getRadius().doubleValue());
+            }
+            for (QuantumDot qd: p_QDList)
+            {
+                putDouble(channel, buffer, qd.getHeight().doubleValue());
+            }
+
+            if (withSpectra)
+            {
+                int offset = 0;
+                for (QuantumDot qd: p_QDList)
+                {
+                    putInt(channel, buffer, offset);
+                    offset += qd.getSpectrum().numberOfStates();
+                }
+                putInt(channel, buffer, offset);
+
+                offset = 0;
+                for (QuantumDot qd: p_QDList)
+                {
+                    putInt(channel, buffer, offset);
+                    offset += qd.getSpectrum().numberOfLevels();
+                }
+                putInt(channel, buffer, offset);
+
+                for (QuantumDot qd: p_QDList)
+                {
+                    for (int i = 0 ; i < qd.getSpectrum().numberOfStates() ; i += 1)
+                    {
+                        putDouble(channel, buffer, qd.getSpectrum().getStateEnergy(i));
+                    }
+                }
+                for (QuantumDot qd: p_QDList)
+                {
+                    for (int i = 0 ; i < qd.getSpectrum().numberOfLevels() ; i += 1)
+                    {
+                        putDouble(channel, buffer, qd.getSpectrum().getLevelEnergy(i));
+                    }
+                }
+                for (QuantumDot qd: p_QDList)
+                {
+                    for (int i = 0 ; i < qd.getSpectrum().numberOfLevels() ; i += 1)
+                    {
+                        putDouble(channel, buffer, qd.getSpectrum().getCumulativeProbability(i));
+                    }
+                }
+
+                if (withOffsets)
+                {
+                    for (QuantumDot qd: p_QDList)
+                    {
+                        putDouble(channel, buffer, qd.getSpectrum().getRecombinationOffset());
+                    }
+                }
+            }
+
+            flush(channel, buffer);
+        }
+        finally
+        {
+            channel.close();
+        }
+    }
+
+    /**
+     * Write a compact ensemble, in the same format as a QD list. The states of each QD are written in increasing energy order
+     * @param p_file
+     * @param p_QDs
+     * @param p_calculator the calculator of the ensemble, its levels are saved with its fingerprint if it computes them in double precision
+     * @throws IOException
+     */
+    public static void writeBinary (Path p_file, QDEnsemble p_QDs, SpectrumCalculator p_calculator) throws IOException
+    {
+        int nQDs = p_QDs.size();
+        boolean withSpectra = p_calculator.getMode() == SpectrumCalculator.ComputationMode.DOUBLE;
+        if (withSpectra && !p_QDs.hasSpectra())
+        {
+            throw new IllegalArgumentException("Only the spectra computed in double precision can be saved.");
+        }
+        if (withSpectra && p_QDs.getNumberOfStates() > Integer.MAX_VALUE)
+        {
+            throw new IllegalArgumentException("The binary format can't hold more than " + Integer.MAX_VALUE + " states.");
+        }
+
+        //the offsets are only saved if every QD knows them
+        boolean withOffsets = withSpectra;
+        for (int i = 0 ; i < nQDs && withOffsets ; i += 1)
+        {
+            withOffsets = !Double.isNaN(p_QDs.getRecombinationOffset(i));
+        }
+
+        byte[] fingerprint = p_calculator.getFingerprint().getBytes(StandardCharsets.UTF_8);
+        if (HEADER_SIZE + fingerprint.length > BUFFER_SIZE)
+        {
+            throw new IllegalArgumentException("The fingerprint of the calculator doesn't fit in the header.");
+        }
+        
+        FileChannel channel = FileChannel.open(p_file, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+        try
+        {
+            buffer.putInt(MAGIC).putInt(VERSION).putInt(nQDs).putInt((withSpectra ? FLAG_SPECTRA : 0) | (withOffsets ? FLAG_OFFSETS : 0)).putInt(fingerprint.length).put(fingerprint);
+
+            for (int i = 0 ; i < nQDs ; i += 1)
+            {
+                putDouble(channel, buffer, p_QDs.getX(i));
+            }
+            for (int i = 0 ; i < nQDs ; i += 1)
+            {
+                putDouble(channel, buffer, p_QDs.getY(i));
+            }
+            for (int i = 0 ; i < nQDs ; i += 1)
+            {
+                putDouble(channel, buffer, p_QDs.getRadius(i));
+            }
+            for (int i = 0 ; i < nQDs ; i += 1)
+            {
+                putDouble(channel, buffer, p_QDs.getHeight(i));
+            }
+
+            if (withSpectra)
+            {
+                int offset = 0;
+                for (int i = 0 ; i < nQDs ; i += 1)
+                {
+                    putInt(channel, buffer, offset);
+                    for (int level = 0 ; level < p_QDs.getNumberOfLevels(i) ; level += 1)
+                    {
+                        offset += p_QDs.getDegeneracy(i, level);
+                    }
+                }
+                putInt(channel, buffer, offset);
+
+                offset = 0;
+                for (int i = 0 ; i < nQDs ; i += 1)
+                {
+                    putInt(channel, buffer, offset);
+                    offset += p_QDs.getNumberOfLevels(i);
+                }
+                putInt(channel, buffer, offset);
+
+                for (int i = 0 ; i < nQDs ; i += 1)
+                {
+                    for (int level = 0 ; level < p_QDs.getNumberOfLevels(i) ; level += 1)
+                    {
+                        for (int state = 0 ; state < p_QDs.getDegeneracy(i, level) ; state += 1)
+                        {
+                            putDouble(channel, buffer, p_QDs.getLevelEnergy(i, level));
+                        }
+                    }
+                }
+                for (int i = 0 ; i < nQDs ; i += 1)
+                {
+                    for (int level = 0 ; level < p_QDs.getNumberOfLevels(i) ; level += 1)
+                    {
+                        putDouble(channel, buffer, p_QDs.getLevelEnergy(i, level));
+                    }
+                }
+                for (int i = 0 ; i < nQDs ; i += 1)
+                {
+                    for (int level = 0 ; level < p_QDs.getNumberOfLevels(i) ; level += 1)
+                    {
+                        putDouble(channel, buffer, p_QDs.getCumulativeProbability(i, level));
+                    }
+                }
+
+                if (withOffsets)
+                {
+                    for (int i = 0 ; i < nQDs ; i += 1)
+                    {
+                        putDouble(channel, buffer, p_QDs.getRecombinationOffset(i));
+                    }
+                }
+            }
+
+            flush(channel, buffer);
+        }
+        finally
+        {
+            channel.close();
+        }
+    }
+
+    private static void putDouble (FileChannel p_channel, ByteBuffer p_buffer, double p_value) throws IOException
+    {
+        if (p_buffer.remaining() < Double.BYTES)
+        {
+            flush(p_channel, p_buffer);
+        }
+        p_buffer.putDouble(p_value);
+    }
+
+    private static void putInt (FileChannel p_channel, ByteBuffer p_buffer, int p_value) throws IOException
+    {
+        if (p_buffer.remaining() < Integer.BYTES)
+        {
+            flush(p_channel, p_buffer);
+        }
+        p_buffer.putInt(p_value);
+    }
+
+    private static void flush (FileChannel p_channel, ByteBuffer p_buffer) throws IOException
+    {
+        p_buffer.flip();
+        while (p_buffer.hasRemaining())
+        {
+            p_channel.write(p_buffer);
+        }
+        p_buffer.clear();
+    }
+
+    /**
+     * 
+     * @param p_offsets
+     * @return true if the offsets start at 0 and never decrease
+     */
+    private static boolean isIncreasing (int[] p_offsets)
+    {
+        if (p_offsets[0] != 0)
+        {
+            return false;
+        }
+        for (int i = 1 ; i < p_offsets.length ; i += 1)
+        {
+            if (p_offsets[i] < p_offsets[i - 1])
+            {
+                return false;
+            }
+        }
+        
+        return true;
+    }
+
+    private static MappedByteBuffer map (FileChannel p_channel, long p_position, long p_size) throws IOException
+    {
+        MappedByteBuffer mapped = p_channel.map(FileChannel.MapMode.READ_ONLY, p_position, p_size);
+        mapped.order(ByteOrder.LITTLE_ENDIAN);
+
+        return mapped;
+    }
+
+    private static DoubleBuffer mapDoubles (FileChannel p_channel, long p_position, int p_count) throws IOException
+    {
+        return map(p_channel, p_position, (long) p_count * Double.BYTES).asDoubleBuffer();
+    }
+
+    private static IntBuffer mapInts (FileChannel p_channel, long p_position, int p_count) throws IOException
+    {
+        return map(p_channel, p_position, (long) p_count * Integer.BYTES).asIntBuffer();
+    }
+
+    @FunctionalInterface
+    private interface QDReceiver
+    {
+        void accept (double p_positionX, double p_positionY, double p_radius, double p_height, QuantumDotSpectrum p_spectrum);
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2021 audreyazura
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dosgenerator.generator;
+
+import albanlafuente.physicstools.physics.PhysicsVariables;
+import java.math.BigDecimal;
+
+/**
+ * Distribution the QD sizes are drawn from.
+ * The radius is drawn on a gaussian, the height is correlated to it with the relation
+ * height = radius / ratio + offset
+ * with a gaussian variation around the line.
+ * @author audreyazura
+ */
+public class QDSizeDistribution
+{
+    public static final QDSizeDistribution DEFAULT = new QDSizeDistribution(12, 2.1, new BigDecimal("3"), -1.5, 0.5);
+    
+    private final double m_radiusMean;
+    private final double m_radiusDeviation;
+    private final BigDecimal m_heightRatio;
+    private final double m_heightOffset;
+    private final double m_heightDeviation;
+    
+    /**
+     * 
+     * @param p_radiusMean in nm
+     * @param p_radiusDeviation in nm
+     * @param p_heightRatio the radius over height ratio of the correlation line
+     * @param p_heightOffset the height at null radius of the correlation line, in nm
+     * @param p_heightDeviation the deviation around the correlation line, in nm
+     */
+    public QDSizeDistribution (double p_radiusMean, double p_radiusDeviation, BigDecimal p_heightRatio, double p_heightOffset, double p_heightDeviation)
+    {
+        if (p_radiusMean <= 0 || p_radiusDeviation < 0 || p_heightRatio.compareTo(BigDecimal.ZERO) <= 0 || p_heightDeviation < 0)
+        {
+            throw new IllegalArgumentException("The mean radius and the height ratio have to be positive and the deviations can't be negative.");
+        }
+        
+        m_radiusMean = p_radiusMean;
+        m_radiusDeviation = p_radiusDeviation;
+        m_heightRatio = p_heightRatio;
+        m_heightOffset = p_heightOffset;
+        m_heightDeviation = p_heightDeviation;
+    }
+    
+    public double getRadiusMean()
+    {
+        return m_radiusMean;
+    }
+    
+    public double getRadiusDeviation()
+    {
+        return m_radiusDeviation;
+    }
+    
+    public BigDecimal getHeightRatio()
+    {
+        return m_heightRatio;
+    }
+    
+    public double getHeightOffset()
+    {
+        return m_heightOffset;
+    }
+    
+    public double getHeightDeviation()
+    {
+        return m_heightDeviation;
+    }
+    
+    /**
+     * 
+     * @return a description of every parameter of the distribution, identifying the QD sizes drawn from a given seed
+     */
+    public String getFingerprint()
+    {
+        return "radius=" + m_radiusMean + "," + m_radiusDeviation + ";height=" + m_heightRatio + "," + m_heightOffset + "," + m_heightDeviation;
+    }
+    
+    /**
+     * 
+     * @return the radius 5 deviations above the mean, in m. The placement grid is sized on it
+     */
+    public double getMaximumRadius()
+    {
+        return (new BigDecimal(m_radiusMean + 5 * m_radiusDeviation)).multiply(PhysicsVariables.UnitsPrefix.NANO.getMultiplier()).doubleValue();
+    }
+}
@@ -26,7 +26,9 @@ import java.math.RoundingMode;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.logging.Level;
@@ -34,7 +36,8 @@ import java.util.logging.Logger;
 import org.nevec.rjm.BigDecimalMath;
 
 /**
- *
+ * A QD computed either with BigDecimal, its levels being kept in the probability map and tree, or in double precision, its levels being kept in a QuantumDotSpectrum.
+ * The QDs known by their geometry only are kept in a QDEnsemble until their levels are computed.
  * @author Alban Lafuente
  */
 public class QuantumDot
@@ -44,11 +47,15 @@ public class QuantumDot
     private final BigDecimal m_positionY;
     private final BigDecimal m_radius;
     private final BigDecimal m_height;
+    //the number of states and the probability map and tree are only used by the QDs computed with BigDecimal. For the others, the number of states is 0 and the map and tree are null, their spectrum holding their levels
     private final int m_numberOfStates;
     private final HashMap<Double, BigDecimal> m_probabilitiesPerlevel;
     private final TreeSet<Double> m_recombinationProbaTree;
+    private final QuantumDotSpectrum m_spectrum;
     
     private int m_numberOfFreeStates;
+    //built on the first draw, the QDs that are never sampled don't pay for it
+    private volatile AliasTable m_recombinationTable = null;
     
     public QuantumDot (BigDecimal p_positionX, BigDecimal p_positionY, BigDecimal p_radius, BigDecimal p_height, Map<Double, BigDecimal> p_energyLevelsPopProba, Set<Double> p_recombProba, int p_nbLevels, int p_nbFreeLevels)
     {
@@ -58,6 +65,7 @@ public class QuantumDot
         m_height = new BigDecimal(p_height.toString());
         m_numberOfStates = p_nbLevels;
         m_numberOfFreeStates = p_nbFreeLevels;
+        m_spectrum = null;
         
         m_probabilitiesPerlevel = new HashMap<>();
         for (Double proba: p_energyLevelsPopProba.keySet())
@@ -81,6 +89,7 @@ public class QuantumDot
         
         m_positionX = p_positionX;
         m_positionY = p_positionY;
+        m_spectrum = null;
         
         m_radius = p_radius.multiply(BigDecimal.ONE);
         m_height = p_height.multiply(BigDecimal.ONE);
@@ -94,28 +103,41 @@ public class QuantumDot
         BigDecimal heightEnergyParameterHole = energyParameter(0, m_height, VBOffset, QDMaterial.getHoleEffectiveMass());
         BigDecimal holeConfinementEnergy = (two.multiply(PhysicsVariables.hbar.pow(2)).divide(QDMaterial.getHoleEffectiveMass(), MathContext.DECIMAL128)).multiply(heightEnergyParameterHole.add(two.multiply(planeEnergyParameterHole)));
         
+        //the energy increasing with each index, a loop ends at its first index without a bound level, which also ends the outer loop when it is the first one. The in-plane wells are solved once per index
         int nbStates = 0;
         TreeSet<BigDecimal> energyLevels = new TreeSet<>();
-        for (int nz = 0 ; nz < 10 ; nz += 1)
+        List<BigDecimal> planeEnergyParametersElectron = new ArrayList<>();
+        BigDecimal electronPrefactor = two.multiply(PhysicsVariables.hbar.pow(2)).divide(QDMaterial.getElectronEffectiveMass(), MathContext.DECIMAL128);
+        for (int nz = 0 ; ; nz += 1)
         {
-            for (int nx = 0 ; nx < 100 ; nx += 1)
+            BigDecimal zEnergyParameterElectron = energyParameter(nz, p_height, CBOffset, QDMaterial.getElectronEffectiveMass());
+            if (zEnergyParameterElectron.compareTo(BigDecimal.ZERO) < 0)
             {
-                for (int ny = 0 ; ny < 100 ; ny += 1)
+                break;
+            }
+            BigDecimal energyZElectron = zEnergyParameterElectron.divide(p_height, MathContext.DECIMAL128).pow(2);
+            
+            int nbBoundX = 0;
+            for (int nx = 0 ; ; nx += 1)
+            {
+                BigDecimal xEnergyParameterElectron = planeEnergyParameter(planeEnergyParametersElectron, nx, equivalentSquareSide, CBOffset, QDMaterial.getElectronEffectiveMass());
+                if (xEnergyParameterElectron.compareTo(BigDecimal.ZERO) < 0)
                 {
-                    BigDecimal xEnergyParameterElectron = energyParameter(nx, equivalentSquareSide, CBOffset, QDMaterial.getElectronEffectiveMass());
-                    BigDecimal yEnergyParameterElectron = energyParameter(ny, equivalentSquareSide, CBOffset, QDMaterial.getElectronEffectiveMass());
-                    BigDecimal zEnergyParameterElectron = energyParameter(nz, p_height, CBOffset, QDMaterial.getElectronEffectiveMass());
-                    
-                    if (xEnergyParameterElectron.compareTo(BigDecimal.ZERO) < 0 || yEnergyParameterElectron.compareTo(BigDecimal.ZERO) < 0 || zEnergyParameterElectron.compareTo(BigDecimal.ZERO) < 0)
+                    break;
+                }
+                BigDecimal energyXElectron = xEnergyParameterElectron.divide(equivalentSquareSide, MathContext.DECIMAL128).pow(2);
+                
+                int nbBoundY = 0;
+                for (int ny = 0 ; ; ny += 1)
+                {
+                    BigDecimal yEnergyParameterElectron = planeEnergyParameter(planeEnergyParametersElectron, ny, equivalentSquareSide, CBOffset, QDMaterial.getElectronEffectiveMass());
+                    if (yEnergyParameterElectron.compareTo(BigDecimal.ZERO) < 0)
                     {
                         break;
                     }
-                    
-                    BigDecimal energyXElectron = xEnergyParameterElectron.divide(equivalentSquareSide, MathContext.DECIMAL128).pow(2);
                     BigDecimal energyYElectron = yEnergyParameterElectron.divide(equivalentSquareSide, MathContext.DECIMAL128).pow(2);
-                    BigDecimal energyZElectron = zEnergyParameterElectron.divide(p_height, MathContext.DECIMAL128).pow(2);
 
-                    BigDecimal electronConfinementEnergy = (two.multiply(PhysicsVariables.hbar.pow(2)).divide(QDMaterial.getElectronEffectiveMass(), MathContext.DECIMAL128)).multiply(energyXElectron.add(energyYElectron).add(energyZElectron));
+                    BigDecimal electronConfinementEnergy = electronPrefactor.multiply(energyXElectron.add(energyYElectron).add(energyZElectron));
                     if (electronConfinementEnergy.compareTo(CBOffset) > 0)
                     {
                         break;
@@ -123,6 +145,7 @@ public class QuantumDot
                     
                     energyLevels.add(electronConfinementEnergy);
                     nbStates += 2;
+                    nbBoundY += 1;
                     
                     //adding the energy to the list of states
                     BigDecimal totalRecombinationEnergy = electronConfinementEnergy.add(QDMaterial.getBandgap()).add(holeConfinementEnergy);
@@ -133,6 +156,17 @@ public class QuantumDot
                     m_listOfStates.add(totalRecombinationEnergy);
                     m_listOfStates.add(totalRecombinationEnergy);
                 }
+                
+                if (nbBoundY == 0)
+                {
+                    break;
+                }
+                nbBoundX += 1;
+            }
+            
+            if (nbBoundX == 0)
+            {
+                break;
             }
         }
         
@@ -179,12 +213,76 @@ public class QuantumDot
         }
     }
     
+    /**
+     * Double precision equivalent of QuantumDot(BigDecimal, BigDecimal, BigDecimal, BigDecimal, Metamaterial)
+     * @param p_positionX
+     * @param p_positionY
+     * @param p_radius
+     * @param p_height
+     * @param p_calculator the calculator holding the sample material parameters
+     */
+    public QuantumDot (BigDecimal p_positionX, BigDecimal p_positionY, BigDecimal p_radius, BigDecimal p_height, SpectrumCalculator p_calculator)
+    {
+        this(p_positionX, p_positionY, p_radius, p_height, p_calculator.computeSpectrum(p_radius.doubleValue(), p_height.doubleValue()));
+    }
+    
+    /**
+     * Rebuild a QD from levels computed beforehand, for instance read back from a file
+     * @param p_positionX
+     * @param p_positionY
+     * @param p_radius
+     * @param p_height
+     * @param p_spectrum the levels of a QD of this size
+     */
+    public QuantumDot (BigDecimal p_positionX, BigDecimal p_positionY, BigDecimal p_radius, BigDecimal p_height, QuantumDotSpectrum p_spectrum)
+    {
+        m_positionX = p_positionX;
+        m_positionY = p_positionY;
+        m_radius = p_radius;
+        m_height = p_height;
+        
+        m_spectrum = Objects.requireNonNull(p_spectrum);
+        m_numberOfStates = 0;
+        m_numberOfFreeStates = 0;
+        m_probabilitiesPerlevel = null;
+        m_recombinationProbaTree = null;
+    }
+    
     public QuantumDot copy()
     {
+        if (m_probabilitiesPerlevel == null)
+        {
+            return new QuantumDot(m_positionX, m_positionY, m_radius, m_height, m_spectrum);
+        }
+        
         return new QuantumDot(m_positionX, m_positionY, m_radius, m_height, m_probabilitiesPerlevel, m_recombinationProbaTree, m_numberOfStates, m_numberOfFreeStates);
     }
     
     public QuantumDot copyWithSizeChange(BigDecimal p_sizeMultiplier, Metamaterial p_sampleMaterial)
+    {
+        BigDecimal[] newSize = changedSize(p_sizeMultiplier);
+        
+        return new QuantumDot(m_positionX, m_positionY, newSize[0], newSize[1], p_sampleMaterial);
+    }
+    
+    /**
+     * Same as copyWithSizeChange(BigDecimal, Metamaterial), the levels being computed by the calculator with its caches
+     * @param p_sizeMultiplier
+     * @param p_calculator
+     * @return the QD at the same position, with its new size
+     */
+    public QuantumDot copyWithSizeChange(BigDecimal p_sizeMultiplier, SpectrumCalculator p_calculator)
+    {
+        BigDecimal[] newSize = changedSize(p_sizeMultiplier);
+        
+        return p_calculator.createQuantumDot(m_positionX, m_positionY, newSize[0], newSize[1]);
+    }
+    
+    /**
+     * The smallest of the radius and the height changes, the other one stays the same
+     * @return {radius, height}
+     */
+    private BigDecimal[] changedSize(BigDecimal p_sizeMultiplier)
     {
         BigDecimal newRadius = m_radius;
         BigDecimal newHeight = m_height;
@@ -198,7 +296,7 @@ public class QuantumDot
             newRadius = newRadius.multiply(p_sizeMultiplier);
         }
         
-        return new QuantumDot(m_positionX, m_positionY, newRadius, newHeight, p_sampleMaterial);
+        return new BigDecimal[] {newRadius, newHeight};
     }
     
     /**
@@ -212,120 +310,175 @@ public class QuantumDot
     private BigDecimal energyParameter (int index, BigDecimal size, BigDecimal bandOffset, BigDecimal effectiveMass)
     {
         double u02 = (effectiveMass.multiply(size.pow(2)).multiply(bandOffset).divide((new BigDecimal(2)).multiply(PhysicsVariables.hbar.pow(2)), MathContext.DECIMAL128)).doubleValue();
-        double vi = 0;
         
-        //vi has to be between i*pi/2 and (i+1)*v/2. Minimum Vi should also always be lower than u0
-        double minVi = index * Math.PI/2;
-        if (Math.pow(minVi, 2) >= u02)
+        return new BigDecimal(FiniteWellSolver.energyParameter(index, u02));
+    }
+    
+    /**
+     * energyParameter of the in-plane well, solved the first time an index is asked for
+     * @param p_knownParameters the parameters already solved, from index 0
+     * @param p_index at most the number of parameters already known
+     * @return 
+     */
+    private BigDecimal planeEnergyParameter (List<BigDecimal> p_knownParameters, int p_index, BigDecimal p_size, BigDecimal p_bandOffset, BigDecimal p_effectiveMass)
+    {
+        if (p_index == p_knownParameters.size())
         {
-//            System.err.println("Too high of a minVi");
-            vi = -1;
+            p_knownParameters.add(energyParameter(p_index, p_size, p_bandOffset, p_effectiveMass));
         }
-        else
+        
+        return p_knownParameters.get(p_index);
+    }
+    
+    /**
+     * 
+     * @return the levels computed in double precision, null if the QD was computed with BigDecimal
+     */
+    public QuantumDotSpectrum getSpectrum()
+    {
+        return m_spectrum;
+    }
+    
+    /**
+     * Draw the energy of a recombination, the level being chosen with its Fermi-Dirac recombination probability
+     * @param p_RNGenerator
+     * @return the recombination energy, in J
+     */
+    public double drawRecombinationEnergy (PcgRSFast p_RNGenerator)
+    {
+        return recombinationTable().sample(p_RNGenerator);
+    }
+    
+    /**
+     * Draw the energies of several recombinations at once
+     * @param p_RNGenerator
+     * @param p_energies filled with the recombination energies, in J
+     */
+    public void drawRecombinationEnergies (PcgRSFast p_RNGenerator, double[] p_energies)
+    {
+        recombinationTable().sample(p_RNGenerator, p_energies);
+    }
+    
+    /**
+     * Alias table of the level energies, weighted by the difference between consecutive cumulative probabilities
+     */
+    private AliasTable recombinationTable()
+    {
+        AliasTable table = m_recombinationTable;
+        
+        if (table == null)
         {
-            vi = minVi + Math.random()*Double.min(Math.PI/2, Math.sqrt(u02) - minVi);
-            
-            double maxVi = (index + 1) * Math.PI/2;
-            double error = 1E-14;
-            double epsilon = 1E-15;
-            int counter = 0;
+            if (m_spectrum != null ? m_spectrum.numberOfLevels() == 0 : m_recombinationProbaTree.isEmpty())
+            {
+                throw new IllegalStateException("The QD has no level to recombine from.");
+            }
             
-            do
+            double[] energies;
+            double[] weights;
+            if (m_spectrum != null)
             {
-                double derivative = derivativeFunction(index, vi);
-                if (Math.abs(derivative) <= epsilon)
-                {
-                    break;
-                }
-                
-                vi = Math.abs(vi - ((functionToOptimize(index, vi) - u02) / derivative));
-                
-                while (vi <= minVi || vi >= maxVi)
+                energies = new double[m_spectrum.numberOfLevels()];
+                weights = new double[energies.length];
+                for (int i = 0 ; i < energies.length ; i += 1)
                 {
-                    //vi has to be between i*pi/2 and (i+1)*pi/2
-                    if (vi < minVi)
-                    {
-                        vi = vi - (Math.PI/2) * (int) ((vi)/(Math.PI/2)) + minVi ;
-                    }
-                    else
-                    {
-                        if (vi > maxVi)
-                        {
-                            vi = vi - (Math.PI/2) * (int) ((vi)/(Math.PI/2)) + minVi;
-                        }
-                        else
-                        {
-                            vi *= 1.1;
-                        }
-                    }
+                    energies[i] = m_spectrum.getLevelEnergy(i);
+                    weights[i] = Double.max(0, m_spectrum.getCumulativeProbability(i) - (i == 0 ? 0 : m_spectrum.getCumulativeProbability(i - 1)));
                 }
-                
-                counter += 1;
-                if (counter%100 == 0)
+            }
+            else
+            {
+                energies = new double[m_recombinationProbaTree.size()];
+                weights = new double[energies.length];
+                double previousProba = 0;
+                int i = 0;
+                for (Double cumulativeProba: m_recombinationProbaTree)
                 {
-                    error *= 2;
+                    energies[i] = m_probabilitiesPerlevel.get(cumulativeProba).doubleValue();
+                    weights[i] = Double.max(0, cumulativeProba - previousProba);
+                    previousProba = cumulativeProba;
+                    i += 1;
                 }
-            }while(Math.abs(functionToOptimize(index, vi) - u02) >= error);
+            }
+            
+            //two threads can build the table at the same time, they build the same one
+            table = new AliasTable(energies, weights);
+            m_recombinationTable = table;
         }
         
-        return new BigDecimal(vi);
+        return table;
     }
     
-    private double functionToOptimize(int index, double v)
+    public BigDecimal getRadius()
     {
-        if (index % 2 == 0)
+        return m_radius;
+    }
+    
+    public ArrayList<BigDecimal> getStates()
+    {
+        ArrayList<BigDecimal> listOfStates = new ArrayList<>();
+        
+        if (m_spectrum != null)
         {
-            return Math.pow(v, 2) * (1 + Math.pow(Math.tan(v), 2));
+            for (int i = 0 ; i < m_spectrum.numberOfStates() ; i += 1)
+            {
+                listOfStates.add(new BigDecimal(m_spectrum.getStateEnergy(i)));
+            }
         }
         else
         {
-            return Math.pow(v, 2) * (1 + 1 / Math.pow(Math.tan(v), 2));
+            for (BigDecimal state: m_listOfStates)
+            {
+                listOfStates.add(new BigDecimal(state.toPlainString()));
+            }
         }
+        
+        return listOfStates;
     }
     
-    private double derivativeFunction(int index, double v)
+    /**
+     * 
+     * @return the energy of each state, in J, without going through BigDecimal when the QD was computed in double precision
+     */
+    public double[] getStateEnergies()
     {
-        double function = 0;
-        double modif = 0;
-        
-        if (index % 2 == 0)
+        if (m_spectrum != null)
         {
-            function = Math.tan(v);
-            modif = 1 / Math.pow(Math.cos(v), 2);
+            return m_spectrum.getStateEnergies();
         }
-        else
+        
+        double[] stateEnergies = new double[m_listOfStates.size()];
+        for (int i = 0 ; i < stateEnergies.length ; i += 1)
         {
-            function = 1 / Math.tan(v);
-            modif = 1 / Math.pow(Math.sin(v), 2);
+            stateEnergies[i] = m_listOfStates.get(i).doubleValue();
         }
         
-        return 2 * v * (1 + Math.pow(function, 2) + v * function * modif);
+        return stateEnergies;
     }
     
-    public BigDecimal getRadius()
+    /**
+     * 
+     * @return the number of states, without copying their energies
+     */
+    public int getNumberOfStates()
     {
-        return m_radius;
+        return m_spectrum != null ? m_spectrum.numberOfStates() : m_listOfStates.size();
     }
     
-    public ArrayList<BigDecimal> getStates()
+    public String scaledString(BigDecimal p_sizeScale)
     {
-        ArrayList<BigDecimal> listOfStates = new ArrayList<>();
-        
-        for (BigDecimal state: m_listOfStates)
-        {
-            listOfStates.add(new BigDecimal(state.toPlainString()));
-        }
-        
-        return listOfStates;
+        return scaledString(m_positionX, m_positionY, m_radius, m_height, p_sizeScale);
     }
     
-    public String scaledString(BigDecimal p_sizeScale)
+    /**
+     * Text line of a QD list, shared with the QDs of a QDEnsemble
+     */
+    static String scaledString(BigDecimal p_positionX, BigDecimal p_positionY, BigDecimal p_radius, BigDecimal p_height, BigDecimal p_sizeScale)
     {
         //new scale: number.scale() - number.precision() gives the number of digits after the point in scientific notation. Setting the scale to this + 11 gives us at least 10 digits after the points, which is enough
-        BigDecimal scaledX = (m_positionX.divide(p_sizeScale, MathContext.DECIMAL128)).setScale(m_positionX.scale() - m_positionX.precision() + 11, RoundingMode.HALF_UP).stripTrailingZeros();
-        BigDecimal scaledY = (m_positionY.divide(p_sizeScale, MathContext.DECIMAL128)).setScale(m_positionY.scale() - m_positionY.precision() + 11, RoundingMode.HALF_UP).stripTrailingZeros();
-        BigDecimal scaledRadius = (m_radius.divide(p_sizeScale, MathContext.DECIMAL128)).setScale(m_radius.scale() - m_radius.precision() + 11, RoundingMode.HALF_UP).stripTrailingZeros();
-        BigDecimal scaledHeight = (m_height.divide(p_sizeScale, MathContext.DECIMAL128)).setScale(m_height.scale() - m_height.precision() + 11, RoundingMode.HALF_UP).stripTrailingZeros();
+        BigDecimal scaledX = (p_positionX.divide(p_sizeScale, MathContext.DECIMAL128)).setScale(p_positionX.scale() - p_positionX.precision() + 11, RoundingMode.HALF_UP).stripTrailingZeros();
+        BigDecimal scaledY = (p_positionY.divide(p_sizeScale, MathContext.DECIMAL128)).setScale(p_positionY.scale() - p_positionY.precision() + 11, RoundingMode.HALF_UP).stripTrailingZeros();
+        BigDecimal scaledRadius = (p_radius.divide(p_sizeScale, MathContext.DECIMAL128)).setScale(p_radius.scale() - p_radius.precision() + 11, RoundingMode.HALF_UP).stripTrailingZeros();
+        BigDecimal scaledHeight = (p_height.divide(p_sizeScale, MathContext.DECIMAL128)).setScale(p_height.scale() - p_height.precision() + 11, RoundingMode.HALF_UP).stripTrailingZeros();
 //        BigDecimal scaledEnergy = (m_energyLevelPopulatedProbabilities.divide(p_energyScale, MathContext.DECIMAL128)).setScale(m_energyLevelPopulatedProbabilities.scale() - m_energyLevelPopulatedProbabilities.precision() + 11, RoundingMode.HALF_UP).stripTrailingZeros();
         
         return scaledX + "\t" + scaledY + "\t" + scaledRadius + "\t" + scaledHeight/* + "\t" + scaledEnergy*/;
@@ -334,7 +487,18 @@ public class QuantumDot
     @Override
     public String toString()
     {
-        return m_positionX + "\t" + m_positionY + "\t" + m_radius + "\t" + m_height + "\t" + m_probabilitiesPerlevel;
+        Map<Double, BigDecimal> probabilitiesPerLevel = m_probabilitiesPerlevel;
+        
+        if (probabilitiesPerLevel == null)
+        {
+            probabilitiesPerLevel = new HashMap<>();
+            for (int i = 0 ; i < m_spectrum.numberOfLevels() ; i += 1)
+            {
+                probabilitiesPerLevel.put(m_spectrum.getCumulativeProbability(i), new BigDecimal(m_spectrum.getLevelEnergy(i)));
+            }
+        }
+        
+        return m_positionX + "\t" + m_positionY + "\t" + m_radius + "\t" + m_height + "\t" + probabilitiesPerLevel;
     }
     
     public BigDecimal getDistance (BigDecimal p_positionX, BigDecimal p_positionY)
@@ -354,6 +518,11 @@ public class QuantumDot
         return distance;
     }
     
+    public BigDecimal getHeight()
+    {
+        return m_height;
+    }
+    
     public BigDecimal getX()
     {
         return m_positionX;
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2021 audreyazura
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dosgenerator.generator;
+
+/**
+ * Energy levels of a QD computed in double precision. Every energy is a total recombination energy, in J.
+ * The energies don't depend on the temperature, only the level probabilities do. Knowing the recombination offset (band gap and hole confinement), the probabilities can be computed again for another temperature or chemical potential, see ThermalReweighting.
+ * @author audreyazura
+ */
+public class QuantumDotSpectrum
+{
+    private final double[] m_stateEnergies;
+    private final double[] m_levelEnergies;
+    private final double[] m_cumulativeProbabilities;
+    private final double m_recombinationOffset;
+
+    /**
+     *
+     * @param p_stateEnergies every state, each level appearing once per spin
+     * @param p_levelEnergies the distinct levels, sorted in increasing order
+     * @param p_cumulativeProbabilities the cumulative recombination probability of each level, the last one being 1
+     */
+    public QuantumDotSpectrum (double[] p_stateEnergies, double[] p_levelEnergies, double[] p_cumulativeProbabilities)
+    {
+        this(p_stateEnergies, p_levelEnergies, p_cumulativeProbabilities, Double.NaN);
+    }
+    
+    /**
+     *
+     * @param p_stateEnergies every state, each level appearing once per spin
+     * @param p_levelEnergies the distinct levels, sorted in increasing order
+     * @param p_cumulativeProbabilities the cumulative recombination probability of each level, the last one being 1
+     * @param p_recombinationOffset the part of the recombination energies that isn't electron confinement: QD band gap and hole confinement energy, in J. NaN if it isn't known
+     */
+    public QuantumDotSpectrum (double[] p_stateEnergies, double[] p_levelEnergies, double[] p_cumulativeProbabilities, double p_recombinationOffset)
+    {
+        if (p_levelEnergies.length != p_cumulativeProbabilities.length)
+        {
+            throw new IllegalArgumentException("Each level needs a probability.");
+        }
+
+        m_stateEnergies = p_stateEnergies;
+        m_levelEnergies = p_levelEnergies;
+        m_cumulativeProbabilities = p_cumulativeProbabilities;
+        m_recombinationOffset = p_recombinationOffset;
+    }
+
+    public int numberOfStates()
+    {
+        return m_stateEnergies.length;
+    }
+
+    public int numberOfLevels()
+    {
+        return m_levelEnergies.length;
+    }
+
+    public double getStateEnergy(int p_index)
+    {
+        return m_stateEnergies[p_index];
+    }
+
+    public double getLevelEnergy(int p_index)
+    {
+        return m_levelEnergies[p_index];
+    }
+
+    public double getCumulativeProbability(int p_index)
+    {
+        return m_cumulativeProbabilities[p_index];
+    }
+
+    public double[] getStateEnergies()
+    {
+        return m_stateEnergies.clone();
+    }
+
+    /**
+     * 
+     * @return the QD band gap plus the hole confinement energy, in J. NaN if it isn't known
+     */
+    public double getRecombinationOffset()
+    {
+        return m_recombinationOffset;
+    }
+    
+    /**
+     * 
+     * @param p_temperature in K
+     * @param p_chemicalPotential the electron chemical potential, from the QD conduction band edge, in J
+     * @return the same levels, with their probabilities at this temperature and chemical potential
+     */
+    public QuantumDotSpectrum reweighted (double p_temperature, double p_chemicalPotential)
+    {
+        if (Double.isNaN(m_recombinationOffset))
+        {
+            throw new IllegalStateException("The recombination offset of the levels is needed to compute their probabilities again.");
+        }
+        
+        double[] confinementEnergies = new double[m_levelEnergies.length];
+        for (int i = 0 ; i < confinementEnergies.length ; i += 1)
+        {
+            confinementEnergies[i] = m_levelEnergies[i] - m_recombinationOffset;
+        }
+        
+        return new QuantumDotSpectrum(m_stateEnergies, m_levelEnergies, ThermalReweighting.cumulativeProbabilities(confinementEnergies, ThermalReweighting.thermalEnergy(p_temperature), p_chemicalPotential), m_recombinationOffset);
+    }
+}
@@ -0,0 +1,377 @@
+/*
+ * Copyright (C) 2021 audreyazura
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dosgenerator.generator;
+
+import albanlafuente.physicstools.math.ContinuousFunction;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.BitSet;
+import java.util.zip.DataFormatException;
+
+/**
+ * ContinuousFunction whose values are read from a table on a uniform grid, in double precision, instead of being searched among the BigDecimal points.
+ * The grid spans from the second to the second to last point, the first and last segments being interpolated directly, so that a long constant tail doesn't dilute the grid. The value at a position is interpolated linearly between the two nodes around it.
+ * The function and the table being both linear between their points, they can only differ at the original points inside a cell. The grid is refined until the table is within the relative tolerance at every original point, or the maximum number of cells is reached. The cells still out of the tolerance, around jumps for instance, are interpolated on the original points, so that the whole function stays within the tolerance at the original points.
+ * The arithmetic operations of ContinuousFunction keep using the original points.
+ * @author audreyazura
+ */
+public class ResampledFunction extends ContinuousFunction
+{
+    public static final double DEFAULT_RELATIVE_TOLERANCE = 1E-9;
+    public static final int DEFAULT_MAXIMUM_CELLS = 1 << 14;
+
+    private static final int MAGIC = 0x52534654;
+    private static final int VERSION = 1;
+
+    private final double[] m_pointPositions;
+    private final double[] m_pointValues;
+
+    private final double m_gridStart;
+    private final double m_gridEnd;
+    private final int m_nbCells;
+    private final double m_inverseStep;
+    private final double[] m_nodeValues;
+    //cells interpolated on the original points, the table not being precise enough there
+    private final BitSet m_pointCells;
+    private final double m_errorBound;
+
+    /**
+     *
+     * @param p_function the function to resample, with at least two points
+     * @param p_relativeTolerance the maximum relative difference between the table and the function at the original points
+     * @param p_maximumCells the maximum number of cells of the grid
+     */
+    public ResampledFunction (ContinuousFunction p_function, double p_relativeTolerance, int p_maximumCells)
+    {
+        super(p_function);
+
+        if (!(p_relativeTolerance >= 0) || p_maximumCells <= 0)
+        {
+            throw new IllegalArgumentException("The tolerance can't be negative and the maximum number of cells has to be positive.");
+        }
+
+        m_pointPositions = new double[m_abscissa.size()];
+        m_pointValues = new double[m_abscissa.size()];
+        fillPoints();
+
+        int nbPoints = m_pointPositions.length;
+        m_gridStart = m_pointPositions[nbPoints >= 4 ? 1 : 0];
+        m_gridEnd = m_pointPositions[nbPoints >= 4 ? nbPoints - 2 : nbPoints - 1];
+
+        //a cell per segment at least, doubled until every original point is within the tolerance
+        int nbCells = Integer.min(Integer.highestOneBit(Integer.max(1, nbPoints - 1)), Integer.highestOneBit(p_maximumCells));
+        while (true)
+        {
+            double[] nodeValues = nodeValues(nbCells);
+            BitSet pointCells = new BitSet(nbCells);
+            double errorBound = checkPoints(nbCells, nodeValues, p_relativeTolerance, pointCells);
+
+            if (pointCells.isEmpty() || 2L * nbCells > p_maximumCells)
+            {
+                m_nbCells = nbCells;
+                m_inverseStep = nbCells / (m_gridEnd - m_gridStart);
+                m_nodeValues = nodeValues;
+                m_pointCells = pointCells;
+                m_errorBound = errorBound;
+                break;
+            }
+
+            nbCells *= 2;
+        }
+    }
+
+    private ResampledFunction (ContinuousFunction p_function, double p_gridStart, double p_gridEnd, double[] p_nodeValues, BitSet p_pointCells, double p_errorBound)
+    {
+        super(p_function);
+
+        m_pointPositions = new double[m_abscissa.size()];
+        m_pointValues = new double[m_abscissa.size()];
+        fillPoints();
+
+        m_gridStart = p_gridStart;
+        m_gridEnd = p_gridEnd;
+        m_nbCells = p_nodeValues.length - 1;
+        m_inverseStep = m_nbCells / (m_gridEnd - m_gridStart);
+        m_nodeValues = p_nodeValues;
+        m_pointCells = p_pointCells;
+        m_errorBound = p_errorBound;
+    }
+
+    private void fillPoints()
+    {
+        if (m_pointPositions.length < 2)
+        {
+            throw new IllegalArgumentException("At least two points are needed to resample a function.");
+        }
+
+        int i = 0;
+        for (BigDecimal position: m_abscissa)
+        {
+            m_pointPositions[i] = position.doubleValue();
+            m_pointValues[i] = m_values.get(position).doubleValue();
+            i += 1;
+        }
+    }
+
+    /**
+     *
+     * @param p_position
+     * @return the value of the function, in the units of the ordinate of the file
+     */
+    public double valueAt (double p_position)
+    {
+        int last = m_pointPositions.length - 1;
+        if (!(p_position >= m_pointPositions[0] && p_position <= m_pointPositions[last]))
+        {
+            throw new IndexOutOfBoundsException("No field value for position:" + p_position);
+        }
+
+        if (p_position < m_gridStart)
+        {
+            return segmentValue(0, p_position);
+        }
+        if (p_position >= m_gridEnd)
+        {
+            return segmentValue(last - 1, p_position);
+        }
+
+        double gridPosition = (p_position - m_gridStart) * m_inverseStep;
+        int cell = Integer.min((int) gridPosition, m_nbCells - 1);
+        if (m_pointCells.get(cell))
+        {
+            return pointValue(p_position);
+        }
+
+        return m_nodeValues[cell] + (gridPosition - cell) * (m_nodeValues[cell + 1] - m_nodeValues[cell]);
+    }
+
+    /**
+     * The value read from the table, in double precision
+     * @param p_position
+     * @return
+     */
+    @Override
+    public BigDecimal getValueAtPosition (BigDecimal p_position)
+    {
+        return BigDecimal.valueOf(valueAt(p_position.doubleValue()));
+    }
+
+    /**
+     *
+     * @return the largest relative difference between the table and the function at the original points, the cells interpolated on the points being exact
+     */
+    public double getErrorBound()
+    {
+        return m_errorBound;
+    }
+
+    public int getNumberOfCells()
+    {
+        return m_nbCells;
+    }
+
+    /**
+     *
+     * @return the number of cells interpolated on the original points, where the table wasn't within the tolerance
+     */
+    public int getNumberOfPointCells()
+    {
+        return m_pointCells.cardinality();
+    }
+
+    /**
+     * Linear interpolation on the original points, in double precision
+     */
+    private double pointValue (double p_position)
+    {
+        //last point at or before the position
+        int segment = 0;
+        int after = m_pointPositions.length - 1;
+        while (after - segment > 1)
+        {
+            int middle = (segment + after) >>> 1;
+            if (m_pointPositions[middle] <= p_position)
+            {
+                segment = middle;
+            }
+            else
+            {
+                after = middle;
+            }
+        }
+
+        return segmentValue(segment, p_position);
+    }
+
+    private double segmentValue (int p_segment, double p_position)
+    {
+        double slope = (m_pointValues[p_segment + 1] - m_pointValues[p_segment]) / (m_pointPositions[p_segment + 1] - m_pointPositions[p_segment]);
+
+        return m_pointValues[p_segment] + (p_position - m_pointPositions[p_segment]) * slope;
+    }
+
+    private double[] nodeValues (int p_nbCells)
+    {
+        double step = (m_gridEnd - m_gridStart) / p_nbCells;
+        double[] nodeValues = new double[p_nbCells + 1];
+
+        for (int k = 0 ; k < p_nbCells ; k += 1)
+        {
+            nodeValues[k] = pointValue(m_gridStart + k * step);
+        }
+        nodeValues[p_nbCells] = pointValue(m_gridEnd);
+
+        return nodeValues;
+    }
+
+    /**
+     * Compare the table with the function at the original points inside the grid
+     * @param p_pointCells receives the cells where the table isn't within the tolerance
+     * @return the largest relative difference in the other cells
+     */
+    private double checkPoints (int p_nbCells, double[] p_nodeValues, double p_relativeTolerance, BitSet p_pointCells)
+    {
+        double inverseStep = p_nbCells / (m_gridEnd - m_gridStart);
+        double[] differences = new double[m_pointPositions.length];
+        int[] cells = new int[m_pointPositions.length];
+
+        for (int i = 0 ; i < m_pointPositions.length ; i += 1)
+        {
+            cells[i] = -1;
+            if (m_pointPositions[i] < m_gridStart || m_pointPositions[i] >= m_gridEnd)
+            {
+                continue;
+            }
+
+            double gridPosition = (m_pointPositions[i] - m_gridStart) * inverseStep;
+            int cell = Integer.min((int) gridPosition, p_nbCells - 1);
+            double tableValue = p_nodeValues[cell] + (gridPosition - cell) * (p_nodeValues[cell + 1] - p_nodeValues[cell]);
+            double difference = Math.abs(tableValue - m_pointValues[i]);
+
+            cells[i] = cell;
+            differences[i] = difference == 0 ? 0 : difference / Math.abs(m_pointValues[i]);
+            if (!(differences[i] <= p_relativeTolerance))
+            {
+                p_pointCells.set(cell);
+            }
+        }
+
+        double errorBound = 0;
+        for (int i = 0 ; i < m_pointPositions.length ; i += 1)
+        {
+            if (cells[i] >= 0 && !p_pointCells.get(cells[i]))
+            {
+                errorBound = Double.max(errorBound, differences[i]);
+            }
+        }
+
+        return errorBound;
+    }
+
+    /**
+     * Read a table saved by save
+     * @param p_file
+     * @param p_key the description of the source and resampling parameters the table has to match
+     * @param p_function the function the table was computed from
+     * @return the resampled function
+     * @throws IOException
+     * @throws DataFormatException if the file is corrupted or holds the table of another function
+     */
+    public static ResampledFunction load (Path p_file, String p_key, ContinuousFunction p_function) throws IOException, DataFormatException
+    {
+        DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(p_file)));
+        try
+        {
+            if (input.readInt() != MAGIC || input.readInt() != VERSION || !input.readUTF().equals(p_key))
+            {
+                throw new DataFormatException(p_file + " doesn't hold the table of this function.");
+            }
+
+            double gridStart = input.readDouble();
+            double gridEnd = input.readDouble();
+            double errorBound = input.readDouble();
+            int nbCells = input.readInt();
+            if (nbCells <= 0 || !(gridEnd > gridStart))
+            {
+                throw new DataFormatException(p_file + " is corrupted.");
+            }
+
+            double[] nodeValues = new double[nbCells + 1];
+            for (int k = 0 ; k <= nbCells ; k += 1)
+            {
+                nodeValues[k] = input.readDouble();
+            }
+            long[] pointCells = new long[input.readInt()];
+            for (int k = 0 ; k < pointCells.length ; k += 1)
+            {
+                pointCells[k] = input.readLong();
+            }
+
+            return new ResampledFunction(p_function, gridStart, gridEnd, nodeValues, BitSet.valueOf(pointCells), errorBound);
+        }
+        finally
+        {
+            input.close();
+        }
+    }
+
+    /**
+     * Save the table, the file being replaced only once completely written
+     * @param p_file
+     * @param p_key the description of the source and resampling parameters, checked by load
+     * @throws IOException
+     */
+    public void save (Path p_file, String p_key) throws IOException
+    {
+        Path temporaryFile = p_file.resolveSibling(p_file.getFileName() + ".tmp");
+
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporaryFile)));
+        try
+        {
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeUTF(p_key);
+            output.writeDouble(m_gridStart);
+            output.writeDouble(m_gridEnd);
+            output.writeDouble(m_errorBound);
+            output.writeInt(m_nbCells);
+            for (int k = 0 ; k <= m_nbCells ; k += 1)
+            {
+                output.writeDouble(m_nodeValues[k]);
+            }
+            long[] pointCells = m_pointCells.toLongArray();
+            output.writeInt(pointCells.length);
+            for (int k = 0 ; k < pointCells.length ; k += 1)
+            {
+                output.writeLong(pointCells[k]);
+            }
+        }
+        finally
+        {
+            output.close();
+        }
+
+        Files.move(temporaryFile, p_file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2021 audreyazura
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dosgenerator.generator;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Counters and timers of a simulation run, exported as JSON or CSV at the end of the run so that jobs can be sized.
+ * The time of each phase is measured between startPhase calls. The states per QD are counted as the QDs are added to the sample.
+ * Progress is printed at most once per reporting interval, as printing every QD costs more than the QD itself once the levels are cached.
+ * @author audreyazura
+ */
+public class RunMetrics
+{
+    public static final long DEFAULT_PROGRESS_INTERVAL = 2000000000L;
+    
+    private final long m_progressInterval;
+    private final Map<String, Long> m_counters = new LinkedHashMap<>();
+    private final Map<String, Long> m_phaseTimes = new LinkedHashMap<>();
+    
+    private String m_currentPhase = null;
+    private long m_phaseStart;
+    private long m_lastProgress;
+    
+    private long m_nbQDs = 0;
+    private long m_totalStates = 0;
+    private long m_minimumStates = Long.MAX_VALUE;
+    private long m_maximumStates = 0;
+    
+    public RunMetrics ()
+    {
+        this(DEFAULT_PROGRESS_INTERVAL);
+    }
+    
+    /**
+     * 
+     * @param p_progressInterval the minimum time between two progress reports, in ns
+     */
+    public RunMetrics (long p_progressInterval)
+    {
+        m_progressInterval = p_progressInterval;
+        m_lastProgress = System.nanoTime();
+    }
+    
+    /**
+     * End the current phase, if any, and start timing a new one. A phase started several times accumulates its times
+     * @param p_phase 
+     */
+    public synchronized void startPhase (String p_phase)
+    {
+        endPhase();
+        m_currentPhase = p_phase;
+        m_phaseStart = System.nanoTime();
+    }
+    
+    public synchronized void endPhase()
+    {
+        if (m_currentPhase != null)
+        {
+            m_phaseTimes.merge(m_currentPhase, System.nanoTime() - m_phaseStart, Long::sum);
+            m_currentPhase = null;
+        }
+    }
+    
+    public synchronized void add (String p_counter, long p_value)
+    {
+        m_counters.merge(p_counter, p_value, Long::sum);
+    }
+    
+    public synchronized void set (String p_counter, long p_value)
+    {
+        m_counters.put(p_counter, p_value);
+    }
+    
+    public synchronized long getCounter (String p_counter)
+    {
+        return m_counters.getOrDefault(p_counter, 0L);
+    }
+    
+    /**
+     * 
+     * @param p_phase
+     * @return the time spent in the phase, in ns
+     */
+    public synchronized long getPhaseTime (String p_phase)
+    {
+        return m_phaseTimes.getOrDefault(p_phase, 0L);
+    }
+    
+    /**
+     * Count the states of a QD added to the sample
+     * @param p_nbStates 
+     */
+    public synchronized void recordQD (int p_nbStates)
+    {
+        m_nbQDs += 1;
+        m_totalStates += p_nbStates;
+        m_minimumStates = Long.min(m_minimumStates, p_nbStates);
+        m_maximumStates = Long.max(m_maximumStates, p_nbStates);
+    }
+    
+    /**
+     * Print the progress of a task if the last report is old enough, or if the task is over. It can be called from several threads
+     * @param p_task
+     * @param p_done
+     * @param p_total
+     * @param p_details gives the text appended to the report, only called when the report is printed
+     */
+    public synchronized void reportProgress (String p_task, long p_done, long p_total, Supplier<String> p_details)
+    {
+        long now = System.nanoTime();
+        
+        if (now - m_lastProgress >= m_progressInterval || p_done == p_total)
+        {
+            m_lastProgress = now;
+            System.out.println(p_task + ": " + p_done + "/" + p_total + " (" + p_details.get() + ")");
+        }
+    }
+    
+    /**
+     * 
+     * @return every counter, the QD state statistics, then the phase times in s, in the order they were first set
+     */
+    public synchronized Map<String, Number> summary()
+    {
+        Map<String, Number> summary = new LinkedHashMap<>(m_counters);
+        
+        summary.put("qds", m_nbQDs);
+        summary.put("states_total", m_totalStates);
+        summary.put("states_per_qd_min", m_nbQDs == 0 ? 0 : m_minimumStates);
+        summary.put("states_per_qd_max", m_maximumStates);
+        summary.put("states_per_qd_mean", m_nbQDs == 0 ? 0 : (double) m_totalStates / m_nbQDs);
+        
+        long totalTime = 0;
+        for (Map.Entry<String, Long> phase: m_phaseTimes.entrySet())
+        {
+            summary.put("time_" + phase.getKey() + "_s", phase.getValue() / 1E9);
+            totalTime += phase.getValue();
+        }
+        summary.put("time_total_s", totalTime / 1E9);
+        
+        return summary;
+    }
+    
+    public void writeJSON (Path p_file) throws IOException
+    {
+        BufferedWriter metricsWriter = new BufferedWriter(new FileWriter(p_file.toString()));
+        
+        try
+        {
+            metricsWriter.write("{");
+            boolean first = true;
+            for (Map.Entry<String, Number> metric: summary().entrySet())
+            {
+                metricsWriter.write(first ? "" : ",");
+                metricsWriter.newLine();
+                metricsWriter.write("  \"" + metric.getKey() + "\": " + metric.getValue());
+                first = false;
+            }
+            metricsWriter.newLine();
+            metricsWriter.write("}");
+            metricsWriter.newLine();
+        }
+        finally
+        {
+            metricsWriter.close();
+        }
+    }
+    
+    public void writeCSV (Path p_file) throws IOException
+    {
+        BufferedWriter metricsWriter = new BufferedWriter(new FileWriter(p_file.toString()));
+        
+        try
+        {
+            metricsWriter.write("metric,value");
+            for (Map.Entry<String, Number> metric: summary().entrySet())
+            {
+                metricsWriter.newLine();
+                metricsWriter.write(metric.getKey() + "," + metric.getValue());
+            }
+            metricsWriter.newLine();
+        }
+        finally
+        {
+            metricsWriter.close();
+        }
+    }
+}
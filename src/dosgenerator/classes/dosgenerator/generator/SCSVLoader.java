@@ -21,22 +21,84 @@ import albanlafuente.physicstools.math.ContinuousFunctionFileLoader;
 import albanlafuente.physicstools.physics.PhysicsVariables;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import java.util.zip.DataFormatException;
 
 /**
- *
+ * Loader of the scsv function files (semicolon separated, with a header line).
+ * In resampling mode, the functions are turned into ResampledFunction, whose table is saved next to the function file ([function file].table) and read back as long as the file and the resampling parameters don't change.
  * @author audreyazura
  */
 public class SCSVLoader implements ContinuousFunctionFileLoader
 {
+    private final boolean m_resampling;
+    private final double m_relativeTolerance;
+    private final int m_maximumCells;
+    
     public SCSVLoader ()
     {
+        m_resampling = false;
+        m_relativeTolerance = 0;
+        m_maximumCells = 0;
+    }
+    
+    /**
+     * Loader in resampling mode
+     * @param p_relativeTolerance the maximum relative difference between the tables and the functions at the points of the files
+     * @param p_maximumCells the maximum number of cells of a table
+     */
+    public SCSVLoader (double p_relativeTolerance, int p_maximumCells)
+    {
+        if (!(p_relativeTolerance >= 0) || p_maximumCells <= 0)
+        {
+            throw new IllegalArgumentException("The tolerance can't be negative and the maximum number of cells has to be positive.");
+        }
         
+        m_resampling = true;
+        m_relativeTolerance = p_relativeTolerance;
+        m_maximumCells = p_maximumCells;
     }
     
     @Override
     public ContinuousFunction loadFunction (File p_functionFile, PhysicsVariables.UnitsPrefix p_abscissaUnit, PhysicsVariables.UnitsPrefix p_ordinateUnit) throws DataFormatException, IOException, ArrayIndexOutOfBoundsException
     {
-        return new ContinuousFunction(p_functionFile, p_abscissaUnit.getMultiplier(), p_ordinateUnit.getMultiplier(), "scsv", ";", 2, new int[] {0,1});
+        ContinuousFunction function = new ContinuousFunction(p_functionFile, p_abscissaUnit.getMultiplier(), p_ordinateUnit.getMultiplier(), "scsv", ";", 2, new int[] {0,1});
+        
+        if (!m_resampling)
+        {
+            return function;
+        }
+        
+        Path tableFile = Paths.get(p_functionFile.getPath() + ".table");
+        String key = "source=" + SpectrumCache.digest(Files.readAllBytes(p_functionFile.toPath())) + ";abscissa=" + p_abscissaUnit.getMultiplier() + ";ordinate=" + p_ordinateUnit.getMultiplier()
+                + ";tolerance=" + m_relativeTolerance + ";maximumCells=" + m_maximumCells;
+        
+        if (Files.exists(tableFile))
+        {
+            try
+            {
+                return ResampledFunction.load(tableFile, key, function);
+            }
+            catch (DataFormatException|IOException ex)
+            {
+                //table of an older version of the file or of other parameters, computed again
+            }
+        }
+        
+        ResampledFunction resampledFunction = new ResampledFunction(function, m_relativeTolerance, m_maximumCells);
+        try
+        {
+            resampledFunction.save(tableFile, key);
+        }
+        catch (IOException ex)
+        {
+            Logger.getLogger(SCSVLoader.class.getName()).log(Level.WARNING, "The table of " + p_functionFile + " couldn't be saved, it will be computed again at the next loading.", ex);
+        }
+        
+        return resampledFunction;
     }
 }
@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2021 audreyazura
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dosgenerator.generator;
+
+import com.github.kilianB.pcg.fast.PcgRSFast;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * Cells of the sample where no new QD can be placed any more, so that candidates are only drawn where they can still be accepted (random sequential adsorption).
+ * A cell is marked saturated once that many candidates centered in it were rejected in a row. A cell still having a free fraction f of its area is wrongly marked with a probability (1-f)^SATURATION_REJECTIONS.
+ * The positions are drawn uniformly on the unsaturated cells: by redrawing the positions falling in a saturated cell while most of the sample is free, then by drawing in the list of the unsaturated cells.
+ * All values are in meters.
+ * @author audreyazura
+ */
+public class SaturationMap
+{
+    public static final int SATURATION_REJECTIONS = 100;
+    //the free cells are only listed if they fit in an array, the positions being redrawn otherwise
+    private static final long MAXIMUM_FREE_CELLS = Integer.MAX_VALUE - 8;
+    
+    private final double m_sampleXSize;
+    private final double m_sampleYSize;
+    private final double m_cellSize;
+    private final long m_nbCellsX;
+    private final long m_nbCellsY;
+    private final long m_nbCells;
+    
+    private final HashMap<Long, Integer> m_rejections = new HashMap<>();
+    private final HashSet<Long> m_saturatedCells = new HashSet<>();
+    
+    //the unsaturated cells, built once most of the sample is saturated. A cell is removed by moving the last one at its place
+    private long[] m_freeCells = null;
+    private HashMap<Long, Integer> m_freeCellPositions = null;
+    private int m_nbFreeCells;
+    
+    /**
+     * 
+     * @param p_sampleXSize
+     * @param p_sampleYSize
+     * @param p_cellSize the side of the cells, about the size of a QD
+     */
+    public SaturationMap (double p_sampleXSize, double p_sampleYSize, double p_cellSize)
+    {
+        if (p_sampleXSize <= 0 || p_sampleYSize <= 0 || p_cellSize <= 0)
+        {
+            throw new IllegalArgumentException("The sample and cell sizes have to be positive.");
+        }
+        
+        m_sampleXSize = p_sampleXSize;
+        m_sampleYSize = p_sampleYSize;
+        m_cellSize = p_cellSize;
+        m_nbCellsX = (long) Math.ceil(p_sampleXSize / p_cellSize);
+        m_nbCellsY = (long) Math.ceil(p_sampleYSize / p_cellSize);
+        m_nbCells = m_nbCellsX * m_nbCellsY;
+    }
+    
+    /**
+     * Draw a position on the unsaturated part of the sample. While no cell is saturated, the drawn fractions are the first two doubles of the generator
+     * @param p_RNGenerator
+     * @return the position as fractions of the sample sizes, {x / sampleXSize, y / sampleYSize}
+     */
+    public double[] drawPosition (PcgRSFast p_RNGenerator)
+    {
+        if (isFull())
+        {
+            throw new IllegalStateException("Every cell of the sample is saturated.");
+        }
+        
+        double xFraction, yFraction;
+        
+        if (m_freeCells == null)
+        {
+            do
+            {
+                xFraction = p_RNGenerator.nextDouble();
+                yFraction = p_RNGenerator.nextDouble();
+            }while (m_saturatedCells.contains(cell(xFraction * m_sampleXSize, yFraction * m_sampleYSize)));
+        }
+        else
+        {
+            do
+            {
+                long freeCell = m_freeCells[(int) (p_RNGenerator.nextDouble() * m_nbFreeCells)];
+                xFraction = (freeCell / m_nbCellsY + p_RNGenerator.nextDouble()) * m_cellSize / m_sampleXSize;
+                yFraction = (freeCell % m_nbCellsY + p_RNGenerator.nextDouble()) * m_cellSize / m_sampleYSize;
+            }while (xFraction >= 1 || yFraction >= 1);
+        }
+        
+        return new double[] {xFraction, yFraction};
+    }
+    
+    /**
+     * A QD was placed at this position, the rejections of its cell start over
+     * @param p_x
+     * @param p_y 
+     */
+    public void recordAcceptance (double p_x, double p_y)
+    {
+        m_rejections.remove(cell(p_x, p_y));
+    }
+    
+    /**
+     * A candidate centered at this position overlapped a placed QD
+     * @param p_x
+     * @param p_y 
+     */
+    public void recordRejection (double p_x, double p_y)
+    {
+        long cell = cell(p_x, p_y);
+        int rejections = m_rejections.merge(cell, 1, Integer::sum);
+        
+        if (rejections >= SATURATION_REJECTIONS)
+        {
+            m_rejections.remove(cell);
+            saturate(cell);
+        }
+    }
+    
+    public boolean isFull()
+    {
+        return m_saturatedCells.size() == m_nbCells;
+    }
+    
+    public long getNumberOfCells()
+    {
+        return m_nbCells;
+    }
+    
+    public int getNumberOfSaturatedCells()
+    {
+        return m_saturatedCells.size();
+    }
+    
+    private void saturate (long p_cell)
+    {
+        m_saturatedCells.add(p_cell);
+        
+        if (m_freeCells != null)
+        {
+            int position = m_freeCellPositions.remove(p_cell);
+            m_nbFreeCells -= 1;
+            if (position != m_nbFreeCells)
+            {
+                m_freeCells[position] = m_freeCells[m_nbFreeCells];
+                m_freeCellPositions.put(m_freeCells[position], position);
+            }
+        }
+        else if (2L * m_saturatedCells.size() > m_nbCells && m_nbCells - m_saturatedCells.size() <= MAXIMUM_FREE_CELLS)
+        {
+            //the redrawing would reject more than half of the positions, the free cells are few enough to be listed
+            m_nbFreeCells = (int) (m_nbCells - m_saturatedCells.size());
+            m_freeCells = new long[m_nbFreeCells];
+            m_freeCellPositions = new HashMap<>();
+            int position = 0;
+            for (long cell = 0 ; cell < m_nbCells ; cell += 1)
+            {
+                if (!m_saturatedCells.contains(cell))
+                {
+                    m_freeCells[position] = cell;
+                    m_freeCellPositions.put(cell, position);
+                    position += 1;
+                }
+            }
+        }
+    }
+    
+    private long cell (double p_x, double p_y)
+    {
+        long cellX = Long.min((long) (p_x / m_cellSize), m_nbCellsX - 1);
+        long cellY = Long.min((long) (p_y / m_cellSize), m_nbCellsY - 1);
+        
+        return cellX * m_nbCellsY + cellY;
+    }
+}
@@ -0,0 +1,378 @@
+/*
+ * Copyright (C) 2021 audreyazura
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dosgenerator.generator;
+
+import albanlafuente.physicstools.physics.PhysicsVariables;
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Parameters of one DOS simulation, read from properties. Every field except the output directory has a default, being the values the generator used to have written in.
+ * Field names:
+ *	Output directory: output_directory
+ *	Spectrum cache, kept between runs in double precision: spectrum_cache_capacity (number of spectra kept, 0 for no cache), spectrum_cache_quantum_nm (step on which radii and heights are rounded), spectrum_cache_directory (default: [output_directory]/.spectra)
+ *		The cache only pays off when the same rounded geometries come back, as in reloaded or grown samples or with a coarse quantum. A coarser quantum gives more hits but moves the levels of every QD to those of its rounded geometry, while a fresh sample of a continuous distribution with a fine quantum hardly reuses anything and pays the storing and saving of every spectrum
+ *	Material files: materials (comma separated)
+ *	Metamaterial file: metamaterial
+ *	Computation of the levels: computation (bigdecimal or double)
+ *	Solver of the 1D wells in double precision: well_solver (newton or tabulated)
+ *	Number of electron levels kept per QD in double precision, from the lowest one: max_levels (0 for every bound level)
+ *	Step on which the 1D well widths are rounded in double precision, so that QDs of close sizes share their well solutions: well_width_quantum_nm (0 for the exact widths)
+ *	Number of QDs: qd_count
+ *	Sample size in cm: sample_size_x_cm, sample_size_y_cm
+ *	QD radius distribution in nm: radius_mean_nm, radius_deviation_nm
+ *	QD height correlation: height_ratio, height_offset_nm, height_deviation_nm
+ *	DOS bin width in eV: bin_width_eV
+ *	Homogeneous broadening: broadening_kernel (gaussian, lorentzian or voigt), broadening_widths_meV (comma separated, empty for none)
+ *	Thermal emission spectra: emission_points (comma separated temperature:chemical potential points, in K and eV, empty for none)
+ *	Size evolution: evolution_steps (0 for none), evolution_size_multiplier (applied to every QD at each step)
+ *	Tiled generation, for samples too big to be kept in memory: tile_size_cm (absent for a generation in one piece)
+ *	Master seed: seed (drawn at random if absent)
+ *	Checkpoints of the generation, so that an interrupted run can be resumed: checkpoint_interval_s (seconds between two checkpoints, 0 for none)
+ *	Continuation of an interrupted generation from its checkpoint: resume (true or false, set by the --resume option of DOSGenerator)
+ *	Number of threads: threads (default: number of processors)
+ *	Text export of the QD list: export_text_qd_list (true or false)
+ *	Picture of the DOS: plot_format (png, svg or none)
+ * @author audreyazura
+ */
+public class SimulationParameters
+{
+    private final Properties m_properties;
+    
+    private final Path m_outputDirectory;
+    private final Path m_spectrumCacheDirectory;
+    private final int m_spectrumCacheCapacity;
+    private final double m_spectrumCacheQuantum;
+    private final List<String> m_materialFiles;
+    private final String m_metamaterialFile;
+    private final SpectrumCalculator.ComputationMode m_mode;
+    private final FiniteWellSolver.Method m_wellSolver;
+    private final int m_maximumLevels;
+    private final double m_wellWidthQuantum;
+    private final int m_totalWishedQDs;
+    private final BigDecimal m_sampleXSize;
+    private final BigDecimal m_sampleYSize;
+    private final QDSizeDistribution m_sizeDistribution;
+    private final BigDecimal m_binWidth;
+    private final DOSBroadening.Kernel m_broadeningKernel;
+    private final String[] m_broadeningWidthsmeV;
+    private final String[] m_emissionTemperaturesK;
+    private final String[] m_emissionChemicalPotentialseV;
+    private final int m_evolutionSteps;
+    private final double m_evolutionSizeMultiplier;
+    private final BigDecimal m_tileSize;
+    private final Long m_seed;
+    private final double m_checkpointInterval;
+    private final boolean m_resume;
+    private final int m_nbThreads;
+    private final boolean m_exportTextQDList;
+    private final DOSPlot.Format m_plotFormat;
+    
+    public SimulationParameters (Properties p_properties)
+    {
+        String outputDirectory = p_properties.getProperty("output_directory");
+        if (outputDirectory == null)
+        {
+            throw new IllegalArgumentException("The output directory is needed.");
+        }
+        
+        m_properties = p_properties;
+        m_outputDirectory = Paths.get(outputDirectory);
+        m_spectrumCacheDirectory = Paths.get(p_properties.getProperty("spectrum_cache_directory", m_outputDirectory.resolve(".spectra").toString()));
+        m_spectrumCacheCapacity = Integer.parseInt(p_properties.getProperty("spectrum_cache_capacity", "0").strip());
+        m_spectrumCacheQuantum = (new BigDecimal(p_properties.getProperty("spectrum_cache_quantum_nm", "0.001").strip())).multiply(PhysicsVariables.UnitsPrefix.NANO.getMultiplier()).doubleValue();
+        m_materialFiles = Arrays.asList(splitList(p_properties.getProperty("materials", "ressources/materials/InAs.mat,ressources/materials/GaAs.mat")));
+        m_metamaterialFile = p_properties.getProperty("metamaterial", "ressources/metamaterials/InAsGaAs.metamat").strip();
+        m_mode = SpectrumCalculator.ComputationMode.valueOf(p_properties.getProperty("computation", "double").strip().toUpperCase());
+        m_wellSolver = FiniteWellSolver.Method.valueOf(p_properties.getProperty("well_solver", "newton").strip().toUpperCase());
+        m_maximumLevels = Integer.parseInt(p_properties.getProperty("max_levels", "0").strip());
+        m_wellWidthQuantum = (new BigDecimal(p_properties.getProperty("well_width_quantum_nm", "0").strip())).multiply(PhysicsVariables.UnitsPrefix.NANO.getMultiplier()).doubleValue();
+        m_totalWishedQDs = Integer.parseInt(p_properties.getProperty("qd_count", "100000").strip());
+        m_sampleXSize = (new BigDecimal(p_properties.getProperty("sample_size_x_cm", "1").strip())).multiply(PhysicsVariables.UnitsPrefix.CENTI.getMultiplier());
+        m_sampleYSize = (new BigDecimal(p_properties.getProperty("sample_size_y_cm", "1").strip())).multiply(PhysicsVariables.UnitsPrefix.CENTI.getMultiplier());
+        m_sizeDistribution = new QDSizeDistribution(Double.parseDouble(p_properties.getProperty("radius_mean_nm", "12").strip()), Double.parseDouble(p_properties.getProperty("radius_deviation_nm", "2.1").strip()),
+                new BigDecimal(p_properties.getProperty("height_ratio", "3").strip()), Double.parseDouble(p_properties.getProperty("height_offset_nm", "-1.5").strip()), Double.parseDouble(p_properties.getProperty("height_deviation_nm", "0.5").strip()));
+        m_binWidth = (new BigDecimal(p_properties.getProperty("bin_width_eV", "0.002").strip())).multiply(PhysicsVariables.EV);
+        m_broadeningKernel = DOSBroadening.Kernel.valueOf(p_properties.getProperty("broadening_kernel", "gaussian").strip().toUpperCase());
+        m_broadeningWidthsmeV = splitList(p_properties.getProperty("broadening_widths_meV", ""));
+        String[] emissionPoints = splitList(p_properties.getProperty("emission_points", ""));
+        m_emissionTemperaturesK = new String[emissionPoints.length];
+        m_emissionChemicalPotentialseV = new String[emissionPoints.length];
+        for (int i = 0 ; i < emissionPoints.length ; i += 1)
+        {
+            String[] point = emissionPoints[i].split(":");
+            if (point.length != 2)
+            {
+                throw new IllegalArgumentException("The emission points have to be given as temperature:chemical potential, not " + emissionPoints[i] + ".");
+            }
+            m_emissionTemperaturesK[i] = point[0].strip();
+            m_emissionChemicalPotentialseV[i] = point[1].strip();
+        }
+        m_evolutionSteps = Integer.parseInt(p_properties.getProperty("evolution_steps", "0").strip());
+        m_evolutionSizeMultiplier = Double.parseDouble(p_properties.getProperty("evolution_size_multiplier", "1.01").strip());
+        m_tileSize = p_properties.containsKey("tile_size_cm") ? (new BigDecimal(p_properties.getProperty("tile_size_cm").strip())).multiply(PhysicsVariables.UnitsPrefix.CENTI.getMultiplier()) : null;
+        m_seed = p_properties.containsKey("seed") ? Long.valueOf(p_properties.getProperty("seed").strip()) : null;
+        m_checkpointInterval = Double.parseDouble(p_properties.getProperty("checkpoint_interval_s", "60").strip());
+        m_resume = Boolean.parseBoolean(p_properties.getProperty("resume", "false").strip());
+        m_nbThreads = Integer.parseInt(p_properties.getProperty("threads", String.valueOf(Runtime.getRuntime().availableProcessors())).strip());
+        m_exportTextQDList = Boolean.parseBoolean(p_properties.getProperty("export_text_qd_list", "true").strip());
+        m_plotFormat = DOSPlot.Format.valueOf(p_properties.getProperty("plot_format", "png").strip().toUpperCase());
+        
+        if (m_totalWishedQDs < 0 || m_sampleXSize.signum() <= 0 || m_sampleYSize.signum() <= 0 || m_binWidth.signum() <= 0)
+        {
+            throw new IllegalArgumentException("The number of QDs can't be negative and the sample sizes and bin width have to be positive.");
+        }
+        if (m_maximumLevels < 0)
+        {
+            throw new IllegalArgumentException("The maximum number of levels can't be negative.");
+        }
+        if (m_spectrumCacheCapacity < 0 || m_spectrumCacheQuantum <= 0)
+        {
+            throw new IllegalArgumentException("The spectrum cache capacity can't be negative and its quantum has to be positive.");
+        }
+        if (m_wellWidthQuantum < 0)
+        {
+            throw new IllegalArgumentException("The well width quantum can't be negative.");
+        }
+        if (m_evolutionSteps < 0 || !(m_evolutionSizeMultiplier > 0))
+        {
+            throw new IllegalArgumentException("The number of evolution steps can't be negative and the size multiplier has to be positive.");
+        }
+        if (!(m_checkpointInterval >= 0))
+        {
+            throw new IllegalArgumentException("The checkpoint interval can't be negative.");
+        }
+    }
+    
+    /**
+     * 
+     * @return the properties the parameters were read from
+     */
+    public Properties getProperties()
+    {
+        return m_properties;
+    }
+    
+    public Path getOutputDirectory()
+    {
+        return m_outputDirectory;
+    }
+    
+    public Path getSpectrumCacheDirectory()
+    {
+        return m_spectrumCacheDirectory;
+    }
+    
+    /**
+     * 
+     * @return the number of spectra the cache keeps, 0 if the spectra aren't cached
+     */
+    public int getSpectrumCacheCapacity()
+    {
+        return m_spectrumCacheCapacity;
+    }
+    
+    /**
+     * 
+     * @return the step on which the spectrum cache rounds the radii and heights, in m
+     */
+    public double getSpectrumCacheQuantum()
+    {
+        return m_spectrumCacheQuantum;
+    }
+    
+    public List<String> getMaterialFiles()
+    {
+        return m_materialFiles;
+    }
+    
+    public String getMetamaterialFile()
+    {
+        return m_metamaterialFile;
+    }
+    
+    public SpectrumCalculator.ComputationMode getComputationMode()
+    {
+        return m_mode;
+    }
+    
+    public FiniteWellSolver.Method getWellSolver()
+    {
+        return m_wellSolver;
+    }
+    
+    public int getMaximumLevels()
+    {
+        return m_maximumLevels;
+    }
+    
+    /**
+     * 
+     * @return the step on which the 1D well widths are rounded, in m. 0 if the exact widths are used
+     */
+    public double getWellWidthQuantum()
+    {
+        return m_wellWidthQuantum;
+    }
+    
+    public int getTotalWishedQDs()
+    {
+        return m_totalWishedQDs;
+    }
+    
+    /**
+     * 
+     * @return in m
+     */
+    public BigDecimal getSampleXSize()
+    {
+        return m_sampleXSize;
+    }
+    
+    /**
+     * 
+     * @return in m
+     */
+    public BigDecimal getSampleYSize()
+    {
+        return m_sampleYSize;
+    }
+    
+    public QDSizeDistribution getSizeDistribution()
+    {
+        return m_sizeDistribution;
+    }
+    
+    /**
+     * 
+     * @return in J
+     */
+    public BigDecimal getBinWidth()
+    {
+        return m_binWidth;
+    }
+    
+    public DOSBroadening.Kernel getBroadeningKernel()
+    {
+        return m_broadeningKernel;
+    }
+    
+    public String[] getBroadeningWidthsmeV()
+    {
+        return m_broadeningWidthsmeV.clone();
+    }
+    
+    /**
+     * 
+     * @return the temperatures of the thermal emission spectra, in K, as written in the parameters
+     */
+    public String[] getEmissionTemperaturesK()
+    {
+        return m_emissionTemperaturesK.clone();
+    }
+    
+    /**
+     * 
+     * @return the chemical potentials of the thermal emission spectra, from the QD conduction band edge, in eV, as written in the parameters
+     */
+    public String[] getEmissionChemicalPotentialseV()
+    {
+        return m_emissionChemicalPotentialseV.clone();
+    }
+    
+    /**
+     * 
+     * @return the number of size evolution steps done after the generation
+     */
+    public int getEvolutionSteps()
+    {
+        return m_evolutionSteps;
+    }
+    
+    /**
+     * 
+     * @return the factor the size of every QD is multiplied by at each evolution step
+     */
+    public double getEvolutionSizeMultiplier()
+    {
+        return m_evolutionSizeMultiplier;
+    }
+    
+    /**
+     * 
+     * @return the side of the generation tiles in m, or null if the sample is generated in one piece
+     */
+    public BigDecimal getTileSize()
+    {
+        return m_tileSize;
+    }
+    
+    /**
+     * 
+     * @return the master seed, or null if it has to be drawn
+     */
+    public Long getSeed()
+    {
+        return m_seed;
+    }
+    
+    /**
+     * 
+     * @return the time between two checkpoints of the generation, in s. 0 if no checkpoint is written
+     */
+    public double getCheckpointInterval()
+    {
+        return m_checkpointInterval;
+    }
+    
+    /**
+     * 
+     * @return true if an interrupted generation has to be continued from its checkpoint
+     */
+    public boolean resume()
+    {
+        return m_resume;
+    }
+    
+    public int getNumberOfThreads()
+    {
+        return m_nbThreads;
+    }
+    
+    public boolean exportTextQDList()
+    {
+        return m_exportTextQDList;
+    }
+    
+    /**
+     * 
+     * @return the format of the DOS picture, NONE if no picture is drawn
+     */
+    public DOSPlot.Format getPlotFormat()
+    {
+        return m_plotFormat;
+    }
+    
+    private static String[] splitList (String p_list)
+    {
+        return Arrays.stream(p_list.split(",")).map(String::strip).filter(element -> !element.isEmpty()).toArray(String[]::new);
+    }
+}
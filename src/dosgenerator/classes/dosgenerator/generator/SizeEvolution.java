@@ -0,0 +1,278 @@
+/*
+ * Copyright (C) 2021 audreyazura
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dosgenerator.generator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BiConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * Evolution of the size of the QDs of a sample over time steps, for annealing or ripening studies.
+ * At each step, the size of every QD is multiplied by the factor given by a schedule, the smallest of its radius and height changing as in QuantumDot.copyWithSizeChange. The QDs stay where they are, their overlaps aren't checked.
+ * The QDs of the same quantized geometry share their levels: each QD only keeps the index of its size class, whose levels are kept once. The levels are only computed for the quantized geometries not met yet, through the calculator and its caches.
+ * The DOS is updated by removing the states of the size class a QD leaves and adding those of the class it joins.
+ * @author audreyazura
+ */
+public class SizeEvolution
+{
+    /**
+     * Size change of each QD at each step
+     */
+    @FunctionalInterface
+    public interface Schedule
+    {
+        /**
+         *
+         * @param p_step the step being computed, starting at 0
+         * @param p_QDIndex
+         * @return the factor the size of the QD is multiplied by during this step, 1 for no change
+         */
+        double sizeMultiplier (int p_step, int p_QDIndex);
+    }
+
+    private final SpectrumCalculator m_calculator;
+    private final int m_nbThreads;
+    private final double[] m_positionsX;
+    private final double[] m_positionsY;
+    private final double[] m_radii;
+    private final double[] m_heights;
+    private final int[] m_sizeClasses;
+    private final Map<SpectrumCalculator.LevelKey, Integer> m_classIndices = new HashMap<>();
+    private final List<QuantumDotSpectrum> m_classSpectra = new ArrayList<>();
+    private final List<double[]> m_classStates = new ArrayList<>();
+    private final DOSHistogram m_DOS;
+
+    private int m_step = 0;
+    private long m_changedQDs = 0;
+    private long m_recomputedSpectra = 0;
+
+    /**
+     *
+     * @param p_calculator computes the new levels, in double precision
+     * @param p_QDs the sample at the start of the evolution
+     * @param p_binWidth the bin width of the DOS, in J
+     * @param p_nbThreads the number of threads computing the new levels
+     */
+    public SizeEvolution (SpectrumCalculator p_calculator, QDEnsemble p_QDs, double p_binWidth, int p_nbThreads)
+    {
+        if (p_calculator.getMode() != SpectrumCalculator.ComputationMode.DOUBLE)
+        {
+            throw new IllegalArgumentException("The size evolution computes the levels in double precision.");
+        }
+        if (p_nbThreads <= 0)
+        {
+            throw new IllegalArgumentException("At least one thread is needed.");
+        }
+
+        int nQDs = p_QDs.size();
+        m_calculator = p_calculator;
+        m_nbThreads = p_nbThreads;
+        m_positionsX = new double[nQDs];
+        m_positionsY = new double[nQDs];
+        m_radii = new double[nQDs];
+        m_heights = new double[nQDs];
+        m_sizeClasses = new int[nQDs];
+        m_DOS = new DOSHistogram(p_binWidth);
+
+        for (int i = 0 ; i < nQDs ; i += 1)
+        {
+            m_positionsX[i] = p_QDs.getX(i);
+            m_positionsY[i] = p_QDs.getY(i);
+            m_radii[i] = p_QDs.getRadius(i);
+            m_heights[i] = p_QDs.getHeight(i);
+            
+            SpectrumCalculator.LevelKey key = m_calculator.levelKey(m_radii[i], m_heights[i]);
+            Integer sizeClass = m_classIndices.get(key);
+            if (sizeClass == null)
+            {
+                QuantumDotSpectrum spectrum = p_QDs.getSpectrum(i);
+                sizeClass = addSizeClass(key, spectrum != null ? spectrum : m_calculator.computeSpectrum(m_radii[i], m_heights[i]));
+            }
+            m_sizeClasses[i] = sizeClass;
+
+            m_DOS.addAll(m_classStates.get(sizeClass));
+        }
+    }
+
+    /**
+     * Apply the schedule over several steps
+     * @param p_nbSteps
+     * @param p_schedule
+     * @param p_snapshots receives the number of the step just done, starting at 1, and the DOS after it. The DOS keeps being updated, it has to be copied to be kept
+     * @throws InterruptedException
+     * @throws ExecutionException
+     */
+    public void evolve (int p_nbSteps, Schedule p_schedule, BiConsumer<Integer, DOSHistogram> p_snapshots) throws InterruptedException, ExecutionException
+    {
+        ForkJoinPool pool = new ForkJoinPool(m_nbThreads);
+
+        try
+        {
+            for (int step = 0 ; step < p_nbSteps ; step += 1)
+            {
+                //the geometry is updated in place, only the QDs with new quantized geometries are kept for the level computation
+                int[] changed = new int[16];
+                int nbChanged = 0;
+                for (int i = 0 ; i < m_radii.length ; i += 1)
+                {
+                    double multiplier = p_schedule.sizeMultiplier(m_step, i);
+                    if (multiplier == 1)
+                    {
+                        continue;
+                    }
+                    if (!(multiplier > 0))
+                    {
+                        throw new IllegalArgumentException("The size multipliers have to be positive, " + multiplier + " given for QD " + i + " at step " + m_step + ".");
+                    }
+
+                    double newRadius = m_radii[i];
+                    double newHeight = m_heights[i];
+                    if (m_radii[i] > m_heights[i])
+                    {
+                        newHeight *= multiplier;
+                    }
+                    else
+                    {
+                        newRadius *= multiplier;
+                    }
+
+                    if (!m_calculator.sameLevels(m_radii[i], m_heights[i], newRadius, newHeight))
+                    {
+                        if (nbChanged == changed.length)
+                        {
+                            changed = Arrays.copyOf(changed, 2 * nbChanged);
+                        }
+                        changed[nbChanged] = i;
+                        nbChanged += 1;
+                    }
+                    m_radii[i] = newRadius;
+                    m_heights[i] = newHeight;
+                    m_changedQDs += 1;
+                }
+
+                //the levels are computed once per quantized geometry not met yet, on the first QD reaching it
+                int[] recomputed = Arrays.copyOf(changed, nbChanged);
+                SpectrumCalculator.LevelKey[] keys = new SpectrumCalculator.LevelKey[nbChanged];
+                Map<SpectrumCalculator.LevelKey, Integer> newKeys = new LinkedHashMap<>();
+                for (int j = 0 ; j < nbChanged ; j += 1)
+                {
+                    keys[j] = m_calculator.levelKey(m_radii[recomputed[j]], m_heights[recomputed[j]]);
+                    if (!m_classIndices.containsKey(keys[j]))
+                    {
+                        newKeys.putIfAbsent(keys[j], recomputed[j]);
+                    }
+                }
+                int[] firstQDs = newKeys.values().stream().mapToInt(Integer::intValue).toArray();
+                QuantumDotSpectrum[] newSpectra = pool.submit(() -> IntStream.of(firstQDs).parallel().mapToObj(i -> m_calculator.computeSpectrum(m_radii[i], m_heights[i])).toArray(QuantumDotSpectrum[]::new)).get();
+                int k = 0;
+                for (SpectrumCalculator.LevelKey key: newKeys.keySet())
+                {
+                    addSizeClass(key, newSpectra[k]);
+                    k += 1;
+                }
+
+                //applied in the QD order, so that the DOS doesn't depend on the number of threads
+                for (int j = 0 ; j < nbChanged ; j += 1)
+                {
+                    int i = recomputed[j];
+                    int newClass = m_classIndices.get(keys[j]);
+                    m_DOS.removeAll(m_classStates.get(m_sizeClasses[i]));
+                    m_DOS.addAll(m_classStates.get(newClass));
+                    m_sizeClasses[i] = newClass;
+                }
+                m_recomputedSpectra += firstQDs.length;
+
+                m_step += 1;
+                p_snapshots.accept(m_step, m_DOS);
+            }
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+    }
+
+    private int addSizeClass (SpectrumCalculator.LevelKey p_key, QuantumDotSpectrum p_spectrum)
+    {
+        int sizeClass = m_classSpectra.size();
+        
+        m_classIndices.put(p_key, sizeClass);
+        m_classSpectra.add(p_spectrum);
+        m_classStates.add(p_spectrum.getStateEnergies());
+        
+        return sizeClass;
+    }
+
+    /**
+     *
+     * @return the DOS of the sample in its current state
+     */
+    public DOSHistogram getDOS()
+    {
+        return m_DOS;
+    }
+
+    /**
+     *
+     * @return the number of steps done
+     */
+    public int getStep()
+    {
+        return m_step;
+    }
+
+    /**
+     *
+     * @return the number of QD size changes applied since the start
+     */
+    public long getNumberOfChangedQDs()
+    {
+        return m_changedQDs;
+    }
+
+    /**
+     *
+     * @return the number of spectra computed since the start, one per quantized geometry reached for the first time
+     */
+    public long getNumberOfRecomputedSpectra()
+    {
+        return m_recomputedSpectra;
+    }
+
+    /**
+     *
+     * @return the sample in its current state
+     */
+    public QDEnsemble toEnsemble()
+    {
+        QDEnsemble QDs = new QDEnsemble(Integer.max(1, m_radii.length));
+
+        for (int i = 0 ; i < m_radii.length ; i += 1)
+        {
+            QDs.add(m_positionsX[i], m_positionsY[i], m_radii[i], m_heights[i], m_classSpectra.get(m_sizeClasses[i]));
+        }
+
+        return QDs;
+    }
+}
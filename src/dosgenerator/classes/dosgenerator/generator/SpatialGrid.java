@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2021 audreyazura
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dosgenerator.generator;
+
+import java.util.HashMap;
+
+/**
+ * Uniform cell list over the sample plane, used to test QD overlaps against the neighbouring cells only.
+ * The cell side is twice the expected maximum radius, so that a QD can only overlap QDs of the 3x3 surrounding cells.
+ * Bigger QDs are still accepted, the searched neighbourhood is then widened accordingly.
+ * All values are in meters.
+ * @author audreyazura
+ */
+public class SpatialGrid
+{
+    private final HashMap<Long, Cell> m_cells = new HashMap<>();
+    private final double m_cellSize;
+
+    private double m_largestRadius = 0;
+    private int m_size = 0;
+
+    public SpatialGrid (double p_maximumRadius)
+    {
+        if (p_maximumRadius <= 0)
+        {
+            throw new IllegalArgumentException("The maximum radius has to be positive.");
+        }
+
+        m_cellSize = 2 * p_maximumRadius;
+    }
+
+    /**
+     * Check if a QD can be put at the given position without overlapping an already placed QD
+     * @param p_x
+     * @param p_y
+     * @param p_radius
+     * @return true if the QD doesn't touch any other QD
+     */
+    public boolean isFree (double p_x, double p_y, double p_radius)
+    {
+        int reach = (int) Math.ceil((p_radius + m_largestRadius) / m_cellSize);
+        long cellX = cellIndex(p_x);
+        long cellY = cellIndex(p_y);
+
+        for (long i = cellX - reach ; i <= cellX + reach ; i += 1)
+        {
+            for (long j = cellY - reach ; j <= cellY + reach ; j += 1)
+            {
+                Cell neighbour = m_cells.get(key(i, j));
+
+                if (neighbour != null && neighbour.overlaps(p_x, p_y, p_radius))
+                {
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    public void add (double p_x, double p_y, double p_radius)
+    {
+        m_cells.computeIfAbsent(key(cellIndex(p_x), cellIndex(p_y)), k -> new Cell()).add(p_x, p_y, p_radius);
+        m_largestRadius = Double.max(m_largestRadius, p_radius);
+        m_size += 1;
+    }
+
+    public int size()
+    {
+        return m_size;
+    }
+
+    private long cellIndex (double p_coordinate)
+    {
+        return (long) Math.floor(p_coordinate / m_cellSize);
+    }
+
+    private static long key (long p_cellX, long p_cellY)
+    {
+        return (p_cellX << 32) ^ (p_cellY & 0xFFFFFFFFL);
+    }
+
+    /**
+     * QDs of a cell, stored as consecutive (x, y, radius) triplets
+     */
+    private static class Cell
+    {
+        private double[] m_values = new double[12];
+        private int m_filled = 0;
+
+        void add (double p_x, double p_y, double p_radius)
+        {
+            if (m_filled + 3 > m_values.length)
+            {
+                double[] grown = new double[2 * m_values.length];
+                System.arraycopy(m_values, 0, grown, 0, m_filled);
+                m_values = grown;
+            }
+
+            m_values[m_filled] = p_x;
+            m_values[m_filled + 1] = p_y;
+            m_values[m_filled + 2] = p_radius;
+            m_filled += 3;
+        }
+
+        boolean overlaps (double p_x, double p_y, double p_radius)
+        {
+            for (int i = 0 ; i < m_filled ; i += 3)
+            {
+                double dx = m_values[i] - p_x;
+                double dy = m_values[i + 1] - p_y;
+                double minDistance = m_values[i + 2] + p_radius;
+
+                //two QDs are only valid if the distance between their centers is strictly greater than the sum of their radii
+                if (dx * dx + dy * dy <= minDistance * minDistance)
+                {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+    }
+}
@@ -0,0 +1,376 @@
+/*
+ * Copyright (C) 2021 audreyazura
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dosgenerator.generator;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.BiFunction;
+import java.util.zip.DataFormatException;
+
+/**
+ * Spectra of the QDs kept from one run to the next, keyed on the quantized radius and height of the QDs.
+ * The spectra of a given sample material, described by its fingerprint, are saved in their own file of the cache directory.
+ * The least recently used spectra are forgotten once the capacity or the memory limit is reached, only the remaining ones being saved.
+ * A spectrum is computed on the rounded geometry and given to every QD rounded on it: the coarser the quantum, the more QDs share a spectrum but the further their levels are from their own. With a fine quantum, the cache only saves work when the same QDs come back, as in a reloaded or grown sample.
+ * @author audreyazura
+ */
+public class SpectrumCache
+{
+    public static final int DEFAULT_CAPACITY = 1000000;
+    public static final long DEFAULT_MAXIMUM_BYTES = 256L << 20;
+
+    private static final int MAGIC = 0x51445343;
+    private static final int VERSION = 2;
+    //saved size of a spectrum without its energies: geometry key, recombination offset and the two counts
+    private static final int RECORD_HEADER_SIZE = 2 * Long.BYTES + Double.BYTES + 2 * Integer.BYTES;
+    //estimated memory taken by a spectrum without its energies: the entry, the key, the spectrum and the headers of its three arrays
+    private static final int ENTRY_OVERHEAD = 160;
+
+    private final Path m_file;
+    private final String m_fingerprint;
+    private final double m_geometryQuantum;
+    private final int m_capacity;
+    private final long m_maximumBytes;
+    private final LinkedHashMap<GeometryKey, QuantumDotSpectrum> m_spectra = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long m_bytes = 0;
+    private long m_hits = 0;
+    private long m_misses = 0;
+
+    /**
+     *
+     * @param p_directory the directory holding the cache files
+     * @param p_fingerprint the fingerprint of the material the spectra are computed for, see SpectrumCalculator.getFingerprint()
+     * @param p_geometryQuantum the step on which radii and heights are rounded, in m
+     * @param p_capacity the maximum number of spectra kept
+     */
+    public SpectrumCache (Path p_directory, String p_fingerprint, double p_geometryQuantum, int p_capacity)
+    {
+        this(p_directory, p_fingerprint, p_geometryQuantum, p_capacity, DEFAULT_MAXIMUM_BYTES);
+    }
+
+    /**
+     *
+     * @param p_directory the directory holding the cache files
+     * @param p_fingerprint the fingerprint of the material the spectra are computed for, see SpectrumCalculator.getFingerprint()
+     * @param p_geometryQuantum the step on which radii and heights are rounded, in m
+     * @param p_capacity the maximum number of spectra kept
+     * @param p_maximumBytes the estimated memory the kept spectra can take, in bytes
+     */
+    public SpectrumCache (Path p_directory, String p_fingerprint, double p_geometryQuantum, int p_capacity, long p_maximumBytes)
+    {
+        if (p_geometryQuantum <= 0 || p_capacity <= 0 || p_maximumBytes <= 0)
+        {
+            throw new IllegalArgumentException("The geometry quantum, the capacity and the memory limit have to be positive.");
+        }
+
+        //the caches of the different quanta are kept side by side
+        m_file = p_directory.resolve("spectra-" + digest(p_fingerprint + ";geometryQuantum=" + p_geometryQuantum) + ".cache");
+        m_fingerprint = p_fingerprint;
+        m_geometryQuantum = p_geometryQuantum;
+        m_capacity = p_capacity;
+        m_maximumBytes = p_maximumBytes;
+    }
+
+    public String getFingerprint()
+    {
+        return m_fingerprint;
+    }
+
+    /**
+     * Get the spectrum of a QD, computing it if needed. The spectrum is computed on the quantized geometry, so that it doesn't depend on which QD was seen first.
+     * @param p_radius in m
+     * @param p_height in m
+     * @param p_solver computes the spectrum from a radius and a height
+     * @return the spectrum of a QD of the quantized size
+     */
+    public QuantumDotSpectrum get (double p_radius, double p_height, BiFunction<Double, Double, QuantumDotSpectrum> p_solver)
+    {
+        GeometryKey key = key(p_radius, p_height);
+        QuantumDotSpectrum spectrum;
+
+        synchronized (this)
+        {
+            spectrum = m_spectra.get(key);
+            if (spectrum != null)
+            {
+                m_hits += 1;
+                return spectrum;
+            }
+            m_misses += 1;
+        }
+
+        //computed outside of the lock, two threads can compute the same spectrum but will get the same result
+        spectrum = p_solver.apply(key.m_radius * m_geometryQuantum, key.m_height * m_geometryQuantum);
+        synchronized (this)
+        {
+            put(key, spectrum);
+        }
+
+        return spectrum;
+    }
+    
+    /**
+     * Keep a spectrum, forgetting the least recently used ones beyond the capacity or the memory limit
+     */
+    private void put (GeometryKey p_key, QuantumDotSpectrum p_spectrum)
+    {
+        QuantumDotSpectrum replaced = m_spectra.put(p_key, p_spectrum);
+        if (replaced != null)
+        {
+            m_bytes -= footprint(replaced);
+        }
+        m_bytes += footprint(p_spectrum);
+        
+        Iterator<QuantumDotSpectrum> eldest = m_spectra.values().iterator();
+        while (m_spectra.size() > m_capacity || (m_bytes > m_maximumBytes && m_spectra.size() > 1))
+        {
+            m_bytes -= footprint(eldest.next());
+            eldest.remove();
+        }
+    }
+    
+    private static long footprint (QuantumDotSpectrum p_spectrum)
+    {
+        return ENTRY_OVERHEAD + ((long) p_spectrum.numberOfStates() + 2L * p_spectrum.numberOfLevels()) * Double.BYTES;
+    }
+
+    /**
+     * 
+     * @param p_radius in m
+     * @param p_height in m
+     * @param p_otherRadius in m
+     * @param p_otherHeight in m
+     * @return true if both geometries are quantized on the same one, and so share their spectrum
+     */
+    public boolean sameGeometry (double p_radius, double p_height, double p_otherRadius, double p_otherHeight)
+    {
+        return key(p_radius, p_height).equals(key(p_otherRadius, p_otherHeight));
+    }
+    
+    /**
+     * 
+     * @param p_length a radius or a height, in m
+     * @return the number of geometry quanta the length is rounded to
+     */
+    public long quantize (double p_length)
+    {
+        return Math.round(p_length / m_geometryQuantum);
+    }
+    
+    private GeometryKey key (double p_radius, double p_height)
+    {
+        return new GeometryKey(quantize(p_radius), quantize(p_height));
+    }
+
+    /**
+     * Read the spectra saved by a previous run, if any
+     * @throws IOException
+     * @throws DataFormatException if the cache file is corrupted
+     */
+    public synchronized void load() throws IOException, DataFormatException
+    {
+        if (!Files.exists(m_file))
+        {
+            return;
+        }
+
+        long remainingBytes = Files.size(m_file);
+        DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(m_file)));
+        try
+        {
+            if (input.readInt() != MAGIC || input.readInt() != VERSION || !input.readUTF().equals(m_fingerprint) || input.readDouble() != m_geometryQuantum)
+            {
+                throw new DataFormatException(m_file + " doesn't hold spectra for this material and quantization.");
+            }
+
+            //the counts are checked against what is left of the file before anything is allocated from them
+            int nSpectra = input.readInt();
+            remainingBytes -= 2 * Integer.BYTES + Short.BYTES + m_fingerprint.getBytes(StandardCharsets.UTF_8).length + Double.BYTES + Integer.BYTES;
+            if (nSpectra < 0 || (long) nSpectra * RECORD_HEADER_SIZE > remainingBytes)
+            {
+                throw new DataFormatException(m_file + " is too short for its " + nSpectra + " spectra.");
+            }
+            
+            for (int i = 0 ; i < nSpectra ; i += 1)
+            {
+                GeometryKey key = new GeometryKey(input.readLong(), input.readLong());
+                double recombinationOffset = input.readDouble();
+                int nStates = input.readInt();
+                int nLevels = input.readInt();
+                remainingBytes -= RECORD_HEADER_SIZE;
+                if (nStates < 0 || nLevels < 0 || ((long) nStates + 2L * nLevels) * Double.BYTES > remainingBytes)
+                {
+                    throw new DataFormatException(m_file + " is corrupted.");
+                }
+                remainingBytes -= ((long) nStates + 2L * nLevels) * Double.BYTES;
+                
+                double[] states = new double[nStates];
+                double[] levels = new double[nLevels];
+                double[] probabilities = new double[levels.length];
+
+                for (int j = 0 ; j < states.length ; j += 1)
+                {
+                    states[j] = input.readDouble();
+                }
+                for (int j = 0 ; j < levels.length ; j += 1)
+                {
+                    levels[j] = input.readDouble();
+                    probabilities[j] = input.readDouble();
+                }
+
+                put(key, new QuantumDotSpectrum(states, levels, probabilities, recombinationOffset));
+            }
+        }
+        finally
+        {
+            input.close();
+        }
+    }
+
+    /**
+     * Save the spectra, the file being replaced only once completely written
+     * @throws IOException
+     */
+    public synchronized void save() throws IOException
+    {
+        Files.createDirectories(m_file.getParent());
+        Path temporaryFile = m_file.resolveSibling(m_file.getFileName() + ".tmp");
+
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporaryFile)));
+        try
+        {
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeUTF(m_fingerprint);
+            output.writeDouble(m_geometryQuantum);
+            output.writeInt(m_spectra.size());
+
+            for (Map.Entry<GeometryKey, QuantumDotSpectrum> entry: m_spectra.entrySet())
+            {
+                QuantumDotSpectrum spectrum = entry.getValue();
+
+                output.writeLong(entry.getKey().m_radius);
+                output.writeLong(entry.getKey().m_height);
+                output.writeDouble(spectrum.getRecombinationOffset());
+                output.writeInt(spectrum.numberOfStates());
+                output.writeInt(spectrum.numberOfLevels());
+                for (int j = 0 ; j < spectrum.numberOfStates() ; j += 1)
+                {
+                    output.writeDouble(spectrum.getStateEnergy(j));
+                }
+                for (int j = 0 ; j < spectrum.numberOfLevels() ; j += 1)
+                {
+                    output.writeDouble(spectrum.getLevelEnergy(j));
+                    output.writeDouble(spectrum.getCumulativeProbability(j));
+                }
+            }
+        }
+        finally
+        {
+            output.close();
+        }
+
+        Files.move(temporaryFile, m_file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public synchronized int size()
+    {
+        return m_spectra.size();
+    }
+
+    public synchronized long getHits()
+    {
+        return m_hits;
+    }
+
+    public synchronized long getMisses()
+    {
+        return m_misses;
+    }
+
+    private static String digest (String p_fingerprint)
+    {
+        return digest(p_fingerprint.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     *
+     * @param p_content
+     * @return the first 128 bits of the SHA-256 hash of the content, in hexadecimal
+     */
+    static String digest (byte[] p_content)
+    {
+        try
+        {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(p_content);
+            StringBuilder hexadecimal = new StringBuilder();
+            for (int i = 0 ; i < 16 ; i += 1)
+            {
+                hexadecimal.append(String.format("%02x", hash[i]));
+            }
+
+            return hexadecimal.toString();
+        }
+        catch (NoSuchAlgorithmException ex)
+        {
+            throw new InternalError("SHA-256 should be available on every JVM.", ex);
+        }
+    }
+
+    private static class GeometryKey
+    {
+        private final long m_radius;
+        private final long m_height;
+
+        GeometryKey (long p_radius, long p_height)
+        {
+            m_radius = p_radius;
+            m_height = p_height;
+        }
+
+        @Override
+        public boolean equals(Object p_other)
+        {
+            if (!(p_other instanceof GeometryKey))
+            {
+                return false;
+            }
+
+            GeometryKey other = (GeometryKey) p_other;
+            return m_radius == other.m_radius && m_height == other.m_height;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Long.hashCode(31 * m_radius + m_height);
+        }
+    }
+}
@@ -0,0 +1,404 @@
+/*
+ * Copyright (C) 2021 audreyazura
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dosgenerator.generator;
+
+import albanlafuente.physicstools.physics.Material;
+import albanlafuente.physicstools.physics.Metamaterial;
+import albanlafuente.physicstools.physics.PhysicsVariables;
+import java.math.BigDecimal;
+import java.util.Arrays;
+
+/**
+ * Builds the QDs of a sample, either with the BigDecimal reference computation or with the double precision one.
+ * The material parameters are converted to double once, when the calculator is created.
+ * @author audreyazura
+ */
+public class SpectrumCalculator
+{
+    public enum ComputationMode
+    {
+        BIGDECIMAL, DOUBLE;
+    }
+
+    private final Metamaterial m_sampleMaterial;
+    private final ComputationMode m_mode;
+    private final WellSolutionCache m_wellCache;
+    private final FiniteWellSolver.Method m_wellSolver;
+    private final int m_maximumLevels;
+
+    private final double m_bandgap;
+    private final double m_CBOffset;
+    private final double m_VBOffset;
+    private final double m_electronMass;
+    private final double m_holeMass;
+    private final double m_hbarSquared;
+    private final double m_thermalEnergy;
+    
+    private volatile SpectrumCache m_spectrumCache = null;
+
+    public SpectrumCalculator (Metamaterial p_sampleMaterial, ComputationMode p_mode)
+    {
+        this(p_sampleMaterial, p_mode, new WellSolutionCache());
+    }
+    
+    /**
+     * 
+     * @param p_sampleMaterial
+     * @param p_mode
+     * @param p_wellCache the memory of the 1D well solutions, shared by all the QDs computed in double precision. null to solve every well
+     */
+    public SpectrumCalculator (Metamaterial p_sampleMaterial, ComputationMode p_mode, WellSolutionCache p_wellCache)
+    {
+        this(p_sampleMaterial, p_mode, p_wellCache, FiniteWellSolver.Method.NEWTON);
+    }
+    
+    /**
+     * 
+     * @param p_sampleMaterial
+     * @param p_mode
+     * @param p_wellCache the memory of the 1D well solutions, shared by all the QDs computed in double precision. null to solve every well
+     * @param p_wellSolver the way the 1D wells are solved in double precision, the BigDecimal computation always using the Newton method
+     */
+    public SpectrumCalculator (Metamaterial p_sampleMaterial, ComputationMode p_mode, WellSolutionCache p_wellCache, FiniteWellSolver.Method p_wellSolver)
+    {
+        this(p_sampleMaterial, p_mode, p_wellCache, p_wellSolver, 0);
+    }
+    
+    /**
+     * 
+     * @param p_sampleMaterial
+     * @param p_mode
+     * @param p_wellCache the memory of the 1D well solutions, shared by all the QDs computed in double precision. null to solve every well
+     * @param p_wellSolver the way the 1D wells are solved in double precision, the BigDecimal computation always using the Newton method
+     * @param p_maximumLevels the number of electron levels kept per QD in double precision, starting from the lowest one, 0 to keep every bound level. The BigDecimal computation always keeps them all
+     */
+    public SpectrumCalculator (Metamaterial p_sampleMaterial, ComputationMode p_mode, WellSolutionCache p_wellCache, FiniteWellSolver.Method p_wellSolver, int p_maximumLevels)
+    {
+        if (p_maximumLevels < 0)
+        {
+            throw new IllegalArgumentException("The number of levels can't be negative.");
+        }
+        
+        Material QDMaterial = p_sampleMaterial.getMaterial("QD");
+        Material barrierMaterial = p_sampleMaterial.getMaterial("barrier");
+        BigDecimal CBOffset = p_sampleMaterial.getOffset(QDMaterial.getMaterialName(), barrierMaterial.getMaterialName());
+
+        m_sampleMaterial = p_sampleMaterial;
+        m_mode = p_mode;
+        m_wellCache = p_wellCache;
+        m_wellSolver = p_wellSolver;
+        m_maximumLevels = p_maximumLevels;
+
+        m_bandgap = QDMaterial.getBandgap().doubleValue();
+        m_CBOffset = CBOffset.doubleValue();
+        m_VBOffset = barrierMaterial.getBandgap().subtract(QDMaterial.getBandgap()).subtract(CBOffset).doubleValue();
+        m_electronMass = QDMaterial.getElectronEffectiveMass().doubleValue();
+        m_holeMass = QDMaterial.getHoleEffectiveMass().doubleValue();
+        m_hbarSquared = PhysicsVariables.hbar.pow(2).doubleValue();
+        m_thermalEnergy = ThermalReweighting.thermalEnergy(ThermalReweighting.DEFAULT_TEMPERATURE);
+    }
+
+    public ComputationMode getMode()
+    {
+        return m_mode;
+    }
+
+    public WellSolutionCache getWellCache()
+    {
+        return m_wellCache;
+    }
+    
+    public FiniteWellSolver.Method getWellSolver()
+    {
+        return m_wellSolver;
+    }
+    
+    /**
+     * 
+     * @return the number of electron levels kept per QD in double precision, 0 if every bound level is kept
+     */
+    public int getMaximumLevels()
+    {
+        return m_maximumLevels;
+    }
+    
+    /**
+     * 
+     * @return a description of every parameter the double precision spectra depend on
+     */
+    public String getFingerprint()
+    {
+        return "bandgap=" + m_bandgap + ";CBOffset=" + m_CBOffset + ";VBOffset=" + m_VBOffset + ";electronMass=" + m_electronMass + ";holeMass=" + m_holeMass
+                + ";hbar2=" + m_hbarSquared + ";kT=" + m_thermalEnergy + ";widthQuantum=" + (m_wellCache == null ? 0 : m_wellCache.getWidthQuantum())
+                + (m_wellSolver == FiniteWellSolver.Method.NEWTON ? "" : ";wellSolver=" + m_wellSolver) + (m_maximumLevels == 0 ? "" : ";maximumLevels=" + m_maximumLevels);
+    }
+    
+    /**
+     * Keep the double precision spectra in a cache persisted between runs
+     * @param p_spectrumCache a cache created with the fingerprint of this calculator, null to stop using it
+     */
+    public void useSpectrumCache (SpectrumCache p_spectrumCache)
+    {
+        if (p_spectrumCache != null && !p_spectrumCache.getFingerprint().equals(getFingerprint()))
+        {
+            throw new IllegalArgumentException("The spectrum cache holds spectra of another material.");
+        }
+        
+        m_spectrumCache = p_spectrumCache;
+    }
+    
+    public QuantumDot createQuantumDot (BigDecimal p_positionX, BigDecimal p_positionY, BigDecimal p_radius, BigDecimal p_height)
+    {
+        if (m_mode == ComputationMode.BIGDECIMAL)
+        {
+            return new QuantumDot(p_positionX, p_positionY, p_radius, p_height, m_sampleMaterial);
+        }
+
+        return new QuantumDot(p_positionX, p_positionY, p_radius, p_height, this);
+    }
+    
+
+    /**
+     * Double precision version of the level computation done in QuantumDot(BigDecimal, BigDecimal, BigDecimal, BigDecimal, Metamaterial)
+     * @param p_radius the QD radius, in m
+     * @param p_height the QD height, in m
+     * @return the QD levels
+     */
+    public QuantumDotSpectrum computeSpectrum (double p_radius, double p_height)
+    {
+        SpectrumCache spectrumCache = m_spectrumCache;
+        
+        if (spectrumCache == null)
+        {
+            return solveSpectrum(p_radius, p_height);
+        }
+        
+        return spectrumCache.get(p_radius, p_height, this::solveSpectrum);
+    }
+    
+    /**
+     * Tell if two QD geometries are given the same levels in double precision, once quantized by the caches of the calculator
+     * @param p_radius in m
+     * @param p_height in m
+     * @param p_otherRadius in m
+     * @param p_otherHeight in m
+     * @return true if computing the levels of the second geometry would give those of the first one
+     */
+    public boolean sameLevels (double p_radius, double p_height, double p_otherRadius, double p_otherHeight)
+    {
+        if (m_mode == ComputationMode.BIGDECIMAL)
+        {
+            return p_radius == p_otherRadius && p_height == p_otherHeight;
+        }
+        
+        SpectrumCache spectrumCache = m_spectrumCache;
+        if (spectrumCache != null)
+        {
+            return spectrumCache.sameGeometry(p_radius, p_height, p_otherRadius, p_otherHeight);
+        }
+        
+        return quantizeWidth(p_radius * Math.sqrt(Math.PI)) == quantizeWidth(p_otherRadius * Math.sqrt(Math.PI)) && quantizeWidth(p_height) == quantizeWidth(p_otherHeight);
+    }
+    
+    /**
+     * 
+     * @param p_radius in m
+     * @param p_height in m
+     * @return the quantized geometry the levels are computed on, equal for two geometries exactly when sameLevels is true
+     */
+    public LevelKey levelKey (double p_radius, double p_height)
+    {
+        if (m_mode == ComputationMode.BIGDECIMAL)
+        {
+            return new LevelKey(p_radius, p_height);
+        }
+        
+        SpectrumCache spectrumCache = m_spectrumCache;
+        if (spectrumCache != null)
+        {
+            return new LevelKey(spectrumCache.quantize(p_radius), spectrumCache.quantize(p_height));
+        }
+        
+        return new LevelKey(quantizeWidth(p_radius * Math.sqrt(Math.PI)), quantizeWidth(p_height));
+    }
+    
+    private QuantumDotSpectrum solveSpectrum (double p_radius, double p_height)
+    {
+        double equivalentSquareSide = quantizeWidth(p_radius * Math.sqrt(Math.PI));
+        double height = quantizeWidth(p_height);
+
+        //calculating hole confinement energy, only considering one level
+        double planeEnergyParameterHole = energyParameter(0, equivalentSquareSide, m_VBOffset, m_holeMass);
+        double heightEnergyParameterHole = energyParameter(0, height, m_VBOffset, m_holeMass);
+        double holeConfinementEnergy = (2 * m_hbarSquared / m_holeMass) * (heightEnergyParameterHole + 2 * planeEnergyParameterHole);
+        double recombinationOffset = m_bandgap + holeConfinementEnergy;
+
+        //the levels come in increasing energy order, up to the band offset or the maximum number of levels, each 1D well being solved once per index
+        double electronPrefactor = 2 * m_hbarSquared / m_electronMass;
+        double[] confinementEnergies = LevelEnumerator.lowestLevels(n -> wellEnergy(n, equivalentSquareSide), n -> wellEnergy(n, height), electronPrefactor, m_CBOffset, m_maximumLevels);
+        int nbLevels = confinementEnergies.length;
+        //the lowest level having the lowest recombination energy
+        if (nbLevels > 0 && confinementEnergies[0] + recombinationOffset < 0)
+        {
+            throw new InternalError("Negative recombination energy.");
+        }
+
+        //each level holds two states, one per spin
+        double[] stateEnergies = new double[2 * nbLevels];
+        for (int i = 0 ; i < nbLevels ; i += 1)
+        {
+            stateEnergies[2 * i] = confinementEnergies[i] + recombinationOffset;
+            stateEnergies[2 * i + 1] = stateEnergies[2 * i];
+        }
+
+        //removing the degenerated levels, as the set of levels does in the BigDecimal computation
+        double[] distinctLevels = confinementEnergies.clone();
+        int nbDistinct = 0;
+        for (int i = 0 ; i < nbLevels ; i += 1)
+        {
+            if (nbDistinct == 0 || distinctLevels[i] != distinctLevels[nbDistinct - 1])
+            {
+                distinctLevels[nbDistinct] = distinctLevels[i];
+                nbDistinct += 1;
+            }
+        }
+
+        /**RECOMB PROBA PER LEVEL
+         * calculate probability for each level using Fermi-Dirac distribution and the energy calculated from the QD material CB position
+         * BIG approximation: chemical potential = 0
+         * The levels are kept with their offset, so that the probabilities can be computed again for other temperatures
+         */
+        distinctLevels = Arrays.copyOf(distinctLevels, nbDistinct);
+        double[] cumulativeProbabilities = ThermalReweighting.cumulativeProbabilities(distinctLevels, m_thermalEnergy, 0);
+        double[] levelEnergies = new double[nbDistinct];
+        for (int i = 0 ; i < nbDistinct ; i += 1)
+        {
+            levelEnergies[i] = distinctLevels[i] + recombinationOffset;
+        }
+
+        return new QuantumDotSpectrum(stateEnergies, levelEnergies, cumulativeProbabilities, recombinationOffset);
+    }
+
+    /**
+     * Compare the double precision computation of a QD with the BigDecimal reference one, as done by this calculator with its well solver, number of levels and width quantization.
+     * A quantized well width moves the levels by up to quantum / width relative, which is added to the tolerance. It can also let a level close to the band offset appear or disappear, so only the states both computations have are compared then
+     * @param p_radius the QD radius, in m
+     * @param p_height the QD height, in m
+     * @param p_relativeTolerance the maximum relative difference accepted between two energies computed on the exact geometry
+     * @return true if both computations give the same states within the tolerance
+     */
+    public boolean crossCheck (BigDecimal p_radius, BigDecimal p_height, double p_relativeTolerance)
+    {
+        double radius = p_radius.doubleValue();
+        double height = p_height.doubleValue();
+        double[] referenceStates = (new QuantumDot(BigDecimal.ZERO, BigDecimal.ZERO, p_radius, p_height, m_sampleMaterial)).getStateEnergies();
+        //the spectrum cache is left aside, its geometry rounding being a choice of its own
+        double[] fastStates = solveSpectrum(radius, height).getStateEnergies();
+        
+        Arrays.sort(referenceStates);
+        Arrays.sort(fastStates);
+        
+        //the BigDecimal computation keeping every level, only its lowest ones are compared when the number of levels is limited
+        int nbCompared = m_maximumLevels == 0 ? referenceStates.length : Integer.min(referenceStates.length, 2 * m_maximumLevels);
+        double widthQuantum = m_wellCache == null ? 0 : m_wellCache.getWidthQuantum();
+        if (widthQuantum == 0)
+        {
+            if (fastStates.length != nbCompared)
+            {
+                return false;
+            }
+        }
+        else
+        {
+            nbCompared = Integer.min(nbCompared, fastStates.length);
+        }
+        
+        double tolerance = p_relativeTolerance + widthQuantum / Double.min(radius * Math.sqrt(Math.PI), height);
+        for (int i = 0 ; i < nbCompared ; i += 1)
+        {
+            if (Math.abs(referenceStates[i] - fastStates[i]) > tolerance * Math.abs(referenceStates[i]))
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private double quantizeWidth (double p_width)
+    {
+        return m_wellCache == null ? p_width : m_wellCache.quantizeWidth(p_width);
+    }
+    
+    /**
+     * 
+     * @param p_index
+     * @param p_size the well width, in m
+     * @return the squared ratio of the energy parameter of the electron level to the well width, -1 if the well doesn't have this level
+     */
+    private double wellEnergy (int p_index, double p_size)
+    {
+        double energyParameter = energyParameter(p_index, p_size, m_CBOffset, m_electronMass);
+        
+        return energyParameter < 0 ? -1 : Math.pow(energyParameter / p_size, 2);
+    }
+    
+    private double energyParameter (int p_index, double p_size, double p_bandOffset, double p_effectiveMass)
+    {
+        double u02 = p_effectiveMass * p_size * p_size * p_bandOffset / (2 * m_hbarSquared);
+        
+        if (m_wellCache == null)
+        {
+            return FiniteWellSolver.energyParameter(p_index, u02, m_wellSolver);
+        }
+        
+        return m_wellCache.energyParameter(p_index, p_size, p_bandOffset, p_effectiveMass, u02, m_wellSolver);
+    }
+    
+    /**
+     * Key of the QD geometries given the same levels, see levelKey
+     */
+    public static class LevelKey
+    {
+        private final double m_width;
+        private final double m_height;
+        
+        LevelKey (double p_width, double p_height)
+        {
+            m_width = p_width;
+            m_height = p_height;
+        }
+        
+        @Override
+        public boolean equals(Object p_other)
+        {
+            if (!(p_other instanceof LevelKey))
+            {
+                return false;
+            }
+            
+            LevelKey other = (LevelKey) p_other;
+            return m_width == other.m_width && m_height == other.m_height;
+        }
+        
+        @Override
+        public int hashCode()
+        {
+            return 31 * Double.hashCode(m_width) + Double.hashCode(m_height);
+        }
+    }
+}
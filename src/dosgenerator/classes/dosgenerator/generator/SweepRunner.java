@@ -0,0 +1,232 @@
+/*
+ * Copyright (C) 2021 audreyazura
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dosgenerator.generator;
+
+import albanlafuente.physicstools.physics.Material;
+import albanlafuente.physicstools.physics.Metamaterial;
+import albanlafuente.physicstools.physics.PhysicsVariables;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.DataFormatException;
+
+/**
+ * Runs several DOS simulations in the same JVM. The materials, the level calculators and their caches are loaded once and shared by all the simulations using them.
+ * A sweep file is a properties file, with the fields of SimulationParameters applying to every point and the list of the points in the field "points" (comma separated).
+ * A field prefixed by the name of a point, as in [point].qd_count, overrides the common one for this point only.
+ * Each point writes its results in the subdirectory of output_directory named after it, unless it has its own output_directory.
+ * The spectrum cache, when enabled, is shared by default, in [output_directory]/.spectra.
+ * @author audreyazura
+ */
+public class SweepRunner
+{
+    private final SCSVLoader m_functionLoader = new SCSVLoader();
+    private final Map<String, Material> m_materials = new HashMap<>();
+    private final Map<String, SpectrumCalculator> m_calculators = new HashMap<>();
+    private final Map<String, SpectrumCache> m_spectrumCaches = new HashMap<>();
+    
+    public SweepRunner ()
+    {
+        
+    }
+    
+    /**
+     * 
+     * @param p_sweepFile
+     * @return the parameters of every point of the sweep, in the order of the points field
+     * @throws IOException 
+     */
+    public static List<SimulationParameters> readSweep (String p_sweepFile) throws IOException
+    {
+        Properties sweep = loadProperties(p_sweepFile);
+        
+        String baseDirectory = sweep.getProperty("output_directory");
+        if (baseDirectory == null || !sweep.containsKey("points"))
+        {
+            throw new IllegalArgumentException(p_sweepFile + " needs an output directory and a list of points.");
+        }
+        
+        String[] points = sweep.getProperty("points").split(",");
+        List<SimulationParameters> sweepParameters = new ArrayList<>();
+        for (String point: points)
+        {
+            String pointName = point.strip();
+            if (pointName.isEmpty())
+            {
+                continue;
+            }
+            
+            Properties pointProperties = new Properties();
+            pointProperties.setProperty("spectrum_cache_directory", Path.of(baseDirectory, ".spectra").toString());
+            for (String field: sweep.stringPropertyNames())
+            {
+                if (!field.equals("points") && !field.contains("."))
+                {
+                    pointProperties.setProperty(field, sweep.getProperty(field));
+                }
+            }
+            pointProperties.setProperty("output_directory", Path.of(baseDirectory, pointName).toString());
+            for (String field: sweep.stringPropertyNames())
+            {
+                if (field.startsWith(pointName + "."))
+                {
+                    pointProperties.setProperty(field.substring(pointName.length() + 1), sweep.getProperty(field));
+                }
+            }
+            
+            sweepParameters.add(new SimulationParameters(pointProperties));
+        }
+        
+        return sweepParameters;
+    }
+    
+    public void runSweep (List<SimulationParameters> p_sweep) throws IOException
+    {
+        //an interrupted point stops the whole sweep
+        for (int i = 0 ; i < p_sweep.size() && !Thread.currentThread().isInterrupted() ; i += 1)
+        {
+            System.out.println("Sweep point " + (i + 1) + "/" + p_sweep.size() + ": " + p_sweep.get(i).getOutputDirectory());
+            run(p_sweep.get(i));
+        }
+    }
+    
+    public void run (SimulationParameters p_parameters) throws IOException
+    {
+        SpectrumCalculator calculator = getCalculator(p_parameters);
+        SpectrumCache spectrumCache = null;
+        
+        if (calculator.getMode() == SpectrumCalculator.ComputationMode.DOUBLE)
+        {
+            spectrumCache = getSpectrumCache(p_parameters, calculator);
+        }
+        
+        (new DOSSimulation(p_parameters, calculator, spectrumCache)).run();
+    }
+    
+    /**
+     * Get the calculator of the sample material of the simulation, creating it the first time the material is met
+     */
+    private SpectrumCalculator getCalculator (SimulationParameters p_parameters) throws IOException
+    {
+        String calculatorKey = p_parameters.getMetamaterialFile() + "|" + String.join(",", p_parameters.getMaterialFiles()) + "|" + p_parameters.getComputationMode() + "|" + p_parameters.getWellSolver() + "|" + p_parameters.getMaximumLevels() + "|" + p_parameters.getWellWidthQuantum();
+        SpectrumCalculator calculator = m_calculators.get(calculatorKey);
+        
+        if (calculator == null)
+        {
+            Map<String, Material> materialMap = new HashMap<>();
+            for (String materialFile: p_parameters.getMaterialFiles())
+            {
+                Material material = getMaterial(materialFile);
+                materialMap.put(material.getMaterialName(), material);
+            }
+            Metamaterial sampleMaterial = new Metamaterial(loadProperties(p_parameters.getMetamaterialFile()), materialMap);
+            
+            //with a width quantum, QDs of close sizes share their 1D well solutions at the cost of slightly moved levels
+            WellSolutionCache wellCache = new WellSolutionCache(p_parameters.getWellWidthQuantum(), WellSolutionCache.DEFAULT_CAPACITY);
+            calculator = new SpectrumCalculator(sampleMaterial, p_parameters.getComputationMode(), wellCache, p_parameters.getWellSolver(), p_parameters.getMaximumLevels());
+            
+            //checking the double precision computation against the BigDecimal one on a typical QD before using it, the tolerance being widened by the width quantization
+            if (calculator.getMode() == SpectrumCalculator.ComputationMode.DOUBLE)
+            {
+                BigDecimal typicalRadius = (new BigDecimal("12")).multiply(PhysicsVariables.UnitsPrefix.NANO.getMultiplier());
+                BigDecimal typicalHeight = (new BigDecimal("2.5")).multiply(PhysicsVariables.UnitsPrefix.NANO.getMultiplier());
+                if (!calculator.crossCheck(typicalRadius, typicalHeight, 1E-9))
+                {
+                    Logger.getLogger(SweepRunner.class.getName()).log(Level.WARNING, "The double precision computation of the QD levels differs from the BigDecimal one.");
+                }
+            }
+            
+            m_calculators.put(calculatorKey, calculator);
+        }
+        
+        return calculator;
+    }
+    
+    private Material getMaterial (String p_materialFile) throws IOException
+    {
+        Material material = m_materials.get(p_materialFile);
+        
+        if (material == null)
+        {
+            material = new Material(loadProperties(p_materialFile), m_functionLoader);
+            m_materials.put(p_materialFile, material);
+        }
+        
+        return material;
+    }
+    
+    /**
+     * The spectra are kept from one run to the next, so that the QDs already computed by a previous run don't have to be computed again
+     * @return the cache filled by the calculator, null if the simulation doesn't cache its spectra
+     */
+    private SpectrumCache getSpectrumCache (SimulationParameters p_parameters, SpectrumCalculator p_calculator)
+    {
+        SpectrumCache spectrumCache = null;
+        
+        if (p_parameters.getSpectrumCacheCapacity() > 0)
+        {
+            Path directory = p_parameters.getSpectrumCacheDirectory();
+            String cacheKey = directory.toAbsolutePath().normalize() + "|" + p_calculator.getFingerprint() + "|" + p_parameters.getSpectrumCacheQuantum() + "|" + p_parameters.getSpectrumCacheCapacity();
+            spectrumCache = m_spectrumCaches.get(cacheKey);
+
+            if (spectrumCache == null)
+            {
+                spectrumCache = new SpectrumCache(directory, p_calculator.getFingerprint(), p_parameters.getSpectrumCacheQuantum(), p_parameters.getSpectrumCacheCapacity());
+                try
+                {
+                    spectrumCache.load();
+                }
+                catch (IOException|DataFormatException ex)
+                {
+                    Logger.getLogger(SweepRunner.class.getName()).log(Level.WARNING, "The spectrum cache couldn't be read, starting from an empty one.", ex);
+                }
+
+                m_spectrumCaches.put(cacheKey, spectrumCache);
+            }
+        }
+        
+        //several simulations share the calculator, the current one deciding which cache it fills
+        p_calculator.useSpectrumCache(spectrumCache);
+        
+        return spectrumCache;
+    }
+    
+    private static Properties loadProperties (String p_file) throws IOException
+    {
+        Properties properties = new Properties();
+        Reader propertiesReader = new FileReader(p_file);
+        try
+        {
+            properties.load(propertiesReader);
+        }
+        finally
+        {
+            propertiesReader.close();
+        }
+        
+        return properties;
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2021 audreyazura
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dosgenerator.generator;
+
+/**
+ * Solver of the finite well equation through a table of the solution v(u0), with a time that doesn't depend on the well.
+ * The inverse function is explicit: u0 = v / |cos v| for the even indices and v / |sin v| for the odd ones, increasing on the interval of the index. The table is therefore built without solving anything, on a regular grid of v, with the slope dv/du0 = 2 v^2 / (u0 f'(v)) at each node.
+ * The interpolation is done in x = 1 / (1 + u0) rather than u0, the cells near the end of the interval spanning very large ranges of u0.
+ * A well is solved by finding the cell of u0 in the table, which brackets the solution, interpolating it with a cubic Hermite polynomial and polishing the result with at most POLISH_STEPS safeguarded Newton steps.
+ * The equation being f(v) = v^2 - u0^2 cos^2 v (or sin^2 v), whose derivative is at least 2v on the interval, the distance to the exact solution is bounded by |f(v)| / (2 min(v, lower end of the bracket)), which is given with the solution.
+ * @author audreyazura
+ */
+public class TabulatedWellSolver
+{
+    private static final int TABLE_CELLS = 256;
+    private static final int POLISH_STEPS = 2;
+
+    private static final Object TABLES_LOCK = new Object();
+    private static volatile Table[] TABLES = new Table[0];
+
+    private TabulatedWellSolver ()
+    {
+
+    }
+
+    /**
+     * Solve v^2 (1 + tan^2 v) = u0^2 (even index) or v^2 (1 + cot^2 v) = u0^2 (odd index) with v between index*pi/2 and (index+1)*pi/2
+     * @param index the index of the level
+     * @param u02 the squared well parameter u0^2 = m L^2 V0 / (2 hbar^2)
+     * @return the solution with its error bound, the parameter being -1 if the well doesn't have a level with this index
+     */
+    public static FiniteWellSolver.Solution solve (int index, double u02)
+    {
+        double minVi = index * Math.PI/2;
+        if (Math.pow(minVi, 2) >= u02)
+        {
+            return new FiniteWellSolver.Solution(-1, 0, 0);
+        }
+
+        Table table = table(index);
+        double u0 = Math.sqrt(u02);
+
+        //last node under u0, the solution being between it and the next one
+        int cell = 0;
+        int after = TABLE_CELLS;
+        while (after - cell > 1)
+        {
+            int middle = (cell + after) >>> 1;
+            if (table.m_wellParameters[middle] <= u0)
+            {
+                cell = middle;
+            }
+            else
+            {
+                after = middle;
+            }
+        }
+
+        double lower = table.m_parameters[cell];
+        double upper = Double.min(cell + 1 < TABLE_CELLS ? table.m_parameters[cell + 1] : (index + 1) * Math.PI/2, u0);
+        double vi;
+        if (index == 0 && cell == 0)
+        {
+            //vanishing well, v^2 = u0^2 cos^2 v being close to v^2 = u0^2 (1 - v^2). 1 / (1 + u0) would lose the digits of v
+            vi = u0 / Math.sqrt(1 + u02);
+            //v = u0 cos v with v below u0, so v is above u0 cos u0
+            lower = Double.max(lower, u0 * Math.cos(u0));
+        }
+        else if (cell + 1 < TABLE_CELLS)
+        {
+            //interpolated in 1 / (1 + u0), in which the solution goes almost linearly to the end of the interval for the deep wells
+            double x = 1 / (1 + u0);
+            double width = table.m_inverseWellParameters[cell + 1] - table.m_inverseWellParameters[cell];
+            double t = (x - table.m_inverseWellParameters[cell]) / width;
+            double t2 = t * t;
+            double t3 = t2 * t;
+            vi = (2 * t3 - 3 * t2 + 1) * table.m_parameters[cell] + (t3 - 2 * t2 + t) * width * table.m_slopes[cell]
+                    + (-2 * t3 + 3 * t2) * table.m_parameters[cell + 1] + (t3 - t2) * width * table.m_slopes[cell + 1];
+        }
+        else
+        {
+            //beyond the table the well is deep, and its levels close to those of the infinite well
+            vi = (index + 1) * Math.PI/2 * u0 / (u0 + 1);
+        }
+        if (!(vi >= lower && vi <= upper))
+        {
+            vi = 0.5 * (lower + upper);
+        }
+
+        int counter = 0;
+        double residual = FiniteWellSolver.functionToOptimize(index, vi, u02);
+        while (counter < POLISH_STEPS && residual != 0)
+        {
+            counter += 1;
+
+            if (residual < 0)
+            {
+                lower = vi;
+            }
+            else
+            {
+                upper = vi;
+            }
+
+            double step = residual / FiniteWellSolver.derivativeFunction(index, vi, u02);
+            if (Math.abs(step) <= FiniteWellSolver.RELATIVE_TOLERANCE * vi)
+            {
+                //converged, the last step being below the precision of vi
+                vi -= step;
+                residual = FiniteWellSolver.functionToOptimize(index, vi, u02);
+                break;
+            }
+
+            double next = vi - step;
+            if (!(next > lower && next < upper))
+            {
+                next = 0.5 * (lower + upper);
+            }
+            vi = next;
+            residual = FiniteWellSolver.functionToOptimize(index, vi, u02);
+        }
+
+        double minimumDerivative = 2 * Double.min(vi, lower);
+        double errorBound = minimumDerivative > 0 ? Math.abs(residual) / minimumDerivative : Double.max(upper - vi, vi - lower);
+
+        return new FiniteWellSolver.Solution(vi, counter, errorBound + Math.ulp(vi));
+    }
+
+    /**
+     *
+     * @param index
+     * @return the table of the level index, built the first time it is needed
+     */
+    private static Table table (int index)
+    {
+        Table[] tables = TABLES;
+        if (index < tables.length && tables[index] != null)
+        {
+            return tables[index];
+        }
+
+        synchronized (TABLES_LOCK)
+        {
+            tables = TABLES;
+            if (index >= tables.length)
+            {
+                Table[] grownTables = new Table[Integer.max(index + 1, 2 * tables.length)];
+                System.arraycopy(tables, 0, grownTables, 0, tables.length);
+                tables = grownTables;
+            }
+            if (tables[index] == null)
+            {
+                tables[index] = new Table(index);
+            }
+            TABLES = tables;
+
+            return tables[index];
+        }
+    }
+
+    /**
+     * Nodes (u0, v, dv/dx) of the solution of one level index, with x = 1 / (1 + u0), v going regularly from index*pi/2 to (index+1)*pi/2 excluded
+     */
+    private static class Table
+    {
+        private final double[] m_wellParameters = new double[TABLE_CELLS];
+        private final double[] m_inverseWellParameters = new double[TABLE_CELLS];
+        private final double[] m_parameters = new double[TABLE_CELLS];
+        private final double[] m_slopes = new double[TABLE_CELLS];
+
+        Table (int p_index)
+        {
+            for (int k = 0 ; k < TABLE_CELLS ; k += 1)
+            {
+                double v = (p_index + (double) k / TABLE_CELLS) * Math.PI/2;
+                double u0 = v / Math.abs(p_index % 2 == 0 ? Math.cos(v) : Math.sin(v));
+
+                m_parameters[k] = v;
+                m_wellParameters[k] = u0;
+                m_inverseWellParameters[k] = 1 / (1 + u0);
+                //dv/dx = -(1 + u0)^2 dv/du0, the first level of a vanishing well going as v = u0
+                double slope = u0 == 0 ? 1 : 2 * v * v / (u0 * FiniteWellSolver.derivativeFunction(p_index, v, u0 * u0));
+                m_slopes[k] = -(1 + u0) * (1 + u0) * slope;
+            }
+        }
+    }
+}
@@ -0,0 +1,272 @@
+/*
+ * Copyright (C) 2021 audreyazura
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dosgenerator.generator;
+
+import albanlafuente.physicstools.physics.PhysicsVariables;
+import java.math.BigDecimal;
+
+/**
+ * Occupation of the QD levels at several temperatures and chemical potentials, computed from levels that are already known.
+ * The recombination probability of a level is its Fermi-Dirac occupation, normalized on the QD: 1 / (1 + exp((Ec - mu) / kT)), Ec being the electron confinement energy of the level and mu the chemical potential measured from the QD conduction band edge. As in the level computation, each distinct level counts once, whatever its degeneracy.
+ * The emission spectra of an ensemble are computed for every (T, mu) point in a single pass over the QDs, each QD emitting one recombination spread over its levels.
+ * @author audreyazura
+ */
+public class ThermalReweighting
+{
+    public static final double DEFAULT_TEMPERATURE = 300;
+
+    private final double[] m_temperatures;
+    private final double[] m_chemicalPotentials;
+    private final double[] m_thermalEnergies;
+
+    /**
+     *
+     * @param p_temperatures the temperature of each point, in K
+     * @param p_chemicalPotentials the chemical potential of each point, from the QD conduction band edge, in J
+     */
+    public ThermalReweighting (double[] p_temperatures, double[] p_chemicalPotentials)
+    {
+        if (p_temperatures.length == 0 || p_temperatures.length != p_chemicalPotentials.length)
+        {
+            throw new IllegalArgumentException("At least one point is needed, with one chemical potential per temperature.");
+        }
+
+        m_temperatures = p_temperatures.clone();
+        m_chemicalPotentials = p_chemicalPotentials.clone();
+        m_thermalEnergies = new double[m_temperatures.length];
+        for (int i = 0 ; i < m_temperatures.length ; i += 1)
+        {
+            m_thermalEnergies[i] = thermalEnergy(m_temperatures[i]);
+        }
+    }
+
+    public int getNumberOfPoints()
+    {
+        return m_temperatures.length;
+    }
+
+    /**
+     *
+     * @param p_point
+     * @return in K
+     */
+    public double getTemperature (int p_point)
+    {
+        return m_temperatures[p_point];
+    }
+
+    /**
+     *
+     * @param p_point
+     * @return in J
+     */
+    public double getChemicalPotential (int p_point)
+    {
+        return m_chemicalPotentials[p_point];
+    }
+
+    /**
+     *
+     * @param p_temperature in K
+     * @return kT, in J
+     */
+    public static double thermalEnergy (double p_temperature)
+    {
+        if (!(p_temperature > 0))
+        {
+            throw new IllegalArgumentException("The temperature has to be positive.");
+        }
+
+        return PhysicsVariables.KB.multiply(BigDecimal.valueOf(p_temperature)).doubleValue();
+    }
+
+    /**
+     * Fermi-Dirac recombination probabilities of the levels of one QD, normalized and accumulated
+     * @param p_confinementEnergies the electron confinement energy of each distinct level, in increasing order, in J
+     * @param p_thermalEnergy kT, in J
+     * @param p_chemicalPotential in J
+     * @return the cumulative probability of each level, the last one being 1
+     */
+    public static double[] cumulativeProbabilities (double[] p_confinementEnergies, double p_thermalEnergy, double p_chemicalPotential)
+    {
+        double[] cumulativeProbabilities = new double[p_confinementEnergies.length];
+        double sumOfProba = occupations(p_confinementEnergies, 0, p_confinementEnergies.length, 0, p_thermalEnergy, p_chemicalPotential, cumulativeProbabilities);
+
+        double sumOfPreviousProba = 0;
+        for (int i = 0 ; i < cumulativeProbabilities.length ; i += 1)
+        {
+            sumOfPreviousProba += cumulativeProbabilities[i] / sumOfProba;
+            cumulativeProbabilities[i] = sumOfPreviousProba;
+        }
+        if (cumulativeProbabilities.length > 0)
+        {
+            cumulativeProbabilities[cumulativeProbabilities.length - 1] = 1;
+        }
+
+        return cumulativeProbabilities;
+    }
+
+    /**
+     * Fill the Fermi-Dirac occupations of consecutive levels. When every occupation is too small to be represented, the QD is far in the Boltzmann limit and the occupations are given relatively to the lowest level
+     * @param p_energies the array holding the confinement energies
+     * @param p_from the first level
+     * @param p_to the level after the last one
+     * @param p_shift the energy subtracted from each entry of p_energies to get the confinement energy
+     * @param p_occupations receives the occupations, from index 0
+     * @return the sum of the occupations
+     */
+    private static double occupations (double[] p_energies, int p_from, int p_to, double p_shift, double p_thermalEnergy, double p_chemicalPotential, double[] p_occupations)
+    {
+        double sum = 0;
+        for (int i = p_from ; i < p_to ; i += 1)
+        {
+            p_occupations[i - p_from] = 1 / (1 + Math.exp((p_energies[i] - p_shift - p_chemicalPotential) / p_thermalEnergy));
+            sum += p_occupations[i - p_from];
+        }
+
+        if (sum == 0 && p_to > p_from)
+        {
+            //-log of the occupation is log(1 + exp(x)), computed without overflowing
+            double reference = softplus((p_energies[p_from] - p_shift - p_chemicalPotential) / p_thermalEnergy);
+            for (int i = p_from ; i < p_to ; i += 1)
+            {
+                p_occupations[i - p_from] = Math.exp(reference - softplus((p_energies[i] - p_shift - p_chemicalPotential) / p_thermalEnergy));
+                sum += p_occupations[i - p_from];
+            }
+        }
+
+        return sum;
+    }
+
+    private static double softplus (double p_x)
+    {
+        return p_x > 0 ? p_x + Math.log1p(Math.exp(-p_x)) : Math.log1p(Math.exp(p_x));
+    }
+
+    /**
+     * Emission spectra of the ensemble at every point, each QD recombining once. The QDs have to know the recombination offset of their levels
+     * @param p_QDs
+     * @param p_binWidth the width of the energy bins, in J
+     * @return the number of recombinations per bin, for each point
+     */
+    public EmissionSpectra emissionSpectra (QDEnsemble p_QDs, double p_binWidth)
+    {
+        if (p_binWidth <= 0)
+        {
+            throw new IllegalArgumentException("The bin width has to be positive.");
+        }
+
+        //the bins are those of the levels of the whole ensemble
+        int firstBin = Integer.MAX_VALUE;
+        int lastBin = Integer.MIN_VALUE;
+        int maximumLevels = 0;
+        for (int i = 0 ; i < p_QDs.size() ; i += 1)
+        {
+            int nbLevels = p_QDs.getNumberOfLevels(i);
+            if (nbLevels > 0)
+            {
+                if (Double.isNaN(p_QDs.getRecombinationOffset(i)))
+                {
+                    throw new IllegalArgumentException("The QD " + i + " doesn't know the recombination offset of its levels.");
+                }
+                firstBin = Integer.min(firstBin, (int) Math.floor(p_QDs.getLevelEnergy(i, 0) / p_binWidth));
+                lastBin = Integer.max(lastBin, (int) Math.floor(p_QDs.getLevelEnergy(i, nbLevels - 1) / p_binWidth));
+                maximumLevels = Integer.max(maximumLevels, nbLevels);
+            }
+        }
+        if (maximumLevels == 0)
+        {
+            return new EmissionSpectra(p_binWidth, 0, new double[m_temperatures.length][0]);
+        }
+
+        double[][] intensities = new double[m_temperatures.length][lastBin - firstBin + 1];
+        double[] levels = new double[maximumLevels];
+        int[] bins = new int[maximumLevels];
+        double[] occupations = new double[maximumLevels];
+
+        //the levels of a QD are read once and weighted for every point
+        for (int i = 0 ; i < p_QDs.size() ; i += 1)
+        {
+            int nbLevels = p_QDs.getNumberOfLevels(i);
+            double offset = p_QDs.getRecombinationOffset(i);
+            for (int level = 0 ; level < nbLevels ; level += 1)
+            {
+                levels[level] = p_QDs.getLevelEnergy(i, level);
+                bins[level] = (int) Math.floor(levels[level] / p_binWidth) - firstBin;
+            }
+
+            for (int point = 0 ; point < m_temperatures.length ; point += 1)
+            {
+                double sum = occupations(levels, 0, nbLevels, offset, m_thermalEnergies[point], m_chemicalPotentials[point], occupations);
+                double[] pointIntensities = intensities[point];
+                for (int level = 0 ; level < nbLevels ; level += 1)
+                {
+                    pointIntensities[bins[level]] += occupations[level] / sum;
+                }
+            }
+        }
+
+        return new EmissionSpectra(p_binWidth, firstBin, intensities);
+    }
+
+    /**
+     * Emission spectra of one ensemble, sharing the same bins
+     */
+    public static class EmissionSpectra
+    {
+        private final double m_binWidth;
+        private final int m_firstBin;
+        private final double[][] m_intensities;
+
+        private EmissionSpectra (double p_binWidth, int p_firstBin, double[][] p_intensities)
+        {
+            m_binWidth = p_binWidth;
+            m_firstBin = p_firstBin;
+            m_intensities = p_intensities;
+        }
+
+        public int getFirstBin()
+        {
+            return m_firstBin;
+        }
+
+        public int getNumberOfBins()
+        {
+            return m_intensities[0].length;
+        }
+
+        /**
+         *
+         * @param p_index the index in the intensity arrays
+         * @return the lower bound of the corresponding bin, in J
+         */
+        public double getBinEnergy (int p_index)
+        {
+            return (m_firstBin + p_index) * m_binWidth;
+        }
+
+        /**
+         *
+         * @param p_point
+         * @return the number of recombinations per bin at this point, starting at getFirstBin()
+         */
+        public double[] getIntensities (int p_point)
+        {
+            return m_intensities[p_point].clone();
+        }
+    }
+}
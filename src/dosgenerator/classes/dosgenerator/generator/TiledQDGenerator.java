@@ -0,0 +1,401 @@
+/*
+ * Copyright (C) 2021 audreyazura
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dosgenerator.generator;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.DataFormatException;
+
+/**
+ * Generation of a sample too big to be kept in memory, tile after tile.
+ * Each tile is generated with its own placement grid and its own seed, split from the master seed with the tile index, then its QDs and its DOS are saved in the tile directory and only the QDs near its edges, its halo, are kept in memory.
+ * A tile is checked against the halos of its neighbours generated before it. The tiles are generated column after column, the even tiles of a column in parallel then its odd ones: the tiles generated together have no common edge, so that the result doesn't depend on the number of threads.
+ * The halos of a column are forgotten once the next column is done, the memory used depending on the size of the tiles and of the columns only.
+ * The number of QDs of each tile is proportional to its area. A tile whose files already exist is read instead of generated, so that an interrupted generation can be completed. Its files are only reused if they were saved with the same run key (seed, QD counts, sizes, size distribution and calculator), the tiles of another run being generated again.
+ * The halo holds the QDs closer to the tile edges than their radius plus the maximum radius of the distribution. A QD bigger than this maximum could overlap a QD of another tile.
+ * @author audreyazura
+ */
+public class TiledQDGenerator
+{
+    private final SpectrumCalculator m_calculator;
+    private final QDSizeDistribution m_sizeDistribution;
+    private final BigDecimal m_sampleXSize;
+    private final BigDecimal m_sampleYSize;
+    private final BigDecimal m_tileSize;
+    private final int m_nbTilesX;
+    private final int m_nbTilesY;
+    private final long m_masterSeed;
+    private final int m_nbThreads;
+    private final Path m_tileDirectory;
+    private final RunMetrics m_metrics;
+    
+    private final Map<Integer, double[]> m_halos = new HashMap<>();
+    private long m_placedQDs = 0;
+    private long m_missingQDs = 0;
+    
+    /**
+     * 
+     * @param p_calculator the calculator building the QDs, has to be usable from several threads
+     * @param p_sizeDistribution the distribution the QD radii and heights are drawn from
+     * @param p_sampleXSize in m
+     * @param p_sampleYSize in m
+     * @param p_tileSize the side of the tiles, in m. The last tiles of each row and column are cut by the sample edges
+     * @param p_masterSeed the seed every tile seed is split from
+     * @param p_nbThreads the number of tiles generated at the same time
+     * @param p_tileDirectory where the QDs and DOS of each tile are saved
+     * @param p_metrics receives the counts of every tile
+     */
+    public TiledQDGenerator (SpectrumCalculator p_calculator, QDSizeDistribution p_sizeDistribution, BigDecimal p_sampleXSize, BigDecimal p_sampleYSize, BigDecimal p_tileSize, long p_masterSeed, int p_nbThreads, Path p_tileDirectory, RunMetrics p_metrics)
+    {
+        if (p_nbThreads <= 0 || p_tileSize.doubleValue() < 4 * p_sizeDistribution.getMaximumRadius())
+        {
+            throw new IllegalArgumentException("At least one thread is needed and the tiles have to be larger than their halos.");
+        }
+        
+        m_calculator = p_calculator;
+        m_sizeDistribution = p_sizeDistribution;
+        m_sampleXSize = p_sampleXSize;
+        m_sampleYSize = p_sampleYSize;
+        m_tileSize = p_tileSize;
+        m_nbTilesX = p_sampleXSize.divide(p_tileSize, 0, RoundingMode.CEILING).intValueExact();
+        m_nbTilesY = p_sampleYSize.divide(p_tileSize, 0, RoundingMode.CEILING).intValueExact();
+        m_masterSeed = p_masterSeed;
+        m_nbThreads = p_nbThreads;
+        m_tileDirectory = p_tileDirectory;
+        m_metrics = p_metrics;
+    }
+    
+    /**
+     * Generate every tile
+     * @param p_nQDs the number of QDs of the whole sample
+     * @param p_binWidth the bin width of the DOS, in J
+     * @return the DOS of the whole sample, merged from the DOS of the tiles
+     * @throws IOException
+     * @throws InterruptedException
+     * @throws ExecutionException 
+     */
+    public DOSHistogram generate (long p_nQDs, double p_binWidth) throws IOException, InterruptedException, ExecutionException
+    {
+        Files.createDirectories(m_tileDirectory);
+        
+        DOSHistogram sampleDOS = new DOSHistogram(p_binWidth);
+        ExecutorService pool = Executors.newFixedThreadPool(m_nbThreads);
+        int doneTiles = 0;
+        int reusedTiles = 0;
+        int staleTiles = 0;
+        m_placedQDs = 0;
+        m_missingQDs = 0;
+        
+        try
+        {
+            for (int i = 0 ; i < m_nbTilesX ; i += 1)
+            {
+                for (int parity = 0 ; parity < 2 ; parity += 1)
+                {
+                    List<Integer> phaseTiles = new ArrayList<>();
+                    List<Future<TileResult>> phaseResults = new ArrayList<>();
+
+                    for (int j = parity ; j < m_nbTilesY ; j += 2)
+                    {
+                        int tileIndex = i * m_nbTilesY + j;
+                        long tileQDs = tileQDs(tileIndex, p_nQDs);
+                        List<double[]> neighbourHalos = neighbourHalos(i, j);
+
+                        phaseTiles.add(tileIndex);
+                        phaseResults.add(pool.submit(() -> generateTile(tileIndex, (int) tileQDs, p_nQDs, p_binWidth, neighbourHalos)));
+                    }
+
+                    for (int k = 0 ; k < phaseTiles.size() ; k += 1)
+                    {
+                        TileResult result = phaseResults.get(k).get();
+
+                        sampleDOS.addAll(result.m_DOS);
+                        m_halos.put(phaseTiles.get(k), result.m_halo);
+                        m_placedQDs += result.m_nbQDs;
+                        m_missingQDs += result.m_missingQDs;
+                        reusedTiles += result.m_reused ? 1 : 0;
+                        staleTiles += result.m_stale ? 1 : 0;
+                        doneTiles += 1;
+                        m_metrics.reportProgress("Generated tiles", doneTiles, (long) m_nbTilesX * m_nbTilesY, () -> m_placedQDs + " QDs");
+                    }
+                }
+                
+                //every neighbour of the previous column is done
+                for (int j = 0 ; j < m_nbTilesY && i > 0 ; j += 1)
+                {
+                    m_halos.remove((i - 1) * m_nbTilesY + j);
+                }
+            }
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+        m_halos.clear();
+        
+        m_metrics.set("tiles", (long) m_nbTilesX * m_nbTilesY);
+        m_metrics.set("reused_tiles", reusedTiles);
+        if (staleTiles > 0)
+        {
+            Logger.getLogger(TiledQDGenerator.class.getName()).log(Level.WARNING, staleTiles + " tiles of the tile directory were saved by another run, they have been generated again.");
+            m_metrics.set("regenerated_tiles", staleTiles);
+        }
+        
+        return sampleDOS;
+    }
+    
+    /**
+     * 
+     * @return the number of QDs placed in the sample by the last generation
+     */
+    public long getNumberOfPlacedQDs()
+    {
+        return m_placedQDs;
+    }
+    
+    /**
+     * 
+     * @return the number of QDs the tiles generated by the last generation couldn't place, their part of the sample being saturated. The tiles read from the tile directory aren't counted
+     */
+    public long getNumberOfMissingQDs()
+    {
+        return m_missingQDs;
+    }
+    
+    /**
+     * 
+     * @return the binary QD list of every tile, in the order of the tile indices
+     */
+    public List<Path> getTileFiles()
+    {
+        List<Path> tileFiles = new ArrayList<>();
+        
+        for (int tileIndex = 0 ; tileIndex < m_nbTilesX * m_nbTilesY ; tileIndex += 1)
+        {
+            tileFiles.add(QDFile(tileIndex));
+        }
+        
+        return tileFiles;
+    }
+    
+    private TileResult generateTile (int p_tileIndex, int p_nQDs, long p_sampleQDs, double p_binWidth, List<double[]> p_neighbourHalos) throws IOException, InterruptedException, ExecutionException, DataFormatException
+    {
+        int i = p_tileIndex / m_nbTilesY;
+        int j = p_tileIndex % m_nbTilesY;
+        BigDecimal originX = m_tileSize.multiply(new BigDecimal(i));
+        BigDecimal originY = m_tileSize.multiply(new BigDecimal(j));
+        BigDecimal tileXSize = m_sampleXSize.subtract(originX).min(m_tileSize);
+        BigDecimal tileYSize = m_sampleYSize.subtract(originY).min(m_tileSize);
+        
+        Path QDFile = QDFile(p_tileIndex);
+        Path DOSFile = DOSFile(p_tileIndex);
+        Path keyFile = keyFile(p_tileIndex);
+        String tileKey = tileKey(p_nQDs, p_sampleQDs);
+        List<QuantumDot> tileQDs;
+        DOSHistogram tileDOS;
+        boolean reused = Files.exists(DOSFile) && Files.exists(QDFile) && Files.exists(keyFile) && Files.readString(keyFile).equals(tileKey);
+        boolean stale = !reused && Files.exists(DOSFile);
+        int missingQDs = 0;
+        
+        //the DOS file is written last, its presence means the tile is complete
+        if (reused)
+        {
+            tileQDs = QDListIO.readBinary(QDFile, m_calculator);
+            tileDOS = DOSHistogram.load(DOSFile);
+            for (QuantumDot tileQD: tileQDs)
+            {
+                m_metrics.recordQD(tileQD.getNumberOfStates());
+            }
+        }
+        else
+        {
+            //a tile of another run stops being complete before any of its files is replaced
+            Files.deleteIfExists(DOSFile);
+            
+            SpatialGrid placementGrid = new SpatialGrid(m_sizeDistribution.getMaximumRadius());
+            for (double[] halo: p_neighbourHalos)
+            {
+                for (int k = 0 ; k < halo.length ; k += 3)
+                {
+                    placementGrid.add(halo[k], halo[k + 1], halo[k + 2]);
+                }
+            }
+            
+            List<QuantumDot> createdQDs = new ArrayList<>(p_nQDs);
+            DOSHistogram createdDOS = new DOSHistogram(p_binWidth);
+            ParallelQDGenerator generator = new ParallelQDGenerator(m_calculator, m_sizeDistribution, originX, originY, tileXSize, tileYSize, ParallelQDGenerator.mix(m_masterSeed + p_tileIndex), 1);
+            generator.generate(p_nQDs, placementGrid, createdQD ->
+            {
+                double[] states = createdQD.getStateEnergies();
+                
+                createdQDs.add(createdQD);
+                createdDOS.addAll(states);
+                m_metrics.recordQD(states.length);
+            });
+            m_metrics.add("placement_attempts", generator.getNumberOfCandidates());
+            m_metrics.add("placement_rejections", generator.getNumberOfRejections());
+            m_metrics.add("saturated_cells", generator.getSaturationMap().getNumberOfSaturatedCells());
+            
+            tileQDs = createdQDs;
+            tileDOS = createdDOS;
+            missingQDs = p_nQDs - createdQDs.size();
+            Path temporaryFile = m_tileDirectory.resolve(QDFile.getFileName() + ".tmp");
+            QDListIO.writeBinary(temporaryFile, tileQDs, m_calculator);
+            Files.move(temporaryFile, QDFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            temporaryFile = m_tileDirectory.resolve(keyFile.getFileName() + ".tmp");
+            Files.writeString(temporaryFile, tileKey);
+            Files.move(temporaryFile, keyFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            temporaryFile = m_tileDirectory.resolve(DOSFile.getFileName() + ".tmp");
+            tileDOS.save(temporaryFile);
+            Files.move(temporaryFile, DOSFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        
+        //keeping only the QDs that can overlap a QD of a neighbouring tile
+        double reach = m_sizeDistribution.getMaximumRadius();
+        double lowerX = originX.doubleValue();
+        double lowerY = originY.doubleValue();
+        double upperX = lowerX + tileXSize.doubleValue();
+        double upperY = lowerY + tileYSize.doubleValue();
+        double[] halo = new double[3 * tileQDs.size()];
+        int filled = 0;
+        for (QuantumDot tileQD: tileQDs)
+        {
+            double x = tileQD.getX().doubleValue();
+            double y = tileQD.getY().doubleValue();
+            double radius = tileQD.getRadius().doubleValue();
+            double edgeDistance = Math.min(Math.min(x - lowerX, upperX - x), Math.min(y - lowerY, upperY - y));
+            
+            if (edgeDistance < radius + reach)
+            {
+                halo[filled] = x;
+                halo[filled + 1] = y;
+                halo[filled + 2] = radius;
+                filled += 3;
+            }
+        }
+        
+        return new TileResult(tileQDs.size(), missingQDs, reused, stale, tileDOS, Arrays.copyOf(halo, filled));
+    }
+    
+    /**
+     * The number of QDs of a tile, proportional to its area. The counts are rounded on the cumulated area, so that they sum to the total
+     */
+    private long tileQDs (int p_tileIndex, long p_nQDs)
+    {
+        return cumulatedQDs(p_tileIndex + 1, p_nQDs) - cumulatedQDs(p_tileIndex, p_nQDs);
+    }
+    
+    private long cumulatedQDs (int p_nbTiles, long p_nQDs)
+    {
+        double sampleXSize = m_sampleXSize.doubleValue();
+        double sampleYSize = m_sampleYSize.doubleValue();
+        double tileSize = m_tileSize.doubleValue();
+        double area = 0;
+        
+        //complete columns of tiles, then the tiles of the current column
+        int i = p_nbTiles / m_nbTilesY;
+        int j = p_nbTiles % m_nbTilesY;
+        area += Math.min(i * tileSize, sampleXSize) * sampleYSize;
+        if (j > 0)
+        {
+            area += (Math.min((i + 1) * tileSize, sampleXSize) - i * tileSize) * Math.min(j * tileSize, sampleYSize);
+        }
+        
+        return Math.round(p_nQDs * area / (sampleXSize * sampleYSize));
+    }
+    
+    private List<double[]> neighbourHalos (int p_i, int p_j)
+    {
+        List<double[]> halos = new ArrayList<>();
+        
+        for (int i = p_i - 1 ; i <= p_i + 1 ; i += 1)
+        {
+            for (int j = p_j - 1 ; j <= p_j + 1 ; j += 1)
+            {
+                double[] halo = (i >= 0 && i < m_nbTilesX && j >= 0 && j < m_nbTilesY) ? m_halos.get(i * m_nbTilesY + j) : null;
+                if (halo != null)
+                {
+                    halos.add(halo);
+                }
+            }
+        }
+        
+        return halos;
+    }
+    
+    private Path QDFile (int p_tileIndex)
+    {
+        return m_tileDirectory.resolve("tile-" + p_tileIndex / m_nbTilesY + "-" + p_tileIndex % m_nbTilesY + ".qdb");
+    }
+    
+    /**
+     * 
+     * @param p_tileQDs the number of QDs of the tile
+     * @param p_sampleQDs the number of QDs of the whole sample
+     * @return a description of everything the QDs of a tile depend on, the halos of its neighbours included
+     */
+    private String tileKey (int p_tileQDs, long p_sampleQDs)
+    {
+        return "seed=" + m_masterSeed + ";tileQDs=" + p_tileQDs + ";sampleQDs=" + p_sampleQDs + ";tileSize=" + m_tileSize + ";sampleX=" + m_sampleXSize + ";sampleY=" + m_sampleYSize
+                + ";" + m_sizeDistribution.getFingerprint() + ";" + m_calculator.getFingerprint() + ";mode=" + m_calculator.getMode();
+    }
+    
+    private Path keyFile (int p_tileIndex)
+    {
+        return m_tileDirectory.resolve("tile-" + p_tileIndex / m_nbTilesY + "-" + p_tileIndex % m_nbTilesY + ".key");
+    }
+    
+    private Path DOSFile (int p_tileIndex)
+    {
+        return m_tileDirectory.resolve("tile-" + p_tileIndex / m_nbTilesY + "-" + p_tileIndex % m_nbTilesY + ".dos");
+    }
+    
+    private static class TileResult
+    {
+        private final int m_nbQDs;
+        private final int m_missingQDs;
+        private final boolean m_reused;
+        private final boolean m_stale;
+        private final DOSHistogram m_DOS;
+        private final double[] m_halo;
+        
+        TileResult (int p_nbQDs, int p_missingQDs, boolean p_reused, boolean p_stale, DOSHistogram p_DOS, double[] p_halo)
+        {
+            m_nbQDs = p_nbQDs;
+            m_missingQDs = p_missingQDs;
+            m_reused = p_reused;
+            m_stale = p_stale;
+            m_DOS = p_DOS;
+            m_halo = p_halo;
+        }
+    }
+}
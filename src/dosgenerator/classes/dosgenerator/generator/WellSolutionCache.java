@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2021 audreyazura
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package dosgenerator.generator;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Memory of the 1D finite well solutions, keyed on (index, well width, band offset, effective mass).
+ * The well widths can be quantized so that QDs of close sizes share their solutions. The least recently used solutions are forgotten once the capacity is reached.
+ * The solutions are spread over STRIPES independently locked maps, each one holding its share of the capacity, so that the threads computing levels don't wait on each other. The wells are solved outside of the locks.
+ * @author audreyazura
+ */
+public class WellSolutionCache
+{
+    public static final int DEFAULT_CAPACITY = 100000;
+    
+    private static final int STRIPES = 64;
+
+    private final double m_widthQuantum;
+    private final LinkedHashMap<WellKey, Double>[] m_stripes;
+
+    private final LongAdder m_hits = new LongAdder();
+    private final LongAdder m_misses = new LongAdder();
+
+    public WellSolutionCache ()
+    {
+        this(0, DEFAULT_CAPACITY);
+    }
+
+    /**
+     *
+     * @param p_widthQuantum the step on which the well widths are rounded, in m. 0 to keep the exact widths
+     * @param p_capacity the maximum number of solutions kept, rounded up to a multiple of the number of stripes
+     */
+    @SuppressWarnings("unchecked")
+    public WellSolutionCache (double p_widthQuantum, int p_capacity)
+    {
+        if (p_widthQuantum < 0 || p_capacity <= 0)
+        {
+            throw new IllegalArgumentException("The width quantum can't be negative and the capacity has to be positive.");
+        }
+
+        m_widthQuantum = p_widthQuantum;
+        m_stripes = new LinkedHashMap[STRIPES];
+        int stripeCapacity = (p_capacity + STRIPES - 1) / STRIPES;
+        for (int i = 0 ; i < STRIPES ; i += 1)
+        {
+            m_stripes[i] = new LinkedHashMap<>(16, 0.75f, true)
+            {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<WellKey, Double> eldest)
+                {
+                    return size() > stripeCapacity;
+                }
+            };
+        }
+    }
+
+    public double getWidthQuantum()
+    {
+        return m_widthQuantum;
+    }
+    
+    /**
+     * Round a well width on the quantization step. Widths have to go through this before being used to compute energies, so that they stay consistent with the stored solutions.
+     * @param p_width the well width, in m
+     * @return the quantized width
+     */
+    public double quantizeWidth (double p_width)
+    {
+        if (m_widthQuantum == 0)
+        {
+            return p_width;
+        }
+
+        return Double.max(1, Math.rint(p_width / m_widthQuantum)) * m_widthQuantum;
+    }
+
+    /**
+     * Get the energy parameter of a well, solving it only if it isn't known yet
+     * @param p_index the level index
+     * @param p_width the (already quantized) well width, in m
+     * @param p_bandOffset the well depth, in J
+     * @param p_effectiveMass the carrier effective mass, in kg
+     * @param p_u02 the squared well parameter, used only if the well has to be solved
+     * @return the energy parameter, or -1 if the well doesn't have a level with this index
+     */
+    public double energyParameter (int p_index, double p_width, double p_bandOffset, double p_effectiveMass, double p_u02)
+    {
+        return energyParameter(p_index, p_width, p_bandOffset, p_effectiveMass, p_u02, FiniteWellSolver.Method.NEWTON);
+    }
+    
+    /**
+     * Get the energy parameter of a well, solving it only if it isn't known yet. A cache has to be used with a single solver method, the solutions of the methods differing in their last digits
+     * @param p_index the level index
+     * @param p_width the (already quantized) well width, in m
+     * @param p_bandOffset the well depth, in J
+     * @param p_effectiveMass the carrier effective mass, in kg
+     * @param p_u02 the squared well parameter, used only if the well has to be solved
+     * @param p_method the way the well is solved
+     * @return the energy parameter, or -1 if the well doesn't have a level with this index
+     */
+    public double energyParameter (int p_index, double p_width, double p_bandOffset, double p_effectiveMass, double p_u02, FiniteWellSolver.Method p_method)
+    {
+        WellKey key = new WellKey(p_index, p_width, p_bandOffset, p_effectiveMass);
+        LinkedHashMap<WellKey, Double> stripe = m_stripes[Math.floorMod(key.hashCode() ^ (key.hashCode() >>> 16), STRIPES)];
+        Double solution;
+        
+        synchronized (stripe)
+        {
+            solution = stripe.get(key);
+        }
+        
+        if (solution != null)
+        {
+            m_hits.increment();
+            return solution;
+        }
+        
+        //a concurrent miss on the same well solves it again, to the same value
+        m_misses.increment();
+        solution = FiniteWellSolver.energyParameter(p_index, p_u02, p_method);
+        synchronized (stripe)
+        {
+            stripe.put(key, solution);
+        }
+
+        return solution;
+    }
+
+    public int size()
+    {
+        int size = 0;
+        for (LinkedHashMap<WellKey, Double> stripe: m_stripes)
+        {
+            synchronized (stripe)
+            {
+                size += stripe.size();
+            }
+        }
+        
+        return size;
+    }
+
+    public long getHits()
+    {
+        return m_hits.sum();
+    }
+
+    public long getMisses()
+    {
+        return m_misses.sum();
+    }
+
+    private static class WellKey
+    {
+        private final int m_index;
+        private final long m_width;
+        private final long m_bandOffset;
+        private final long m_effectiveMass;
+
+        WellKey (int p_index, double p_width, double p_bandOffset, double p_effectiveMass)
+        {
+            m_index = p_index;
+            m_width = Double.doubleToLongBits(p_width);
+            m_bandOffset = Double.doubleToLongBits(p_bandOffset);
+            m_effectiveMass = Double.doubleToLongBits(p_effectiveMass);
+        }
+
+        @Override
+        public boolean equals(Object p_other)
+        {
+            if (!(p_other instanceof WellKey))
+            {
+                return false;
+            }
+
+            WellKey other = (WellKey) p_other;
+            return m_index == other.m_index && m_width == other.m_width && m_bandOffset == other.m_bandOffset && m_effectiveMass == other.m_effectiveMass;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            long hash = m_index;
+            hash = 31 * hash + m_width;
+            hash = 31 * hash + m_bandOffset;
+            hash = 31 * hash + m_effectiveMass;
+
+            return Long.hashCode(hash);
+        }
+    }
+}
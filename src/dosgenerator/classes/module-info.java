@@ -7,6 +7,7 @@ module dosgenerator
 {
     requires albanlafuente.physicstools;
     requires com.github.kilian;
+    requires java.desktop;
     requires java.logging;
     requires org.nevec.rjm;
 }